@@ -2,19 +2,29 @@ package com.igormaznitsa.jcpai.providers.anthropic;
 
 import com.anthropic.client.AnthropicClient;
 import com.anthropic.client.okhttp.AnthropicOkHttpClient;
+import com.anthropic.core.JsonValue;
+import com.anthropic.errors.AnthropicServiceException;
 import com.anthropic.models.messages.Message;
 import com.anthropic.models.messages.MessageCreateParams;
 import com.anthropic.models.messages.Model;
 import com.anthropic.models.messages.TextBlock;
+import com.anthropic.models.messages.Tool;
+import com.anthropic.models.messages.ToolChoiceTool;
+import com.anthropic.models.messages.ToolUseBlock;
 import com.igormaznitsa.jcp.context.PreprocessorContext;
 import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
 import com.igormaznitsa.jcp.expression.Value;
 import com.igormaznitsa.jcp.utils.PreprocessorUtils;
 import com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor;
 import com.igormaznitsa.jcpai.commons.ContentRecord;
+import com.igormaznitsa.jcpai.commons.PromptResponse;
+import com.igormaznitsa.jcpai.commons.RetryPolicy;
+import com.igormaznitsa.jcpai.commons.StructuredOutput;
+import com.igormaznitsa.jcpai.commons.jfr.PromptRequestEvent;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class AnthropicJcpAiProcessor extends AbstractJcpAiProcessor {
@@ -71,6 +81,22 @@ public class AnthropicJcpAiProcessor extends AbstractJcpAiProcessor {
 
     builder.addUserMessage(prompt);
 
+    if (this.isStructuredOutput(context)) {
+      builder.addTool(Tool.builder()
+          .name(StructuredOutput.SCHEMA_NAME)
+          .description("Emit generated source code")
+          .inputSchema(Tool.InputSchema.builder()
+              .properties(JsonValue.from(Map.of(
+                  StructuredOutput.FIELD_CODE, Map.of(
+                      "type", "string",
+                      "description", StructuredOutput.FIELD_CODE_DESCRIPTION))))
+              .putAdditionalProperty("required",
+                  JsonValue.from(List.of(StructuredOutput.FIELD_CODE)))
+              .build())
+          .build());
+      builder.toolChoice(ToolChoiceTool.builder().name(StructuredOutput.SCHEMA_NAME).build());
+    }
+
     if (model != null) {
       builder.model(model);
     } else {
@@ -80,6 +106,17 @@ public class AnthropicJcpAiProcessor extends AbstractJcpAiProcessor {
     return builder.build();
   }
 
+  private static String makeStructuredOutput(final ToolUseBlock toolUse) {
+    Object code;
+    try {
+      final Map<?, ?> input = toolUse._input().convert(Map.class);
+      code = input == null ? null : input.get(StructuredOutput.FIELD_CODE);
+    } catch (IllegalArgumentException ex) {
+      code = null;
+    }
+    return StructuredOutput.makeJson(code instanceof String ? (String) code : "");
+  }
+
   @Override
   public String getProcessorTextId() {
     return "ANTHROPIC";
@@ -90,7 +127,6 @@ public class AnthropicJcpAiProcessor extends AbstractJcpAiProcessor {
       final PreprocessorContext context) {
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
     return Map.of(
-        "distilled", this.isDistillationRequired(context),
         "model", this.findModel(PROPERTY_ANTHROPIC_MODEL, context, positionInfo),
         "system", this.findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION)
     );
@@ -110,52 +146,89 @@ public class AnthropicJcpAiProcessor extends AbstractJcpAiProcessor {
     });
     findTimeoutMs(context)
         .ifPresent(x -> builder.timeout(Duration.ofMillis(x)));
+    builder.maxRetries(0);
 
     return builder.build();
   }
 
   @Override
-  public String processPrompt(
+  protected Optional<String> findProviderBaseUrl(final PreprocessorContext context) {
+    return findBaseUrl(PROPERTY_ANTHROPIC_BASE_URL, context);
+  }
+
+  @Override
+  protected String getModelPropertyName() {
+    return PROPERTY_ANTHROPIC_MODEL;
+  }
+
+  @Override
+  protected int findErrorStatusCode(final Throwable error) {
+    return error instanceof AnthropicServiceException
+        ? ((AnthropicServiceException) error).statusCode() : -1;
+  }
+
+  @Override
+  protected long findErrorRetryAfterMs(final Throwable error) {
+    return error instanceof AnthropicServiceException
+        ? RetryPolicy.findRetryAfterMs(((AnthropicServiceException) error).headers()::values)
+        : RetryPolicy.NO_RETRY_AFTER;
+  }
+
+  @Override
+  public PromptResponse processPrompt(
       final PreprocessorContext context,
       final List<ContentRecord> history,
       final String prompt) {
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
     final String sources = positionInfo.getFile().getName() + ':' + positionInfo.getLineNumber();
 
-    final Message response;
-    final long start = System.currentTimeMillis();
-    final AnthropicClient client = this.prepareAnthropicClient(context);
+    final PromptRequestEvent event = new PromptRequestEvent();
+    PromptResponse promptResponse = null;
+    RuntimeException error = null;
     try {
-      final String model = this.findModel(PROPERTY_ANTHROPIC_MODEL, context, positionInfo);
-
-      final MessageCreateParams message = makeMessage(context, model, history, prompt);
-      this.logDebug("Message create params: " + message);
-      logInfo(String.format("sending prompt from %s, model is %s, max tokens %d", sources,
-          message.model().asString(), message.maxTokens()));
-      response =
-          client.messages().create(message);
-
+      final Message response;
+      final long start = System.currentTimeMillis();
+      final AnthropicClient client = this.prepareAnthropicClient(context);
+      try {
+        final String model = this.findModel(PROPERTY_ANTHROPIC_MODEL, context, positionInfo);
+
+        final MessageCreateParams message = makeMessage(context, model, history, prompt);
+        this.logDebug("Message create params: " + message);
+        logInfo(String.format("sending prompt from %s, model is %s, max tokens %d", sources,
+            message.model().asString(), message.maxTokens()));
+        event.begin();
+        response =
+            client.messages().create(message);
+        event.end();
+
+      } finally {
+        client.close();
+      }
+      final long spent = System.currentTimeMillis() - start;
+
+      final String result = response.content().stream()
+          .flatMap(x -> x.toolUse().stream())
+          .filter(x -> StructuredOutput.SCHEMA_NAME.equals(x.name()))
+          .findFirst()
+          .map(AnthropicJcpAiProcessor::makeStructuredOutput)
+          .orElseGet(() -> response.content().stream()
+              .map(x -> x.text().map(TextBlock::text).orElse(""))
+              .collect(Collectors.joining("\n")));
+      this.logDebug("RESPONSE\n-------------\n" + result + "\n-------------");
+
+      this.logInfo(
+          String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
+              sources, spent, result.length()));
+
+      promptResponse = PromptResponse.of(result, response.model().asString(),
+          response.usage().inputTokens(), response.usage().outputTokens());
+      return promptResponse;
+    } catch (RuntimeException ex) {
+      error = ex;
+      throw ex;
     } finally {
-      client.close();
-    }
-    final long spent = System.currentTimeMillis() - start;
-
-    String result =
-        response.content().stream().map(x -> x.text().map(TextBlock::text).orElse("")).collect(
-            Collectors.joining("\n"));
-    this.logDebug("RESPONSE\n-------------\n" + result + "\n-------------");
-
-    this.logInfo(
-        String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
-            sources, spent, result.length()));
-    result = this.makeDistillationIfAllowed(context, result);
-
-    if (result.isBlank()) {
-      throw new IllegalStateException(
-          "Can't find code content in the result of request at " + sources);
+      this.commitPromptRequestEvent(event, sources, history, prompt, promptResponse, error);
     }
-
-    return result;
   }
 
 }
@@ -3,7 +3,6 @@ package com.igormaznitsa.jcpai.commons;
 import static com.igormaznitsa.jcp.expression.functions.AbstractFunction.ARITY_1_2;
 import static com.igormaznitsa.jcp.expression.functions.AbstractFunction.ARITY_ANY;
 import static com.igormaznitsa.jcpai.commons.StringUtils.AI_PROMPT_PREFIX;
-import static com.igormaznitsa.jcpai.commons.StringUtils.leftTrim;
 import static java.util.Objects.requireNonNullElse;
 import static java.util.stream.Collectors.joining;
 
@@ -15,21 +14,42 @@ import com.igormaznitsa.jcp.expression.ValueType;
 import com.igormaznitsa.jcp.extension.PreprocessorExtension;
 import com.igormaznitsa.jcp.logger.PreprocessorLogger;
 import com.igormaznitsa.jcp.utils.PreprocessorUtils;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiCacheRecord;
 import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptFailureData;
+import com.igormaznitsa.jcpai.commons.jmx.JcpAiProcessorStats;
+import com.igormaznitsa.jcpai.commons.jfr.CacheLookupEvent;
+import com.igormaznitsa.jcpai.commons.jfr.DistillationEvent;
+import com.igormaznitsa.jcpai.commons.jfr.PromptRequestEvent;
+import com.igormaznitsa.jcpai.commons.metrics.PromptCacheStatus;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetricsCollector;
+import com.igormaznitsa.jcpai.commons.trace.OtlpJsonFileTraceExporter;
+import com.igormaznitsa.jcpai.commons.trace.TraceExporter;
+import com.igormaznitsa.jcpai.commons.trace.TraceSpan;
+import com.igormaznitsa.jcpai.commons.trace.Tracer;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
 
 /**
  * Abstract processor to prepare answer from a prompt.
@@ -48,9 +68,57 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
   public static final String PROPERTY_JCPAI_PROMPT_CACHE = "jcpai.prompt.cache.file";
   public static final String PROPERTY_JCPAI_PROMPT_CACHE_GC_THRESHOLD =
       "jcpai.prompt.cache.file.gc.threshold";
+  public static final String PROPERTY_JCPAI_PROMPT_CACHE_STALE_WHILE_REVALIDATE =
+      "jcpai.prompt.cache.stale.while.revalidate";
+  public static final String PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_WAIT_MS =
+      "jcpai.prompt.cache.revalidate.wait.ms";
+  public static final String PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_THREADS =
+      "jcpai.prompt.cache.revalidate.threads";
+  public static final String PROPERTY_JCPAI_PROMPT_CACHE_ONLY = "jcpai.prompt.cache.only";
   public static final String PROPERTY_JCPAI_ONLY_PROCESSOR = "jcpai.prompt.only.processor";
   public static final String PROPERTY_JCPAI_TEMPERATURE = "jcpai.prompt.temperature";
   public static final String PROPERTY_JCPAI_TIMEOUT_MS = "jcpai.prompt.timeout.ms";
+  public static final String PROPERTY_JCPAI_RETRY_MAX_ATTEMPTS = "jcpai.prompt.retry.max.attempts";
+  public static final String PROPERTY_JCPAI_RETRY_INITIAL_DELAY_MS =
+      "jcpai.prompt.retry.initial.delay.ms";
+  public static final String PROPERTY_JCPAI_RETRY_MAX_DELAY_MS = "jcpai.prompt.retry.max.delay.ms";
+  public static final String PROPERTY_JCPAI_RETRY_DEADLINE_MS = "jcpai.prompt.retry.deadline.ms";
+  public static final String PROPERTY_JCPAI_RATE_RPM = "jcpai.prompt.rate.rpm";
+  public static final String PROPERTY_JCPAI_RATE_TPM = "jcpai.prompt.rate.tpm";
+  public static final String PROPERTY_JCPAI_CONCURRENCY_ADAPTIVE =
+      "jcpai.prompt.concurrency.adaptive";
+  public static final String PROPERTY_JCPAI_CONCURRENCY_INITIAL =
+      "jcpai.prompt.concurrency.initial";
+  public static final String PROPERTY_JCPAI_CONCURRENCY_MAX = "jcpai.prompt.concurrency.max";
+  public static final String PROPERTY_JCPAI_HEDGE_PERCENTILE = "jcpai.prompt.hedge.percentile";
+  public static final String PROPERTY_JCPAI_HEDGE_MODEL = "jcpai.prompt.hedge.model";
+  public static final String PROPERTY_JCPAI_HEDGE_MAX_RATIO = "jcpai.prompt.hedge.max.ratio";
+  public static final String PROPERTY_JCPAI_FAILOVER_PROCESSORS =
+      "jcpai.prompt.failover.processors";
+  public static final String PROPERTY_JCPAI_FAILOVER_WINDOW = "jcpai.prompt.failover.window";
+  public static final String PROPERTY_JCPAI_FAILOVER_MIN_CALLS = "jcpai.prompt.failover.min.calls";
+  public static final String PROPERTY_JCPAI_FAILOVER_ERROR_RATE =
+      "jcpai.prompt.failover.error.rate";
+  public static final String PROPERTY_JCPAI_FAILOVER_SLOW_MS = "jcpai.prompt.failover.slow.ms";
+  public static final String PROPERTY_JCPAI_FAILOVER_SLOW_RATE = "jcpai.prompt.failover.slow.rate";
+  public static final String PROPERTY_JCPAI_FAILOVER_OPEN_MS = "jcpai.prompt.failover.open.ms";
+  public static final String PROPERTY_JCPAI_ROUTE_HINT = "jcpai.prompt.route.hint";
+  public static final String PROPERTY_JCPAI_ROUTE_FILES = "jcpai.prompt.route.files";
+  public static final String PROPERTY_JCPAI_ROUTE_SMALL_MODEL = "jcpai.prompt.route.small.model";
+  public static final String PROPERTY_JCPAI_ROUTE_SMALL_MAX_TOKENS =
+      "jcpai.prompt.route.small.max.tokens";
+  public static final String PROPERTY_JCPAI_ROUTE_LARGE_MODEL = "jcpai.prompt.route.large.model";
+  public static final String PROPERTY_JCPAI_ROUTE_LARGE_MIN_TOKENS =
+      "jcpai.prompt.route.large.min.tokens";
+  public static final String PROPERTY_JCPAI_PACK_MAX_PROMPTS = "jcpai.prompt.pack.max.prompts";
+  public static final String PROPERTY_JCPAI_PACK_MAX_TOKENS = "jcpai.prompt.pack.max.tokens";
+  public static final String PROPERTY_JCPAI_STRUCTURED_OUTPUT = "jcpai.prompt.structured.output";
+  public static final String PROPERTY_JCPAI_MINIFY = "jcpai.prompt.minify";
+  public static final String PROPERTY_JCPAI_DELTA = "jcpai.prompt.delta";
+  public static final String PROPERTY_JCPAI_SIMILARITY_THRESHOLD =
+      "jcpai.prompt.similarity.threshold";
+  public static final String PROPERTY_JCPAI_SIMILARITY_REUSE = "jcpai.prompt.similarity.reuse";
+  public static final String PROPERTY_JCPAI_FAILURE_BACKOFF_MS = "jcpai.prompt.failure.backoff.ms";
   public static final String PROPERTY_JCPAI_DISTILLATE_RESPONSE =
       "jcpai.prompt.distillate.response";
   public static final String PROPERTY_JCPAI_TOP_P = "jcpai.prompt.top.p";
@@ -58,8 +126,66 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
   public static final String PROPERTY_JCPAI_SEED = "jcpai.prompt.seed";
   public static final String PROPERTY_JCPAI_MAX_TOKENS = "jcpai.prompt.max.tokens";
   public static final String PROPERTY_JCPAI_INSTRUCTION_SYSTEM = "jcpai.prompt.instruction.system";
+  public static final String PROPERTY_JCPAI_CHAIN_HISTORY_MAX_TOKENS =
+      "jcpai.prompt.chain.history.max.tokens";
+  public static final String PROPERTY_JCPAI_CHAIN_HISTORY_STRATEGY =
+      "jcpai.prompt.chain.history.strategy";
+
+  public static final String PROPERTY_JCPAI_METRICS_REPORT_FILE =
+      "jcpai.prompt.metrics.report.file";
+  public static final String PROPERTY_JCPAI_METRICS_TOP_SLOWEST =
+      "jcpai.prompt.metrics.top.slowest";
+  public static final String PROPERTY_JCPAI_BUDGET_MAX_CALLS = "jcpai.prompt.budget.max.calls";
+  public static final String PROPERTY_JCPAI_BUDGET_MAX_TOKENS = "jcpai.prompt.budget.max.tokens";
+  public static final String PROPERTY_JCPAI_BUDGET_MAX_TIME_MS =
+      "jcpai.prompt.budget.max.time.ms";
+  public static final String PROPERTY_JCPAI_BUDGET_POLICY = "jcpai.prompt.budget.policy";
+  public static final String PROPERTY_JCPAI_PRICE_INPUT_TOKENS =
+      "jcpai.prompt.price.input.mtokens";
+  public static final String PROPERTY_JCPAI_PRICE_OUTPUT_TOKENS =
+      "jcpai.prompt.price.output.mtokens";
+  public static final String PROPERTY_JCPAI_TRACE_FILE = "jcpai.prompt.trace.file";
+  public static final String PROPERTY_JCPAI_JMX_ENABLED = "jcpai.prompt.jmx.enabled";
+
+  public static final String CHAIN_SUMMARY_SYSTEM_INSTRUCTION =
+      "You summarize conversations between a developer and a code generator. Keep all requirements, names, signatures and decisions made during the conversation. Respond only with the summary text.";
 
   public static final long DEFAULT_CACHE_GC_THRESHOLD = 15;
+  public static final long DEFAULT_CACHE_REVALIDATE_WAIT_MS = 60000L;
+  public static final long DEFAULT_CACHE_REVALIDATE_THREADS = 2L;
+  public static final long DEFAULT_RETRY_MAX_ATTEMPTS = 3L;
+  public static final long DEFAULT_CONCURRENCY_INITIAL = 4L;
+  public static final long DEFAULT_CONCURRENCY_MAX = 16L;
+  public static final float DEFAULT_HEDGE_MAX_RATIO = 0.1f;
+  public static final int HEDGE_MIN_SAMPLES = 10;
+  public static final int HEDGE_LATENCY_WINDOW = 100;
+  public static final int PROMPT_HEAD_LENGTH = 60;
+  public static final long DEFAULT_FAILOVER_WINDOW = 10L;
+  public static final long DEFAULT_FAILOVER_MIN_CALLS = 3L;
+  public static final float DEFAULT_FAILOVER_ERROR_RATE = 0.5f;
+  public static final float DEFAULT_FAILOVER_SLOW_RATE = 0.8f;
+  public static final long DEFAULT_FAILOVER_OPEN_MS = 60000L;
+  public static final long DEFAULT_ROUTE_SMALL_MAX_TOKENS = 200L;
+  public static final long DEFAULT_ROUTE_LARGE_MIN_TOKENS = 2000L;
+  public static final long DEFAULT_PACK_MAX_TOKENS = 200L;
+  /**
+   * Name of extra cache key value which separates responses made by failover processors.
+   */
+  public static final String FAILOVER_PROCESSOR_KEY = "failover.processor";
+  /**
+   * Name of extra cache key value which separates structured responses.
+   */
+  public static final String STRUCTURED_OUTPUT_KEY = "structured.output";
+  /**
+   * Instruction added to changed prompt if it is sent together with previous answer.
+   */
+  public static final String DELTA_INSTRUCTION =
+      "The request above is changed version of the previous request. Update your previous answer"
+          + " to fit the changed request, keep all parts which are not affected by changes exactly"
+          + " as they are and return the whole updated answer.";
+  public static final long DEFAULT_RETRY_INITIAL_DELAY_MS = 1000L;
+  public static final long DEFAULT_RETRY_MAX_DELAY_MS = 30000L;
+  public static final long DEFAULT_METRICS_TOP_SLOWEST = 5;
   public static final MessageDigest SHA512_DIGEST;
   public static final MessageDigest MD5_DIGEST;
 
@@ -78,10 +204,25 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
   private final Map<File, Map.Entry<JcpAiPromptCacheFile, Set<String>>> promptFiles =
       new ConcurrentHashMap<>();
   private PreprocessorLogger logger;
-
-  private static String makeCachePromptKey(final List<String> prompt,
-                                           final Map<String, Object> additional) {
-    String normalized = String.join("\n", prompt);
+  private final PromptMetricsCollector metrics = new PromptMetricsCollector();
+  private final Tracer tracer = new Tracer();
+  private final BudgetGovernor budget = new BudgetGovernor();
+  private final CacheOnlyMisses cacheOnlyMisses = new CacheOnlyMisses(this);
+  private final FailureBackoff failureBackoff = new FailureBackoff(this);
+  private final SimilarityLookup similarity = new SimilarityLookup(this);
+  private final DeltaRegeneration delta = new DeltaRegeneration(this);
+  private final StaleResponses staleResponses = new StaleResponses(this);
+  private final PromptRouting routing = new PromptRouting(this);
+  private final PackedRequests packing = new PackedRequests(this);
+  private final RequestLimits limits = new RequestLimits(this);
+  private final HedgedRequests hedging = new HedgedRequests(this, this.routing);
+  private final RequestFailover failover =
+      new RequestFailover(this, new RetriedRequests(this, this.hedging));
+  private volatile TraceExporter traceExporter;
+  private JcpAiProcessorStats stats;
+
+  static String makeCachePromptKey(final String prompt, final Map<String, Object> additional) {
+    String normalized = prompt;
 
     if (!additional.isEmpty()) {
       normalized += "\nADDITIONAL: " + additional.entrySet()
@@ -100,46 +241,89 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     return Base64.getEncoder().encodeToString(aggregated);
   }
 
+  /**
+   * Make cache key for a step of AI chain. The key is based on the system instruction, the key and
+   * the response of the previous step and the step prompt. The previous key covers all earlier
+   * steps, so that change of any prompt or response in the chain invalidates cached responses only
+   * for the following steps.
+   *
+   * @param systemInstruction system instruction of the chain, must not be null
+   * @param previousKey       cache key of the previous chain step, null for the first step
+   * @param previousResponse  response of the previous chain step, null for the first step
+   * @param prompt            prompt of the current chain step, must not be null
+   * @param additional        additional values, must not be null
+   * @return generated key, must not be null
+   * @since 1.1.1
+   */
+  private static String makeCacheChainStepKey(final String systemInstruction,
+                                              final String previousKey,
+                                              final String previousResponse,
+                                              final String prompt,
+                                              final Map<String, Object> additional) {
+    final StringBuilder buffer = new StringBuilder("CHAIN SYSTEM: ").append(systemInstruction);
+    if (previousKey != null) {
+      buffer.append("\nCHAIN PREVIOUS STEP: ").append(previousKey)
+          .append("\nCHAIN PREVIOUS RESPONSE: ")
+          .append(makeCachePromptKey(requireNonNullElse(previousResponse, ""), Map.of()));
+    }
+    buffer.append("\nCHAIN PROMPT: ").append(prompt);
+    return makeCachePromptKey(buffer.toString(), additional);
+  }
+
   protected void setIndentLog(final String indent) {
     this.indentLog = requireNonNullElse(indent, "");
   }
 
   private static List<TextBlock> splitToTextBlocks(final FilePositionInfo startLinePosition,
-                                                   final String[] textLines) {
+                                                   final String text) {
     final List<TextBlock> result = new ArrayList<>();
 
-    final List<String> jcpAiLines = new ArrayList<>();
-    final List<String> justLines = new ArrayList<>();
-
-    int stringLineIndex = 0;
-    FilePositionInfo position = startLinePosition;
-    for (final String line : textLines) {
-      final String leftTrim = leftTrim(line);
-      if (leftTrim.startsWith(AI_PROMPT_PREFIX)) {
-        if (!justLines.isEmpty()) {
-          result.add(new JustTextBlock(justLines, position));
-          justLines.clear();
-          position = new FilePositionInfo(position.getFile(),
+    final int lines = StringUtils.countLines(text);
+    StringBuilder jcpAiPrompt = null;
+    int justStart = -1;
+    int justLines = 0;
+
+    int position = 0;
+    FilePositionInfo blockPosition = startLinePosition;
+    for (int stringLineIndex = 0; stringLineIndex < lines; stringLineIndex++) {
+      final int lineEnd = StringUtils.findLineEnd(text, position);
+      final int trimmedStart = StringUtils.skipWhitespaces(text, position, lineEnd);
+      if (text.startsWith(AI_PROMPT_PREFIX, trimmedStart)) {
+        if (justStart >= 0) {
+          result.add(new JustTextBlock(text, justStart, justLines, position - justStart,
+              blockPosition));
+          justStart = -1;
+          blockPosition = new FilePositionInfo(blockPosition.getFile(),
               startLinePosition.getStringIndex() + stringLineIndex);
         }
-        jcpAiLines.add(leftTrim.substring(AI_PROMPT_PREFIX.length()));
+        if (jcpAiPrompt == null) {
+          jcpAiPrompt = new StringBuilder(lineEnd - trimmedStart);
+        } else {
+          jcpAiPrompt.append('\n');
+        }
+        jcpAiPrompt.append(text, trimmedStart + AI_PROMPT_PREFIX.length(), lineEnd);
       } else {
-        if (!jcpAiLines.isEmpty()) {
-          result.add(new JcpAiPrompt(jcpAiLines, position));
-          jcpAiLines.clear();
-          position = new FilePositionInfo(position.getFile(),
+        if (jcpAiPrompt != null) {
+          result.add(new JcpAiPrompt(jcpAiPrompt.toString(), blockPosition));
+          jcpAiPrompt = null;
+          blockPosition = new FilePositionInfo(blockPosition.getFile(),
               startLinePosition.getStringIndex() + stringLineIndex);
         }
-        justLines.add(leftTrim);
+        if (justStart < 0) {
+          justStart = position;
+          justLines = 0;
+        }
+        justLines++;
       }
-      stringLineIndex++;
+      position = StringUtils.findNextLineStart(text, lineEnd);
     }
 
-    if (!justLines.isEmpty()) {
-      result.add(new JustTextBlock(justLines, position));
+    if (justStart >= 0) {
+      result.add(new JustTextBlock(text, justStart, justLines, position - justStart,
+          blockPosition));
     }
-    if (!jcpAiLines.isEmpty()) {
-      result.add(new JcpAiPrompt(jcpAiLines, position));
+    if (jcpAiPrompt != null) {
+      result.add(new JcpAiPrompt(jcpAiPrompt.toString(), blockPosition));
     }
 
     return result;
@@ -160,8 +344,8 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     return Optional.ofNullable(result);
   }
 
-  private static Optional<Float> findPreprocessorFloatVariable(final String variable,
-                                                               final PreprocessorContext context) {
+  static Optional<Float> findPreprocessorFloatVariable(final String variable,
+                                                       final PreprocessorContext context) {
     final Value value = findPreprocessorVar(variable, context).orElse(null);
     if (value == null) {
       return Optional.empty();
@@ -183,8 +367,8 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     throw new IllegalArgumentException("Unexpected value for float " + variable + " : " + value);
   }
 
-  private static Optional<String> findPreprocessorStringVariable(final String variable,
-                                                                 final PreprocessorContext context) {
+  static Optional<String> findPreprocessorStringVariable(final String variable,
+                                                         final PreprocessorContext context) {
     final Value value = findPreprocessorVar(variable, context).orElse(null);
     if (value == null) {
       return Optional.empty();
@@ -199,7 +383,7 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     };
   }
 
-  private static Optional<Boolean> findPreprocessorBooleanVariable(
+  static Optional<Boolean> findPreprocessorBooleanVariable(
       final String variable,
       final PreprocessorContext context
   ) {
@@ -217,8 +401,8 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     };
   }
 
-  private static Optional<Long> findPreprocessorLongVariable(final String varName,
-                                                             final PreprocessorContext context) {
+  static Optional<Long> findPreprocessorLongVariable(final String varName,
+                                                     final PreprocessorContext context) {
     final Value value = findPreprocessorVar(varName, context).orElse(null);
     if (value == null) {
       return Optional.empty();
@@ -274,6 +458,23 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     }
   }
 
+  /**
+   * Make path of source file to be saved in cache records, the path is relative to the project
+   * base folder so that the latest response for source position is not mixed between files with the
+   * same name, absolute path is used for files outside of the base folder.
+   *
+   * @param context      the preprocessor context, must not be null
+   * @param positionInfo the position of prompt, must not be null
+   * @return the source path with slash separators, must not be null
+   */
+  static String makeSourcePath(final PreprocessorContext context,
+                               final FilePositionInfo positionInfo) {
+    final Path file = positionInfo.getFile().toPath().toAbsolutePath().normalize();
+    final Path baseDir = context.getBaseDir().toPath().toAbsolutePath().normalize();
+    return (file.startsWith(baseDir) ? baseDir.relativize(file) : file).toString()
+        .replace(File.separatorChar, '/');
+  }
+
   protected void assertStarted() {
     if (!this.started.get()) {
       throw new IllegalStateException("Called but processor not started");
@@ -293,6 +494,8 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
         logError("stopping processor with error: " + error.getMessage());
       }
 
+      this.staleResponses.complete(context, error);
+
       final long gcThreshold =
           findPreprocessorLongVariable(PROPERTY_JCPAI_PROMPT_CACHE_GC_THRESHOLD, context).orElse(
               DEFAULT_CACHE_GC_THRESHOLD);
@@ -302,6 +505,7 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
         this.logInfo("GC threshold is " + gcThreshold + " for prompt file caches");
       }
 
+      final long flushStart = System.currentTimeMillis();
       this.promptFiles.values()
           .forEach(x -> {
             try {
@@ -329,8 +533,20 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
               this.logInfo(
                   "Detected " + removedPrompts.size() + " prompt(s) marked for GC in cache file " +
                       x.getKey().getPath());
-              if (cacheContainer.flush(y -> !removedPrompts.contains(y.getKey()))) {
-                logInfo("Written prompt cache file: " + x.getKey().getPath());
+              final JcpAiPromptFailureData failureData =
+                  this.failureBackoff.findFailureData(context, x);
+              if (failureData != null) {
+                failureData.retain(y -> detectedPrompts.contains(y.getKey()));
+              }
+              try (TraceSpan span = this.tracer.startSpan("cacheFlush")) {
+                span.setAttribute("jcpai.cache.file", x.getKey().getPath().toString())
+                    .setAttribute("jcpai.cache.removed", removedPrompts.size());
+                final boolean written =
+                    cacheContainer.flush(y -> !removedPrompts.contains(y.getKey()));
+                span.setAttribute("jcpai.cache.written", written);
+                if (written) {
+                  logInfo("Written prompt cache file: " + x.getKey().getPath());
+                }
               }
             } catch (IOException ex) {
               logError(
@@ -338,10 +554,170 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
                       ex.getMessage());
             }
           });
+      if (!this.promptFiles.isEmpty()) {
+        this.getStats().onFlush(System.currentTimeMillis() - flushStart);
+      }
       this.promptFiles.clear();
 
+      this.reportMetrics(context);
+      this.exportTrace();
+      this.hedging.shutdown();
+      this.failover.dispose(context);
+
       this.onProcessorStopped(context, error);
+      final String cacheOnlyReport = this.cacheOnlyMisses.makeReport();
+      if (cacheOnlyReport != null) {
+        logError(cacheOnlyReport);
+      }
       this.logger = null;
+      if (cacheOnlyReport != null && error == null) {
+        throw new IllegalStateException(cacheOnlyReport);
+      }
+    }
+  }
+
+  public boolean isCacheOnly(final PreprocessorContext context) {
+    return findPreprocessorBooleanVariable(PROPERTY_JCPAI_PROMPT_CACHE_ONLY, context)
+        .orElse(false);
+  }
+
+  /**
+   * Get collector of prompt metrics for current preprocessing session.
+   *
+   * @return the metrics collector, must not be null
+   * @since 1.1.1
+   */
+  public PromptMetricsCollector getMetrics() {
+    return this.metrics;
+  }
+
+  private void reportMetrics(final PreprocessorContext context) {
+    final PromptMetricsCollector collector = this.getMetrics();
+    if (collector.isEmpty()) {
+      return;
+    }
+    final int topN = findPreprocessorLongVariable(PROPERTY_JCPAI_METRICS_TOP_SLOWEST, context)
+        .orElse(DEFAULT_METRICS_TOP_SLOWEST).intValue();
+    collector.setTokenPrices(
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_PRICE_INPUT_TOKENS, context).orElse(0.0f),
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_PRICE_OUTPUT_TOKENS, context).orElse(0.0f));
+    collector.makeSummary(topN).forEach(this::logInfo);
+
+    final String reportPath =
+        findPreprocessorStringVariable(PROPERTY_JCPAI_METRICS_REPORT_FILE, context).orElse(null);
+    final File reportFile =
+        reportPath == null ? null : this.resolveOutputFile(context, reportPath, "Metrics report");
+    if (reportFile != null) {
+      try {
+        final StringWriter writer = new StringWriter(16384);
+        collector.write(writer, this.getProcessorTextId(), topN);
+        Files.writeString(reportFile.toPath(), writer.toString(),
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        logInfo("Written metrics report file: " + reportFile);
+      } catch (IOException ex) {
+        logError("Can't write metrics report file " + reportFile + " : " + ex.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Resolve path of file to be written by the processor. The {processor} placeholder is replaced by
+   * the processor id and relative path is resolved against the project base folder.
+   *
+   * @param context     the preprocessor context, must not be null
+   * @param path        the path, must not be null
+   * @param description description of the file to be used in log, must not be null
+   * @return the file or null if it is outside of the project
+   */
+  private File resolveOutputFile(final PreprocessorContext context, final String path,
+                                 final String description) {
+    File file = new File(path.replace("{processor}", this.getProcessorTextId()));
+    if (!file.isAbsolute()) {
+      file = new File(context.getBaseDir(), file.getPath());
+    }
+    if (context.isFileInBaseDir(file)) {
+      return file;
+    } else {
+      logError(description + " file is outside of the project: " + file.getAbsolutePath());
+      return null;
+    }
+  }
+
+  /**
+   * Get live statistics of the processor, they are cumulative for all preprocessing sessions.
+   *
+   * @return the statistics, must not be null
+   * @since 1.1.1
+   */
+  public synchronized JcpAiProcessorStats getStats() {
+    if (this.stats == null) {
+      this.stats = new JcpAiProcessorStats(this.getProcessorTextId(), this.started::get,
+          this::makeCacheFileRecords);
+    }
+    return this.stats;
+  }
+
+  private Map<String, Integer> makeCacheFileRecords() {
+    final Map<String, Integer> result = new LinkedHashMap<>();
+    this.promptFiles.forEach(
+        (file, pair) -> result.put(file.getAbsolutePath(), pair.getKey().getCache().size()));
+    return result;
+  }
+
+  private void registerStatsMBean(final PreprocessorContext context) {
+    if (!findPreprocessorBooleanVariable(PROPERTY_JCPAI_JMX_ENABLED, context).orElse(true)) {
+      return;
+    }
+    try {
+      if (this.getStats().register()) {
+        logDebug("registered JMX MBean: " +
+            JcpAiProcessorStats.makeObjectName(this.getProcessorTextId()));
+      }
+    } catch (JMException | SecurityException ex) {
+      logWarn("Can't register JMX MBean: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Get tracer collecting spans of current preprocessing session.
+   *
+   * @return the tracer, must not be null
+   * @since 1.1.1
+   */
+  public Tracer getTracer() {
+    return this.tracer;
+  }
+
+  /**
+   * Make exporter of trace spans for preprocessing session. By default it writes OTLP JSON file if
+   * {@link #PROPERTY_JCPAI_TRACE_FILE} is defined. Tracing is disabled if there is no exporter.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return the exporter or null if tracing is disabled
+   * @since 1.1.1
+   */
+  protected TraceExporter makeTraceExporter(final PreprocessorContext context) {
+    final File traceFile = findPreprocessorStringVariable(PROPERTY_JCPAI_TRACE_FILE, context)
+        .map(x -> this.resolveOutputFile(context, x, "Trace"))
+        .orElse(null);
+    return traceFile == null ? null : new OtlpJsonFileTraceExporter(traceFile.toPath());
+  }
+
+  private void exportTrace() {
+    final TraceExporter exporter = this.traceExporter;
+    this.traceExporter = null;
+    final List<TraceSpan> spans = this.tracer.drainFinishedSpans();
+    this.tracer.reset(false);
+    if (exporter != null) {
+      try {
+        exporter.export("jcp-ai-" + this.getProcessorTextId(), spans);
+        logInfo("Exported " + spans.size() + " trace span(s)");
+      } catch (IOException ex) {
+        logError("Can't export trace spans: " + ex.getMessage());
+      }
     }
   }
 
@@ -377,14 +753,73 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     return findPreprocessorLongVariable(PROPERTY_JCPAI_MAX_TOKENS, context);
   }
 
+  public Optional<Long> findParamChainHistoryMaxTokens(final PreprocessorContext context) {
+    return findPreprocessorLongVariable(PROPERTY_JCPAI_CHAIN_HISTORY_MAX_TOKENS, context);
+  }
+
+  public ChainHistoryStrategy findParamChainHistoryStrategy(final PreprocessorContext context) {
+    return findPreprocessorStringVariable(PROPERTY_JCPAI_CHAIN_HISTORY_STRATEGY, context)
+        .map(x -> {
+          try {
+            return ChainHistoryStrategy.valueOf(x.trim().toUpperCase(Locale.ENGLISH));
+          } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(
+                "Unexpected value for " + PROPERTY_JCPAI_CHAIN_HISTORY_STRATEGY + " : " + x, ex);
+          }
+        })
+        .orElse(ChainHistoryStrategy.DROP_RESPONSES);
+  }
+
+  public BudgetExceededPolicy findParamBudgetPolicy(final PreprocessorContext context) {
+    return findPreprocessorStringVariable(PROPERTY_JCPAI_BUDGET_POLICY, context)
+        .map(x -> {
+          try {
+            return BudgetExceededPolicy.valueOf(x.trim().toUpperCase(Locale.ENGLISH));
+          } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(
+                "Unexpected value for " + PROPERTY_JCPAI_BUDGET_POLICY + " : " + x, ex);
+          }
+        })
+        .orElse(BudgetExceededPolicy.FAIL);
+  }
+
+  /**
+   * Get governor of build-wide AI budget.
+   *
+   * @return the budget governor, must not be null
+   * @since 1.1.1
+   */
+  public BudgetGovernor getBudget() {
+    return this.budget;
+  }
+
   @Override
   public final void onContextStarted(PreprocessorContext context) {
     if (this.started.compareAndSet(false, true)) {
       try {
         this.logger = context.getPreprocessorLogger();
         this.promptFiles.clear();
+        this.getMetrics().reset();
+        this.traceExporter = this.makeTraceExporter(context);
+        this.tracer.reset(this.traceExporter != null);
+        this.getStats().onSessionStarted();
+        this.budget.reset(
+            findPreprocessorLongVariable(PROPERTY_JCPAI_BUDGET_MAX_CALLS, context).orElse(0L),
+            findPreprocessorLongVariable(PROPERTY_JCPAI_BUDGET_MAX_TOKENS, context).orElse(0L),
+            findPreprocessorLongVariable(PROPERTY_JCPAI_BUDGET_MAX_TIME_MS, context).orElse(0L));
+        this.registerStatsMBean(context);
+        this.limits.init(context);
+        this.hedging.reset();
+        this.failover.init(context);
+        this.cacheOnlyMisses.clear();
 
         logInfo("init processor");
+        if (this.isCacheOnly(context)) {
+          logInfo("cache-only mode, model requests are not allowed");
+        }
+        if (this.budget.isLimited()) {
+          logInfo("AI budget is limited, policy " + this.findParamBudgetPolicy(context));
+        }
         this.onProcessorStarted(context);
       } catch (RuntimeException ex) {
         this.started.set(false);
@@ -475,6 +910,22 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     return Map.of();
   }
 
+  /**
+   * Get extra values of cache key together with values defined by processor mode.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return extra values of cache key, must not be null
+   */
+  Map<String, Object> findPromptKeyValues(final PreprocessorContext context) {
+    final Map<String, Object> extraValues = this.getExtraPromptKeyValues(context);
+    if (!this.isStructuredOutput(context)) {
+      return extraValues;
+    }
+    final Map<String, Object> result = new HashMap<>(extraValues);
+    result.put(STRUCTURED_OUTPUT_KEY, true);
+    return result;
+  }
+
   protected Map.Entry<JcpAiPromptCacheFile, Set<String>> findCacheFilePair(
       final PreprocessorContext context) {
     final File currentPromptCache = findPromptCacheFile(context);
@@ -483,12 +934,18 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
       cacheFilePair = null;
     } else {
       cacheFilePair = this.promptFiles.computeIfAbsent(currentPromptCache, x -> {
-        try {
+        try (TraceSpan span = this.tracer.startSpan("cacheLoad")) {
+          span.setAttribute("jcpai.cache.file", x.toString());
           logInfo("registering prompt cache file: " + x);
-          return Map.entry(new JcpAiPromptCacheFile(x.toPath()), ConcurrentHashMap.newKeySet());
-        } catch (IOException ex) {
-          throw new RuntimeException("Can't create or open the prompt cache file for error: " + x,
-              ex);
+          try {
+            final JcpAiPromptCacheFile cacheFile = new JcpAiPromptCacheFile(x.toPath());
+            span.setAttribute("jcpai.cache.records", cacheFile.getCache().size());
+            return Map.entry(cacheFile, ConcurrentHashMap.newKeySet());
+          } catch (IOException ex) {
+            span.setError(ex);
+            throw new RuntimeException(
+                "Can't create or open the prompt cache file for error: " + x, ex);
+          }
         }
       });
     }
@@ -497,7 +954,6 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
 
   private String makeRequest(
       final PreprocessorContext context,
-      final FilePositionInfo positionInfo,
       final List<TextBlock> detectedTextBlocks,
       final String indent,
       final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair
@@ -506,50 +962,316 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
 
     final long start = System.currentTimeMillis();
     try {
-      final List<String> resultLines = new ArrayList<>();
-      for (final TextBlock block : detectedTextBlocks) {
-        if (block instanceof JustTextBlock) {
-          resultLines.addAll(block.lines);
-        } else if (block instanceof JcpAiPrompt) {
-          final String promptKey;
-          String cachedResponse = null;
-          if (cacheFilePair == null) {
-            promptKey = null;
-          } else {
-            promptKey = makeCachePromptKey(block.lines,
-                this.getExtraPromptKeyValues(context));
-            cachedResponse = cacheFilePair.getKey().getCache().find(promptKey);
-            cacheFilePair.getValue().add(promptKey);
-            logDebug("registered use of prompt key for " + positionInfo.toShortString() + " : " +
-                promptKey);
-          }
-
-          if (cachedResponse == null) {
-            final List<String> responseLines =
-                List.of(this.processPrompt(context,
-                    List.of(),
-                    block.asString("\n")).split("\\R"));
-            if (promptKey != null) {
-              logInfo("caching result for " + positionInfo.toShortString());
-              cacheFilePair.getKey().getCache()
-                  .put(promptKey, block.positionInfo.getFile().getName(),
-                      block.positionInfo.getLineNumber(), String.join("\n", responseLines));
-            }
-            resultLines.addAll(responseLines);
-          } else {
-            resultLines.addAll(List.of(cachedResponse.split("\\R")));
-            this.logInfo("found cached prompt response for " + positionInfo.toShortString()
-                + " in cache file " + cacheFilePair.getKey().getPath().getFileName());
-          }
+      this.minifyPrompts(context, detectedTextBlocks);
+      final PreprocessorContext[] promptContexts =
+          new PreprocessorContext[detectedTextBlocks.size()];
+      for (int i = 0; i < promptContexts.length; i++) {
+        if (detectedTextBlocks.get(i) instanceof JcpAiPrompt) {
+          final JcpAiPrompt block = (JcpAiPrompt) detectedTextBlocks.get(i);
+          promptContexts[i] =
+              this.routing.makeRoutedContext(context, block.positionInfo, block.prompt);
+        }
+      }
+      final Map<Integer, Map.Entry<PromptResponse, Long>> packedResponses =
+          this.packing.request(context, detectedTextBlocks, promptContexts,
+              i -> this.isModelRequestRequired(context, cacheFilePair,
+                  (JcpAiPrompt) detectedTextBlocks.get(i), promptContexts[i]));
+
+      final String[] responses = new String[promptContexts.length];
+      for (int i = 0; i < responses.length; i++) {
+        if (detectedTextBlocks.get(i) instanceof JcpAiPrompt) {
+          responses[i] = this.answerPrompt(context, (JcpAiPrompt) detectedTextBlocks.get(i),
+              promptContexts[i], packedResponses.get(i), cacheFilePair);
         }
       }
-      return resultLines.stream().map(x -> context.isPreserveIndents() ? indent + x : x)
-          .collect(joining(context.getEol()));
+      return joinResponses(context, detectedTextBlocks, responses, indent);
     } finally {
       this.logDebug("completed prompt, spent " + (System.currentTimeMillis() - start) + "ms");
     }
   }
 
+  /**
+   * Check that prompt will not be answered by cache, stale or similar response, delta request or
+   * registered failure, so that it can be sent in packed request.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param block         the prompt block, must not be null
+   * @param promptContext the context of prompt, must not be null
+   * @return true if prompt should be sent to model as it is
+   */
+  private boolean isModelRequestRequired(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final JcpAiPrompt block,
+      final PreprocessorContext promptContext) {
+    if (cacheFilePair == null) {
+      return true;
+    }
+    final String key = makeCachePromptKey(block.prompt, this.findPromptKeyValues(promptContext));
+    return cacheFilePair.getKey().getCache().findRecord(key) == null
+        && !this.staleResponses.isRevalidated(context, cacheFilePair, block.positionInfo)
+        && this.delta.findDeltaRecord(context, cacheFilePair, block.positionInfo) == null
+        && !this.similarity.isReusable(context, cacheFilePair, block.prompt)
+        && this.failureBackoff.findRecentFailure(context, cacheFilePair, key) == null;
+  }
+
+  /**
+   * Get response for prompt from cache or from model and register its metric.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param block         the prompt block, must not be null
+   * @param promptContext the context of prompt with routed model, must not be null
+   * @param packed        response of packed request with latency, can be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @return the response ready for injection, empty if it is not found in cache-only mode
+   */
+  private String answerPrompt(
+      final PreprocessorContext context,
+      final JcpAiPrompt block,
+      final PreprocessorContext promptContext,
+      final Map.Entry<PromptResponse, Long> packed,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair) {
+    final PromptMetric metric =
+        new PromptMetric(StringUtils.asText(block.positionInfo, true), this.getProcessorTextId());
+    final Map<String, Object> extraKeyValues =
+        cacheFilePair == null ? Map.of() : this.findPromptKeyValues(promptContext);
+    final String promptKey =
+        cacheFilePair == null ? null : makeCachePromptKey(block.prompt, extraKeyValues);
+    final Map.Entry<JcpAiCacheRecord, PromptCacheStatus> cached = this.findCachedResponse(
+        context, block, promptContext, cacheFilePair, promptKey, extraKeyValues);
+
+    final String response;
+    if (cached != null) {
+      final JcpAiCacheRecord record = cached.getKey();
+      metric.setCacheStatus(cached.getValue());
+      metric.setSaved(record.getModel(), record.getInputTokens(),
+          record.getOutputTokens(), record.getLatencyMs());
+      response = this.distillCachedResponse(context, record, block.positionInfo, metric);
+      this.logInfo("found " + (cached.getValue() == PromptCacheStatus.HIT
+          ? "" : cached.getValue().name().toLowerCase(Locale.ENGLISH) + " ")
+          + "cached prompt response for " + block.positionInfo.toShortString()
+          + " in cache file " + cacheFilePair.getKey().getPath().getFileName());
+    } else {
+      metric.setCacheStatus(
+          promptKey == null ? PromptCacheStatus.DISABLED : PromptCacheStatus.MISS);
+      if (this.isCacheOnly(context)) {
+        this.cacheOnlyMisses.register(block.positionInfo, promptKey, block.prompt);
+        return "";
+      }
+      this.failureBackoff.assertNoRecentFailure(context, cacheFilePair, promptKey,
+          block.positionInfo);
+      final PromptResponse modelResponse;
+      try {
+        if (packed == null) {
+          modelResponse = this.delta.requestModel(promptContext, cacheFilePair, block.prompt,
+              block.positionInfo, metric);
+        } else {
+          modelResponse = packed.getKey();
+          metric.setResponse(modelResponse, packed.getValue());
+        }
+        response = this.distillResponse(context, modelResponse.getText(), block.positionInfo,
+            metric);
+      } catch (RuntimeException ex) {
+        this.failureBackoff.register(context, cacheFilePair, promptKey, block.positionInfo, ex);
+        throw ex;
+      }
+      if (promptKey != null) {
+        this.cacheResponse(context, cacheFilePair, block, promptKey, extraKeyValues,
+            modelResponse, metric);
+      }
+    }
+    this.getMetrics().add(metric);
+    return response;
+  }
+
+  /**
+   * Find response for prompt in cache. Exact and failover responses are looked up first, then
+   * response of similar prompt and stale response for the source position.
+   *
+   * @param context        the preprocessor context, must not be null
+   * @param block          the prompt block, must not be null
+   * @param promptContext  the context of prompt with routed model, must not be null
+   * @param cacheFilePair  the cache file pair, can be null
+   * @param promptKey      the cache key of prompt, null if cache is not used
+   * @param extraKeyValues extra values of cache key, must not be null
+   * @return found record with its cache status or null if not found
+   */
+  private Map.Entry<JcpAiCacheRecord, PromptCacheStatus> findCachedResponse(
+      final PreprocessorContext context,
+      final JcpAiPrompt block,
+      final PreprocessorContext promptContext,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey,
+      final Map<String, Object> extraKeyValues) {
+    if (cacheFilePair == null) {
+      return null;
+    }
+    final CacheLookupEvent lookupEvent = new CacheLookupEvent();
+    lookupEvent.begin();
+    JcpAiCacheRecord record = cacheFilePair.getKey().getCache().findRecord(promptKey);
+    if (record == null) {
+      record = this.failover.findCachedRecord(context, cacheFilePair,
+          x -> makeCachePromptKey(block.prompt, x), extraKeyValues);
+    }
+    this.commitLookupEvent(lookupEvent, StringUtils.asText(block.positionInfo, true),
+        record != null);
+    cacheFilePair.getValue().add(promptKey);
+    logDebug("registered use of prompt key for " + block.positionInfo.toShortString() + " : " +
+        promptKey);
+    if (record != null) {
+      return Map.entry(record, PromptCacheStatus.HIT);
+    }
+
+    record = this.similarity.findSimilarRecord(context, cacheFilePair, block.prompt,
+        block.positionInfo);
+    if (record != null) {
+      return Map.entry(record, PromptCacheStatus.SIMILAR);
+    }
+    record = this.staleResponses.findIfOverBudget(context, cacheFilePair, block.positionInfo);
+    if (record == null && this.isStaleWhileRevalidate(context)) {
+      record = this.staleResponses.findAndRevalidate(promptContext, cacheFilePair, promptKey,
+          block.prompt, block.positionInfo);
+    }
+    return record == null ? null : Map.entry(record, PromptCacheStatus.STALE);
+  }
+
+  private void cacheResponse(final PreprocessorContext context,
+                             final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+                             final JcpAiPrompt block,
+                             final String promptKey,
+                             final Map<String, Object> extraKeyValues,
+                             final PromptResponse modelResponse,
+                             final PromptMetric metric) {
+    logInfo("caching result for " + block.positionInfo.toShortString());
+    final JcpAiCacheRecord newRecord = cacheFilePair.getKey().getCache()
+        .put(RequestFailover.makeResponseCacheKey(promptKey, modelResponse,
+                x -> makeCachePromptKey(block.prompt, x), extraKeyValues),
+            makeSourcePath(context, block.positionInfo),
+            block.positionInfo.getLineNumber(), modelResponse.getText());
+    newRecord.setUsage(modelResponse.getModel(), modelResponse.getInputTokens(),
+        modelResponse.getOutputTokens(), metric.getLatencyMs());
+    if (this.isPromptTextCached(context)) {
+      newRecord.setPrompt(block.prompt);
+      this.similarity.index(context, cacheFilePair, newRecord, block.prompt);
+    }
+    this.failureBackoff.remove(context, cacheFilePair, promptKey);
+  }
+
+  private static String joinResponses(final PreprocessorContext context,
+                                      final List<TextBlock> blocks,
+                                      final String[] responses,
+                                      final String indent) {
+    int resultLength = 0;
+    int resultLines = 0;
+    for (int i = 0; i < responses.length; i++) {
+      if (blocks.get(i) instanceof JustTextBlock) {
+        resultLength += ((JustTextBlock) blocks.get(i)).length;
+        resultLines += ((JustTextBlock) blocks.get(i)).lines;
+      } else if (responses[i] != null) {
+        resultLength += responses[i].length();
+        resultLines += StringUtils.countLines(responses[i]);
+      }
+    }
+
+    final String eol = context.getEol();
+    final String lineIndent = context.isPreserveIndents() ? indent : "";
+    final StringBuilder result =
+        new StringBuilder(resultLength + resultLines * (lineIndent.length() + eol.length()));
+    boolean separated = false;
+    for (int i = 0; i < responses.length; i++) {
+      final TextBlock block = blocks.get(i);
+      if (block instanceof JustTextBlock) {
+        final JustTextBlock justTextBlock = (JustTextBlock) block;
+        separated = StringUtils.appendLines(result, justTextBlock.text, justTextBlock.start,
+            justTextBlock.lines, lineIndent, eol, true, separated);
+      } else if (responses[i] != null) {
+        separated = StringUtils.appendLines(result, responses[i], 0,
+            StringUtils.countLines(responses[i]), lineIndent, eol, false, separated);
+      }
+    }
+    return result.toString();
+  }
+
+  public boolean isDeltaRegeneration(final PreprocessorContext context) {
+    return findPreprocessorBooleanVariable(PROPERTY_JCPAI_DELTA, context).orElse(false);
+  }
+
+  /**
+   * Check that prompt text should be saved in cache records.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return true if prompt text is required by enabled features
+   */
+  private boolean isPromptTextCached(final PreprocessorContext context) {
+    return this.isDeltaRegeneration(context) || this.isSimilarityLookup(context);
+  }
+
+  /**
+   * Get threshold of similarity for near-duplicate prompt lookup.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return threshold in range 0..1, zero if lookup is disabled
+   */
+  public double findSimilarityThreshold(final PreprocessorContext context) {
+    return Math.min(1.0d, Math.max(0.0d,
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_SIMILARITY_THRESHOLD, context).orElse(0.0f)));
+  }
+
+  public boolean isSimilarityLookup(final PreprocessorContext context) {
+    return this.findSimilarityThreshold(context) > 0.0d;
+  }
+
+  public boolean isSimilarityReuse(final PreprocessorContext context) {
+    return findPreprocessorBooleanVariable(PROPERTY_JCPAI_SIMILARITY_REUSE, context).orElse(false);
+  }
+
+  /**
+   * Get backoff window for prompts which failed earlier.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return window in milliseconds, zero if failures are not registered
+   */
+  public long findFailureBackoffMs(final PreprocessorContext context) {
+    return Math.max(0L,
+        findPreprocessorLongVariable(PROPERTY_JCPAI_FAILURE_BACKOFF_MS, context).orElse(0L));
+  }
+
+  public boolean isMinifyPrompts(final PreprocessorContext context) {
+    return findPreprocessorBooleanVariable(PROPERTY_JCPAI_MINIFY, context).orElse(false);
+  }
+
+  private String minifyPrompt(final String prompt) {
+    final String result = PromptMinifier.minify(prompt);
+    logDebug("minified prompt from " + prompt.length() + " to " + result.length() + " char(s)");
+    return result;
+  }
+
+  /**
+   * Replace prompts by their minified versions if minification is enabled, cache keys are made for
+   * minified prompts.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param blocks  the detected text blocks, must not be null and modifiable
+   */
+  private void minifyPrompts(final PreprocessorContext context, final List<TextBlock> blocks) {
+    if (!this.isMinifyPrompts(context)) {
+      return;
+    }
+    for (int i = 0; i < blocks.size(); i++) {
+      if (blocks.get(i) instanceof JcpAiPrompt) {
+        final JcpAiPrompt block = (JcpAiPrompt) blocks.get(i);
+        blocks.set(i, new JcpAiPrompt(this.minifyPrompt(block.prompt), block.positionInfo));
+      }
+    }
+  }
+
+  public boolean isStaleWhileRevalidate(final PreprocessorContext context) {
+    return !this.isCacheOnly(context)
+        && findPreprocessorBooleanVariable(PROPERTY_JCPAI_PROMPT_CACHE_STALE_WHILE_REVALIDATE,
+        context).orElse(false);
+  }
+
   @Override
   public String processUncommentedText(
       final PreprocessorContext context,
@@ -559,16 +1281,24 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     this.assertStarted();
 
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
-    logDebug("Incoming potential prompt from uncommented text: " + uncommentedText);
-    final String[] lines = uncommentedText.split("\\R");
-
-    final String indent =
-        context.isPreserveIndents() ? " ".repeat(recommendedIndent) : "";
-    final List<TextBlock> detectedTextBlocks = splitToTextBlocks(positionInfo, lines);
-    final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair =
-        this.findCacheFilePair(context);
-
-    return this.makeRequest(context, positionInfo, detectedTextBlocks, indent, cacheFilePair);
+    final TraceSpan span = this.tracer.startSpan("processUncommentedText")
+        .setAttribute("jcpai.source", StringUtils.asText(positionInfo, true));
+    try {
+      logDebug("Incoming potential prompt from uncommented text: " + uncommentedText);
+      final String indent =
+          context.isPreserveIndents() ? " ".repeat(recommendedIndent) : "";
+      final List<TextBlock> detectedTextBlocks = splitToTextBlocks(positionInfo, uncommentedText);
+      span.setAttribute("jcpai.blocks", detectedTextBlocks.size());
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair =
+          this.findCacheFilePair(context);
+
+      return this.makeRequest(context, detectedTextBlocks, indent, cacheFilePair);
+    } catch (RuntimeException ex) {
+      span.setError(ex);
+      throw ex;
+    } finally {
+      span.end();
+    }
   }
 
   @Override
@@ -579,7 +1309,15 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     final Value modelName =
         findPreprocessorVar(PROPERTY_JCPAI_ONLY_PROCESSOR, context).orElse(null);
     if (modelName == null) {
-      return true;
+      final String primary = this.failover.findPrimary(context);
+      final boolean enabled =
+          primary == null || primary.equalsIgnoreCase(this.getProcessorTextId());
+      if (!enabled) {
+        logDebug("processor disabled for " + filePositionInfo.getFile().getName() + ':' +
+            filePositionInfo.getLineNumber() + " by " + PROPERTY_JCPAI_FAILOVER_PROCESSORS +
+            ", primary processor is " + primary);
+      }
+      return enabled;
     } else {
       final boolean enabled = modelName.asString().equalsIgnoreCase(this.getProcessorTextId());
       if (!enabled) {
@@ -592,14 +1330,18 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
   }
 
   /**
-   * Process prompt and generate text to replace the prompt in sources.
+   * Process prompt and generate text to replace the prompt in sources. The response must be
+   * returned as it is provided by the model, distillation is made by the caller. It is a breaking
+   * change of 1.1.1, before the method returned distilled response text as {@link String} and
+   * implementations made distillation themselves.
    *
    * @param context the current preprocessor context, must not be null
    * @param history list of content to provide as history during request, must not be null
-   * @return the generated response as single line or multi-line text, must not be null
-   * @since 1.1.0
+   * @param prompt  the prompt, must not be null
+   * @return the raw generated response with usage data, must not be null
+   * @since 1.1.1
    */
-  public abstract String processPrompt(
+  public abstract PromptResponse processPrompt(
       PreprocessorContext context,
       List<ContentRecord> history,
       String prompt
@@ -617,6 +1359,37 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
         true);
   }
 
+  /**
+   * Get flag that model should return structured output with code field instead of markdown text,
+   * such output is read without distillation.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return true if structured output is required, false otherwise
+   * @since 1.1.1
+   */
+  public boolean isStructuredOutput(final PreprocessorContext context) {
+    return findPreprocessorBooleanVariable(PROPERTY_JCPAI_STRUCTURED_OUTPUT, context)
+        .orElse(false);
+  }
+
+  /**
+   * Extract code from response without logging, structured output is used if present.
+   *
+   * @param context  the preprocessor context, must not be null
+   * @param response the raw response, must not be null
+   * @return extracted code or the response if distillation is not required
+   */
+  String extractCode(final PreprocessorContext context, final String response) {
+    if (this.isStructuredOutput(context)) {
+      final Optional<String> code = StructuredOutput.extractCode(response);
+      if (code.isPresent()) {
+        return code.get();
+      }
+    }
+    return this.isDistillationRequired(context)
+        ? StringUtils.extractCodePart(response, context.getEol()) : response;
+  }
+
   /**
    * Get the processor text id. It will be used as log prefix and in other operations requiring id of the processor.
    *
@@ -635,6 +1408,14 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
    */
   protected String makeDistillationIfAllowed(final PreprocessorContext context,
                                              final String response) {
+    if (this.isStructuredOutput(context)) {
+      final Optional<String> code = StructuredOutput.extractCode(response);
+      if (code.isPresent()) {
+        logDebug("code taken from structured output");
+        return code.get();
+      }
+      logWarn("can't find structured output in the response");
+    }
     if (this.isDistillationRequired(context)) {
       logInfo("distilling the response");
       return StringUtils.extractCodePart(response, context.getEol());
@@ -644,6 +1425,348 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     }
   }
 
+  /**
+   * Complete and commit JFR event for prompt request made by connector. The event must be started
+   * before request, it should be committed in finally block so that failed requests are recorded
+   * too, the event is ended by commit if it was not ended.
+   *
+   * @param event    the event, must not be null
+   * @param source   the source position of prompt, must not be null
+   * @param history  the history sent with prompt, must not be null
+   * @param prompt   the prompt, must not be null
+   * @param response the response, can be null if request failed
+   * @param error    the error of request, null if request is successful
+   * @since 1.1.1
+   */
+  protected void commitPromptRequestEvent(final PromptRequestEvent event,
+                                          final String source,
+                                          final List<ContentRecord> history,
+                                          final String prompt,
+                                          final PromptResponse response,
+                                          final Throwable error) {
+    if (event.shouldCommit()) {
+      event.provider = this.getProcessorTextId();
+      event.source = source;
+      event.historyItems = history.size();
+      event.promptChars = prompt.length();
+      if (response != null) {
+        event.model = response.getModel();
+        event.responseChars = response.getText().length();
+        event.inputTokens = response.getInputTokens();
+        event.outputTokens = response.getOutputTokens();
+      }
+      if (error != null) {
+        event.error = error.getClass().getSimpleName() + ": " + error.getMessage();
+      }
+      event.commit();
+    }
+  }
+
+  private void commitLookupEvent(final CacheLookupEvent event, final String source,
+                                 final boolean hit) {
+    event.end();
+    this.getStats().onCacheLookup(hit);
+    if (event.shouldCommit()) {
+      event.provider = this.getProcessorTextId();
+      event.source = source;
+      event.hit = hit;
+      event.commit();
+    }
+  }
+
+  private void commitDistillationEvent(final DistillationEvent event, final String source,
+                                       final boolean cached, final String input,
+                                       final String output) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.provider = this.getProcessorTextId();
+      event.source = source;
+      event.cached = cached;
+      event.inputChars = input.length();
+      event.outputChars = output.length();
+      event.commit();
+    }
+  }
+
+  /**
+   * Make retry policy for model requests.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return the retry policy, must not be null
+   * @since 1.1.1
+   */
+  protected RetryPolicy makeRetryPolicy(final PreprocessorContext context) {
+    final int maxAttempts = findPreprocessorLongVariable(PROPERTY_JCPAI_RETRY_MAX_ATTEMPTS, context)
+        .orElse(DEFAULT_RETRY_MAX_ATTEMPTS).intValue();
+    final long deadline = findPreprocessorLongVariable(PROPERTY_JCPAI_RETRY_DEADLINE_MS, context)
+        .orElseGet(() -> this.findTimeoutMs(context).map(x -> x * Math.max(1, maxAttempts))
+            .orElse(0L));
+    return new RetryPolicy(maxAttempts,
+        findPreprocessorLongVariable(PROPERTY_JCPAI_RETRY_INITIAL_DELAY_MS, context)
+            .orElse(DEFAULT_RETRY_INITIAL_DELAY_MS),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_RETRY_MAX_DELAY_MS, context)
+            .orElse(DEFAULT_RETRY_MAX_DELAY_MS),
+        deadline);
+  }
+
+  /**
+   * Find HTTP status code of error thrown by provider client.
+   *
+   * @param error the error, must not be null
+   * @return the status code or -1 if it is not provided
+   * @since 1.1.1
+   */
+  protected int findErrorStatusCode(final Throwable error) {
+    return -1;
+  }
+
+  /**
+   * Find delay requested by provider through Retry-After in error response.
+   *
+   * @param error the error, must not be null
+   * @return delay in milliseconds or {@link RetryPolicy#NO_RETRY_AFTER}
+   * @since 1.1.1
+   */
+  protected long findErrorRetryAfterMs(final Throwable error) {
+    return RetryPolicy.NO_RETRY_AFTER;
+  }
+
+  /**
+   * Check that request failed with error can be repeated. By default errors with temporary HTTP
+   * status codes, IO errors and timeouts are retryable.
+   *
+   * @param error the error, must not be null
+   * @return true if request can be repeated
+   * @since 1.1.1
+   */
+  protected boolean isRetryableError(final Throwable error) {
+    if (error instanceof BudgetExceededException) {
+      return false;
+    }
+    final int statusCode = this.findErrorStatusCode(error);
+    if (statusCode > 0) {
+      return RetryPolicy.isRetryableStatus(statusCode);
+    }
+    Throwable cause = error;
+    for (int i = 0; cause != null && i < 16; i++) {
+      if (cause instanceof IOException || cause instanceof TimeoutException) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /**
+   * Check that request failed with error which will be repeated for the same prompt, only such
+   * failures are registered in negative cache. By default these are responses without code content
+   * and client errors which are not retryable, budget, interruption and unknown errors are not
+   * deterministic.
+   *
+   * @param error the error, must not be null
+   * @return true if the same request will fail again
+   * @since 1.1.1
+   */
+  protected boolean isDeterministicError(final Throwable error) {
+    if (error instanceof EmptyResponseException) {
+      return true;
+    }
+    if (error instanceof BudgetExceededException || this.isRetryableError(error)) {
+      return false;
+    }
+    final int statusCode = this.findErrorStatusCode(error);
+    return statusCode >= 400 && statusCode < 500;
+  }
+
+  /**
+   * Send prompt to model, the request goes through failover, retries and hedging. If request
+   * finally fails then all prompt cache files are flushed, so that already received responses are
+   * not lost.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @param metric  the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse requestModel(final PreprocessorContext context,
+                              final List<ContentRecord> history,
+                              final String prompt,
+                              final PromptMetric metric) {
+    try {
+      return this.failover.request(context, history, prompt, metric);
+    } catch (RuntimeException ex) {
+      this.flushPromptCaches();
+      throw ex;
+    }
+  }
+
+  /**
+   * Find base URL of provider API, it is used to separate rate limits of different endpoints.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return the base URL or empty if default one is used
+   * @since 1.1.1
+   */
+  protected Optional<String> findProviderBaseUrl(final PreprocessorContext context) {
+    return Optional.empty();
+  }
+
+  /**
+   * Get name of property which contains model name, it is used to send hedged requests to
+   * secondary model.
+   *
+   * @return the property name or null if model can't be changed
+   * @since 1.1.1
+   */
+  protected String getModelPropertyName() {
+    return null;
+  }
+
+  private synchronized void flushPromptCaches() {
+    this.promptFiles.values().forEach(x -> {
+      try {
+        if (x.getKey().flush(y -> true)) {
+          logInfo("Written prompt cache file after failed request: " + x.getKey().getPath());
+        }
+      } catch (IOException ex) {
+        logError("Can't flush prompt cache file " + x.getKey().getPath() + " : " + ex.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Send prompt to model once and register latency and usage in metric.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @param metric  the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse requestModelOnce(final PreprocessorContext context,
+                                  final List<ContentRecord> history,
+                                  final String prompt,
+                                  final PromptMetric metric) {
+    if (this.isCacheOnly(context)) {
+      throw new IllegalStateException(
+          "Model request is not allowed in cache-only mode: " + metric.getSource());
+    }
+    this.budget.check();
+    final long estimatedTokens = TokenEstimator.estimateTokens(history, prompt);
+    final RequestLimits.Permit permit = this.limits.acquire(context, estimatedTokens, metric);
+    final TraceSpan span = this.tracer.startSpan("processPrompt")
+        .setAttribute("jcpai.provider.call", true)
+        .setAttribute("jcpai.provider", this.getProcessorTextId())
+        .setAttribute("jcpai.source", metric.getSource())
+        .setAttribute("jcpai.cache.status", metric.getCacheStatus().name())
+        .setAttribute("jcpai.history.items", history.size())
+        .setAttribute("jcpai.prompt.chars", prompt.length())
+        .setAttribute("jcpai.rate.wait.ms", permit.getRateWaitMs());
+    final JcpAiProcessorStats processorStats = this.getStats();
+    processorStats.onRequestStarted();
+    final long start = System.currentTimeMillis();
+    PromptResponse response = null;
+    RuntimeException error = null;
+    try {
+      response = this.processPrompt(context, history, prompt);
+      metric.setResponse(response, System.currentTimeMillis() - start);
+      this.hedging.addLatency(metric.getLatencyMs());
+      span.setAttribute("jcpai.model", response.getModel())
+          .setAttribute("jcpai.tokens.input", response.getInputTokens())
+          .setAttribute("jcpai.tokens.output", response.getOutputTokens());
+      return response;
+    } catch (RuntimeException ex) {
+      error = ex;
+      span.setError(ex);
+      throw ex;
+    } finally {
+      final long latencyMs = System.currentTimeMillis() - start;
+      final long spentTokens =
+          response == null ? estimatedTokens : countTokens(history, prompt, response);
+      permit.release(latencyMs, error, spentTokens);
+      if (!Thread.currentThread().isInterrupted()) {
+        this.failover.onCall(latencyMs, error != null && this.isRetryableError(error));
+      }
+      this.budget.register(spentTokens, latencyMs);
+      processorStats.onRequestCompleted(latencyMs,
+          response == null ? PromptResponse.UNKNOWN_TOKENS : response.getInputTokens(),
+          response == null ? PromptResponse.UNKNOWN_TOKENS : response.getOutputTokens(),
+          response == null);
+      span.end();
+    }
+  }
+
+  private static long countTokens(final List<ContentRecord> history, final String prompt,
+                                 final PromptResponse response) {
+    final long inputTokens = response.getInputTokens() < 0L
+        ? TokenEstimator.estimateTokens(history, prompt) : response.getInputTokens();
+    final long outputTokens = response.getOutputTokens() < 0L
+        ? TokenEstimator.estimateTokens(response.getText()) : response.getOutputTokens();
+    return inputTokens + outputTokens;
+  }
+
+  /**
+   * Make distillation of raw model response and check that there is some content.
+   *
+   * @param context      the preprocessor context, must not be null
+   * @param response     the raw response, must not be null
+   * @param positionInfo position of the prompt in sources, can be null
+   * @param metric       metric to register distillation time, must not be null
+   * @return the distilled response, must not be null
+   * @throws EmptyResponseException if there is no any content in the distilled response
+   */
+  String distillResponse(final PreprocessorContext context, final String response,
+                         final FilePositionInfo positionInfo,
+                         final PromptMetric metric) {
+    final DistillationEvent event = new DistillationEvent();
+    event.begin();
+    final long start = System.nanoTime();
+    final String result = this.makeDistillationIfAllowed(context, response);
+    metric.setDistillationMicros((System.nanoTime() - start) / 1000L);
+    this.commitDistillationEvent(event, metric.getSource(), false, response, result);
+    if (result.isBlank()) {
+      throw new EmptyResponseException(
+          "Can't find code content in the result of request at " +
+              StringUtils.asText(positionInfo, true));
+    }
+    return result;
+  }
+
+  /**
+   * Get response from cache record, raw responses are distilled on read and the distilled form is
+   * memoized in the record.
+   *
+   * @param context      the preprocessor context, must not be null
+   * @param record       the cache record, must not be null
+   * @param positionInfo position of the prompt in sources, can be null
+   * @param metric       metric to register distillation time, must not be null
+   * @return the response ready for injection, must not be null
+   * @throws IllegalStateException if there is no any content in the distilled response
+   */
+  private String distillCachedResponse(final PreprocessorContext context,
+                                       final JcpAiCacheRecord record,
+                                       final FilePositionInfo positionInfo,
+                                       final PromptMetric metric) {
+    final DistillationEvent event = new DistillationEvent();
+    event.begin();
+    final long start = System.nanoTime();
+    final String result;
+    if (this.isStructuredOutput(context) || this.isDistillationRequired(context)) {
+      result = record.findDistilledResult(context.getEol(), x -> this.extractCode(context, x));
+    } else {
+      result = record.getResult();
+    }
+    metric.setDistillationMicros((System.nanoTime() - start) / 1000L);
+    this.commitDistillationEvent(event, metric.getSource(), true, record.getResult(), result);
+    if (result.isBlank()) {
+      throw new IllegalStateException(
+          "Can't find code content in the cached result of request at " +
+              StringUtils.asText(positionInfo, true));
+    }
+    return result;
+  }
+
   @Override
   public boolean hasAction(final int i) {
     this.assertStarted();
@@ -680,12 +1803,16 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
       throw context.makeException("Empty prompt is not allowed", null);
     }
 
-    final List<String> lines = Arrays.stream(prompt.split("\\R")).toList();
+    final StringBuilder normalizedPrompt = new StringBuilder(prompt.length());
+    StringUtils.appendLines(normalizedPrompt, prompt, 0, StringUtils.countLines(prompt), "", "\n",
+        false, false);
     final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair =
         cacheAllowed ? this.findCacheFilePair(context) : null;
 
     final String result =
-        this.makeRequest(context, positionInfo, List.of(new JcpAiPrompt(lines, positionInfo)), "",
+        this.makeRequest(context,
+            new ArrayList<>(List.of(new JcpAiPrompt(normalizedPrompt.toString(), positionInfo))),
+            "",
             cacheFilePair);
 
     return Value.valueOf(result);
@@ -697,25 +1824,106 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
       final List<String> args) {
 
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
-
+    final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair =
+        this.findCacheFilePair(context);
+    final List<String> prompts =
+        this.isMinifyPrompts(context) ? args.stream().map(this::minifyPrompt).toList() : args;
+    final PreprocessorContext chainContext =
+        this.routing.makeRoutedContext(context, positionInfo, String.join("\n", prompts));
+    final Map<String, Object> extraKeyValues =
+        cacheFilePair == null ? Map.of() : this.findPromptKeyValues(chainContext);
+
+    final String systemInstruction =
+        findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION);
     final List<ContentRecord> history = new ArrayList<>();
-    history.add(ContentRecord.of(ContentRole.SYSTEM,
-        findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION)));
+    history.add(ContentRecord.of(ContentRole.SYSTEM, systemInstruction));
 
+    final List<String> previousPrompts = new ArrayList<>();
     String lastResponse = null;
+    String lastStepKey = null;
+    int missingStep = 0;
+
+    final long historyMaxTokens = this.findParamChainHistoryMaxTokens(context).orElse(0L);
+    final ChainHistoryStrategy historyStrategy = this.findParamChainHistoryStrategy(context);
+    final ChainSummary historySummary = new ChainSummary();
 
     this.logInfo("Started AI chain: " + positionInfo.toShortString());
     this.setIndentLog("...");
     try {
-      for (final String prompt : args) {
-        logDebug(
-            String.format("AI chain processing (history %d items): %s", history.size(), prompt));
-        lastResponse = this.processPrompt(context, history, prompt);
-        logDebug(
-            String.format("AI chain processing (history %d items) response: %s", history.size(),
-                lastResponse));
+      for (final String prompt : prompts) {
+        final PromptMetric metric =
+            new PromptMetric(StringUtils.asText(positionInfo, true), this.getProcessorTextId());
+        final String previousKey = lastStepKey;
+        final String previousResponse = lastResponse;
+        String stepKey = null;
+        JcpAiCacheRecord cachedRecord = null;
+        if (cacheFilePair != null && missingStep == 0) {
+          final CacheLookupEvent lookupEvent = new CacheLookupEvent();
+          lookupEvent.begin();
+          stepKey = makeCacheChainStepKey(systemInstruction, previousKey, previousResponse,
+              prompt, extraKeyValues);
+          cacheFilePair.getValue().add(stepKey);
+          cachedRecord = cacheFilePair.getKey().getCache().findRecord(stepKey);
+          if (cachedRecord == null) {
+            cachedRecord = this.failover.findCachedRecord(context, cacheFilePair,
+                x -> makeCacheChainStepKey(systemInstruction, previousKey, previousResponse,
+                    prompt, x), extraKeyValues);
+          }
+          this.commitLookupEvent(lookupEvent, metric.getSource(), cachedRecord != null);
+          logDebug("registered use of chain step key for " + positionInfo.toShortString() + " : " +
+              stepKey);
+        }
+
+        if (missingStep > 0) {
+          this.cacheOnlyMisses.registerDependent(positionInfo, missingStep, prompt);
+          lastResponse = "";
+        } else if (cachedRecord == null && this.isCacheOnly(context)) {
+          this.cacheOnlyMisses.register(positionInfo, stepKey, prompt);
+          missingStep = previousPrompts.size() + 1;
+          lastResponse = "";
+        } else if (cachedRecord == null) {
+          logDebug(
+              String.format("AI chain processing (history %d items): %s", history.size(), prompt));
+          final List<ContentRecord> stepHistory =
+              this.fitChainHistory(chainContext, history, prompt, historyMaxTokens,
+                  historyStrategy, historySummary);
+          logInfo(String.format(
+              "AI chain step %d of %d, history %d items, estimated input %d token(s)",
+              previousPrompts.size() + 1, prompts.size(), stepHistory.size(),
+              TokenEstimator.estimateTokens(stepHistory, prompt)));
+          metric.setCacheStatus(
+              stepKey == null ? PromptCacheStatus.DISABLED : PromptCacheStatus.MISS);
+          final PromptResponse modelResponse =
+              this.requestModel(chainContext, stepHistory, prompt, metric);
+          lastResponse =
+              this.distillResponse(context, modelResponse.getText(), positionInfo, metric);
+          logDebug(
+              String.format("AI chain processing (history %d items) response: %s", history.size(),
+                  lastResponse));
+          if (stepKey != null) {
+            logInfo("caching chain step result for " + positionInfo.toShortString());
+            cacheFilePair.getKey().getCache()
+                .put(RequestFailover.makeResponseCacheKey(stepKey, modelResponse,
+                        x -> makeCacheChainStepKey(systemInstruction, previousKey,
+                            previousResponse, prompt, x), extraKeyValues),
+                    makeSourcePath(context, positionInfo), positionInfo.getLineNumber(),
+                    modelResponse.getText())
+                .setUsage(modelResponse.getModel(), modelResponse.getInputTokens(),
+                    modelResponse.getOutputTokens(), metric.getLatencyMs());
+          }
+        } else {
+          metric.setCacheStatus(PromptCacheStatus.HIT);
+          metric.setSaved(cachedRecord.getModel(), cachedRecord.getInputTokens(),
+              cachedRecord.getOutputTokens(), cachedRecord.getLatencyMs());
+          lastResponse = this.distillCachedResponse(context, cachedRecord, positionInfo, metric);
+          this.logInfo("found cached chain step response for " + positionInfo.toShortString()
+              + " in cache file " + cacheFilePair.getKey().getPath().getFileName());
+        }
+        this.getMetrics().add(metric);
         history.add(ContentRecord.of(ContentRole.USER, prompt));
         history.add(ContentRecord.of(ContentRole.ASSISTANT, lastResponse));
+        previousPrompts.add(prompt);
+        lastStepKey = stepKey;
       }
       logDebug(String.format("AI chain processing (history %d items) completed with result: %s",
           history.size(), lastResponse));
@@ -728,8 +1936,125 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
       this.logInfo("Completed AI chain: " + positionInfo.toShortString());
     }
 
-    return Value.valueOf(Arrays.stream(lastResponse.split("\\R")).toList().stream()
-        .collect(joining(context.getEol())));
+    final StringBuilder result = new StringBuilder(lastResponse.length());
+    StringUtils.appendLines(result, lastResponse, 0, StringUtils.countLines(lastResponse), "",
+        context.getEol(), false, false);
+    return Value.valueOf(result.toString());
+  }
+
+  /**
+   * Make version of chain history which fits token budget.
+   *
+   * @param context   the preprocessor context, must not be null
+   * @param history   the full chain history started with system record, must not be null
+   * @param prompt    the prompt of the current chain step, must not be null
+   * @param maxTokens the token budget for history and prompt, zero or negative means no limit
+   * @param strategy  the strategy to decrease history, must not be null
+   * @param summary   the summary made for previous steps of the chain, must not be null
+   * @return the history fitting the budget or the same history if it fits or can't be decreased
+   */
+  private List<ContentRecord> fitChainHistory(
+      final PreprocessorContext context,
+      final List<ContentRecord> history,
+      final String prompt,
+      final long maxTokens,
+      final ChainHistoryStrategy strategy,
+      final ChainSummary summary) {
+    final long fullTokens = TokenEstimator.estimateTokens(history, prompt);
+    if (maxTokens <= 0L || fullTokens <= maxTokens || history.size() <= 3) {
+      return history;
+    }
+
+    final List<ContentRecord> result = new ArrayList<>(history);
+    final int lastResponseIndex = result.size() - 1;
+    switch (strategy) {
+      case DROP_RESPONSES: {
+        int oldest = findFirstRole(result, ContentRole.ASSISTANT, result.size() - 1);
+        while (oldest >= 0 && TokenEstimator.estimateTokens(result, prompt) > maxTokens) {
+          result.remove(oldest);
+          oldest = findFirstRole(result, ContentRole.ASSISTANT, result.size() - 1);
+        }
+      }
+      break;
+      case CODE_ONLY: {
+        for (int i = 1; i < lastResponseIndex; i++) {
+          final ContentRecord record = result.get(i);
+          if (record.getRole() == ContentRole.ASSISTANT) {
+            result.set(i, ContentRecord.of(ContentRole.ASSISTANT,
+                StringUtils.extractCodePart(record.getText(), "\n")));
+          }
+        }
+      }
+      break;
+      case SUMMARIZE: {
+        final List<ContentRecord> older = result.subList(1, lastResponseIndex - 1);
+        if (summary.coveredItems < older.size()) {
+          final List<ContentRecord> notSummarized =
+              older.subList(summary.coveredItems, older.size());
+          final StringBuilder conversation = new StringBuilder("Summarize the following "
+              + "conversation, it will be used as context for next requests:");
+          if (summary.text != null) {
+            conversation.append("\n\nSUMMARY OF EARLIER CONVERSATION:\n").append(summary.text);
+          }
+          notSummarized.forEach(
+              x -> conversation.append("\n\n").append(x.getRole().name()).append(":\n")
+                  .append(x.getText()));
+          logInfo("summarizing " + notSummarized.size() + " item(s) of AI chain history");
+          final PromptMetric metric = new PromptMetric(
+              StringUtils.asText(PreprocessorUtils.extractFilePositionInfo(context), true),
+              this.getProcessorTextId());
+          final String summaryResponse = this.requestModel(context,
+              List.of(ContentRecord.of(ContentRole.SYSTEM, CHAIN_SUMMARY_SYSTEM_INSTRUCTION)),
+              conversation.toString(), metric).getText();
+          final String summaryText = this.isStructuredOutput(context)
+              ? StructuredOutput.extractCode(summaryResponse).orElse(summaryResponse)
+              : summaryResponse;
+          this.getMetrics().add(metric);
+          if (summaryText.isBlank()) {
+            logWarn("model returned blank summary of AI chain history");
+          } else {
+            summary.text = summaryText.trim();
+            summary.coveredItems = older.size();
+          }
+        }
+        if (summary.text != null) {
+          older.subList(0, summary.coveredItems).clear();
+          result.add(1, ContentRecord.of(ContentRole.USER,
+              "Summary of previous conversation:\n" + summary.text));
+        }
+      }
+      break;
+      default:
+        throw new IllegalArgumentException("Unsupported chain history strategy: " + strategy);
+    }
+
+    while (result.size() > 3 && TokenEstimator.estimateTokens(result, prompt) > maxTokens) {
+      // drop the oldest turn together with its response, history must not start with response
+      result.remove(1);
+      while (result.size() > 3 && result.get(1).getRole() == ContentRole.ASSISTANT) {
+        result.remove(1);
+      }
+    }
+
+    final long resultTokens = TokenEstimator.estimateTokens(result, prompt);
+    if (resultTokens > maxTokens) {
+      logWarn(String.format("AI chain history can't fit %d token(s), estimated %d token(s)",
+          maxTokens, resultTokens));
+    }
+    logDebug(String.format(
+        "AI chain history decreased by %s from %d to %d item(s), tokens %d -> %d",
+        strategy, history.size(), result.size(), fullTokens, resultTokens));
+    return result;
+  }
+
+  private static int findFirstRole(final List<ContentRecord> records, final ContentRole role,
+                                   final int endExclusive) {
+    for (int i = 0; i < endExclusive; i++) {
+      if (records.get(i).getRole() == role) {
+        return i;
+      }
+    }
+    return -1;
   }
 
   @Override
@@ -737,6 +2062,22 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
                                    final String name,
                                    final List<Value> args) {
     this.assertStarted();
+    final TraceSpan span = this.tracer.startSpan("processUserFunction")
+        .setAttribute("jcpai.function", name)
+        .setAttribute("jcpai.function.args", args.size());
+    try {
+      return this.callUserFunction(context, name, args);
+    } catch (RuntimeException ex) {
+      span.setError(ex);
+      throw ex;
+    } finally {
+      span.end();
+    }
+  }
+
+  private Value callUserFunction(final PreprocessorContext context,
+                                 final String name,
+                                 final List<Value> args) {
     return switch (name) {
       case FUNCTION_AI_CHAIN -> {
         if (args.isEmpty()) {
@@ -777,30 +2118,46 @@ public abstract class AbstractJcpAiProcessor implements CommentTextProcessor,
     };
   }
 
-  private static final class JustTextBlock extends TextBlock {
-    JustTextBlock(final List<String> text, final FilePositionInfo positionInfo) {
-      super(text, positionInfo);
+  /**
+   * Summary of the oldest items of AI chain history, it is made incrementally so that every step
+   * sends to model only items not summarized yet.
+   */
+  private static final class ChainSummary {
+    private String text;
+    private int coveredItems;
+  }
+
+  static final class JustTextBlock extends TextBlock {
+    final String text;
+    final int start;
+    final int lines;
+    final int length;
+
+    JustTextBlock(final String text, final int start, final int lines, final int length,
+                  final FilePositionInfo positionInfo) {
+      super(positionInfo);
+      this.text = text;
+      this.start = start;
+      this.lines = lines;
+      this.length = length;
     }
   }
 
-  private static final class JcpAiPrompt extends TextBlock {
-    JcpAiPrompt(final List<String> text, final FilePositionInfo positionInfo) {
-      super(text, positionInfo);
+  static final class JcpAiPrompt extends TextBlock {
+    final String prompt;
+
+    JcpAiPrompt(final String prompt, final FilePositionInfo positionInfo) {
+      super(positionInfo);
+      this.prompt = prompt;
     }
   }
 
-  private abstract static class TextBlock {
-    final List<String> lines;
+  abstract static class TextBlock {
     final FilePositionInfo positionInfo;
 
-    TextBlock(final List<String> lines, final FilePositionInfo positionInfo) {
-      this.lines = List.copyOf(lines);
+    TextBlock(final FilePositionInfo positionInfo) {
       this.positionInfo = positionInfo;
     }
-
-    String asString(final String eol) {
-      return String.join(eol, this.lines);
-    }
   }
 
 }
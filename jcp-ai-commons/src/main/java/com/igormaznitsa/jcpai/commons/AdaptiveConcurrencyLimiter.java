@@ -0,0 +1,99 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Adaptive limiter of concurrent model requests based on AIMD algorithm. The limit grows additively
+ * while latency stays near its baseline and decreases multiplicatively if provider throttles
+ * requests or latency grows too much.
+ *
+ * @since 1.1.1
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  /**
+   * Latency is considered as inflated if it exceeds baseline by the factor.
+   */
+  public static final double LATENCY_TOLERANCE = 2.0d;
+
+  private static final double THROTTLE_DECREASE = 0.5d;
+  private static final double LATENCY_DECREASE = 0.9d;
+  private static final double BASELINE_SMOOTHING = 0.1d;
+  private static final double INFLATED_BASELINE_SMOOTHING = 0.02d;
+  private static final int MIN_LIMIT = 1;
+
+  private int maxLimit;
+  private double limit;
+  private int inFlight;
+  private double baselineLatencyMs = -1.0d;
+
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int maxLimit) {
+    this.configure(initialLimit, maxLimit);
+  }
+
+  /**
+   * Set new bounds of the limit, the current limit is kept if it is in bounds.
+   *
+   * @param initialLimit the initial limit
+   * @param maxLimit     the max limit
+   */
+  public synchronized void configure(final int initialLimit, final int maxLimit) {
+    final int newMax = Math.max(MIN_LIMIT, maxLimit);
+    if (this.maxLimit != newMax) {
+      this.maxLimit = newMax;
+      this.limit = Math.max(MIN_LIMIT, Math.min(newMax, initialLimit));
+      this.notifyAll();
+    }
+  }
+
+  public synchronized int getLimit() {
+    return (int) this.limit;
+  }
+
+  public synchronized int getInFlight() {
+    return this.inFlight;
+  }
+
+  /**
+   * Wait until number of requests in flight is less than the limit and register new request.
+   *
+   * @throws InterruptedException if interrupted during wait
+   */
+  public synchronized void acquire() throws InterruptedException {
+    while (this.inFlight >= (int) this.limit) {
+      this.wait();
+    }
+    this.inFlight++;
+  }
+
+  /**
+   * Register completed request and adapt the limit.
+   *
+   * @param latencyMs latency of the request
+   * @param throttled true if provider throttled the request
+   * @return new limit if it has been changed or -1 if it is the same
+   */
+  public synchronized int release(final long latencyMs, final boolean throttled) {
+    this.inFlight = Math.max(0, this.inFlight - 1);
+    final int before = (int) this.limit;
+
+    if (throttled) {
+      this.limit = Math.max(MIN_LIMIT, this.limit * THROTTLE_DECREASE);
+    } else if (latencyMs >= 0L) {
+      if (this.baselineLatencyMs < 0.0d) {
+        this.baselineLatencyMs = latencyMs;
+      } else if (latencyMs > this.baselineLatencyMs * LATENCY_TOLERANCE) {
+        // baseline follows inflated latency slowly to adapt to permanent change of provider speed
+        this.baselineLatencyMs +=
+            (latencyMs - this.baselineLatencyMs) * INFLATED_BASELINE_SMOOTHING;
+        this.limit = Math.max(MIN_LIMIT, this.limit * LATENCY_DECREASE);
+      } else {
+        this.baselineLatencyMs +=
+            (latencyMs - this.baselineLatencyMs) * BASELINE_SMOOTHING;
+        this.limit = Math.min(this.maxLimit, this.limit + 1.0d / Math.max(1.0d, this.limit));
+      }
+    }
+
+    this.notifyAll();
+    final int after = (int) this.limit;
+    return after == before ? -1 : after;
+  }
+}
@@ -0,0 +1,15 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Thrown if build-wide AI budget is exceeded and model request is not allowed.
+ *
+ * @since 1.1.1
+ */
+public class BudgetExceededException extends IllegalStateException {
+
+  private static final long serialVersionUID = 1L;
+
+  public BudgetExceededException(final String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,18 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Policy of processor when build-wide AI budget is exceeded.
+ *
+ * @since 1.1.1
+ */
+public enum BudgetExceededPolicy {
+  /**
+   * Fail preprocessing.
+   */
+  FAIL,
+  /**
+   * Use the latest cached response made for the same source file and line even if the prompt has
+   * been changed, fail if there is no such response.
+   */
+  STALE
+}
@@ -0,0 +1,96 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Governor of build-wide AI budget. It counts model calls, tokens and cumulative time of model
+ * requests and checks limits before every request. Zero or negative limit means no limit.
+ *
+ * @since 1.1.1
+ */
+public class BudgetGovernor {
+
+  private long maxCalls;
+  private long maxTokens;
+  private long maxTimeMs;
+  private long calls;
+  private long tokens;
+  private long timeMs;
+
+  public BudgetGovernor() {
+
+  }
+
+  /**
+   * Reset counters and set new limits.
+   *
+   * @param maxCalls  max number of model calls
+   * @param maxTokens max number of input and output tokens
+   * @param maxTimeMs max cumulative time of model requests in milliseconds
+   */
+  public synchronized void reset(final long maxCalls, final long maxTokens, final long maxTimeMs) {
+    this.maxCalls = maxCalls;
+    this.maxTokens = maxTokens;
+    this.maxTimeMs = maxTimeMs;
+    this.calls = 0L;
+    this.tokens = 0L;
+    this.timeMs = 0L;
+  }
+
+  public synchronized boolean isLimited() {
+    return this.maxCalls > 0L || this.maxTokens > 0L || this.maxTimeMs > 0L;
+  }
+
+  /**
+   * Find reason why new model request is not allowed.
+   *
+   * @return description of exceeded limit or null if request is allowed
+   */
+  public synchronized String findExceededLimit() {
+    if (this.maxCalls > 0L && this.calls >= this.maxCalls) {
+      return "AI budget exceeded, made " + this.calls + " model call(s), limit " + this.maxCalls;
+    }
+    if (this.maxTokens > 0L && this.tokens >= this.maxTokens) {
+      return "AI budget exceeded, spent " + this.tokens + " token(s), limit " + this.maxTokens;
+    }
+    if (this.maxTimeMs > 0L && this.timeMs >= this.maxTimeMs) {
+      return "AI budget exceeded, spent " + this.timeMs + " ms in model calls, limit " +
+          this.maxTimeMs + " ms";
+    }
+    return null;
+  }
+
+  /**
+   * Check that new model request is allowed.
+   *
+   * @throws BudgetExceededException if any limit is reached
+   */
+  public void check() {
+    final String exceeded = this.findExceededLimit();
+    if (exceeded != null) {
+      throw new BudgetExceededException(exceeded);
+    }
+  }
+
+  /**
+   * Register completed model request.
+   *
+   * @param tokens number of input and output tokens
+   * @param timeMs time of the request in milliseconds
+   */
+  public synchronized void register(final long tokens, final long timeMs) {
+    this.calls++;
+    this.tokens += Math.max(0L, tokens);
+    this.timeMs += Math.max(0L, timeMs);
+  }
+
+  public synchronized long getCalls() {
+    return this.calls;
+  }
+
+  public synchronized long getTokens() {
+    return this.tokens;
+  }
+
+  public synchronized long getTimeMs() {
+    return this.timeMs;
+  }
+}
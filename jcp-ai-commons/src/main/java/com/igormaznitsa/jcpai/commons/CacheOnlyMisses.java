@@ -0,0 +1,87 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROMPT_HEAD_LENGTH;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of prompts not found in cache in cache-only mode, all such prompts are reported together
+ * at the end of preprocessing.
+ *
+ * @since 1.1.1
+ */
+final class CacheOnlyMisses {
+
+  private final AbstractJcpAiProcessor owner;
+  private final List<String> misses = new ArrayList<>();
+
+  CacheOnlyMisses(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  private static String makePromptHead(final String prompt) {
+    final String text = prompt.strip();
+    final int lineEnd = text.indexOf('\n');
+    final String firstLine = (lineEnd < 0 ? text : text.substring(0, lineEnd)).strip();
+    return firstLine.length() > PROMPT_HEAD_LENGTH || lineEnd >= 0
+        ? firstLine.substring(0, Math.min(firstLine.length(), PROMPT_HEAD_LENGTH)) + "..."
+        : firstLine;
+  }
+
+  synchronized void clear() {
+    this.misses.clear();
+  }
+
+  /**
+   * Register prompt which is not found in cache.
+   *
+   * @param positionInfo the position of prompt, must not be null
+   * @param key          the prompt cache key, can be null if cache is not used
+   * @param prompt       the prompt, must not be null
+   */
+  void register(final FilePositionInfo positionInfo, final String key, final String prompt) {
+    this.add(String.format("%s, key %s: %s", StringUtils.asText(positionInfo, true),
+        key == null ? "<cache not used>" : key, makePromptHead(prompt)));
+  }
+
+  /**
+   * Register chain step which can't be looked up in cache because a previous step of the chain is
+   * not found, its key depends on the missing response so no key is derived.
+   *
+   * @param positionInfo the position of chain, must not be null
+   * @param missingStep  the number of the first missing chain step, starts with 1
+   * @param prompt       the prompt of the chain step, must not be null
+   */
+  void registerDependent(final FilePositionInfo positionInfo, final int missingStep,
+                         final String prompt) {
+    this.add(String.format("%s, depends on missing step %d: %s",
+        StringUtils.asText(positionInfo, true), missingStep, makePromptHead(prompt)));
+  }
+
+  private void add(final String line) {
+    this.owner.logWarn("cache-only mode, not found in cache: " + line);
+    synchronized (this) {
+      this.misses.add(line);
+    }
+  }
+
+  /**
+   * Make report of registered prompts and clear them.
+   *
+   * @return the report or null if there is no any registered prompt
+   */
+  synchronized String makeReport() {
+    if (this.misses.isEmpty()) {
+      return null;
+    }
+    final StringBuilder result = new StringBuilder();
+    result.append(this.misses.size())
+        .append(" prompt(s) not found in cache in cache-only mode:");
+    this.misses.forEach(x -> result.append("\n  ").append(x));
+    this.misses.clear();
+    return result.toString();
+  }
+}
@@ -0,0 +1,26 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Strategy to decrease history of AI chain if it exceeds token budget. If history still exceeds
+ * the budget after strategy, the oldest turns are dropped.
+ *
+ * @since 1.1.1
+ */
+public enum ChainHistoryStrategy {
+  /**
+   * Drop responses of the oldest turns, prompts are kept.
+   */
+  DROP_RESPONSES,
+  /**
+   * Keep only code parts of responses for all turns except the last one. History keeps responses
+   * in injected form, so the strategy makes effect only if response distillation is disabled,
+   * otherwise responses already contain only code and the oldest turns are dropped.
+   */
+  CODE_ONLY,
+  /**
+   * Replace all turns except the last one by their summary made by model. The summary is made
+   * incrementally, every next summary request contains the previous summary and only turns added
+   * after it.
+   */
+  SUMMARIZE
+}
@@ -0,0 +1,154 @@
+package com.igormaznitsa.jcpai.commons;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of model provider. It keeps outcomes of recent calls and opens if rate of failed
+ * or slow calls reaches threshold. Open breaker rejects calls during configured time and then lets
+ * single probe call, successful probe closes the breaker.
+ *
+ * @since 1.1.1
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final LongSupplier clock;
+  private boolean[] failed = new boolean[1];
+  private boolean[] slow = new boolean[1];
+  private int size;
+  private int next;
+  private int minCalls = 1;
+  private double failureRateThreshold = 1.0d;
+  private long slowCallMs;
+  private double slowRateThreshold = 1.0d;
+  private long openMs;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private boolean probeInFlight;
+
+  public CircuitBreaker() {
+    this(System::currentTimeMillis);
+  }
+
+  CircuitBreaker(final LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Set parameters of the breaker and close it.
+   *
+   * @param windowSize           number of recent calls to be analyzed
+   * @param minCalls             min number of calls in window to make decision
+   * @param failureRateThreshold rate of failed calls to open breaker, in range 0..1
+   * @param slowCallMs           latency of slow call, zero or negative disables slow call check
+   * @param slowRateThreshold    rate of slow calls to open breaker, in range 0..1
+   * @param openMs               time during which open breaker rejects calls
+   */
+  public synchronized void configure(final int windowSize, final int minCalls,
+                                     final double failureRateThreshold,
+                                     final long slowCallMs, final double slowRateThreshold,
+                                     final long openMs) {
+    final int window = Math.max(1, windowSize);
+    this.failed = new boolean[window];
+    this.slow = new boolean[window];
+    this.minCalls = Math.max(1, Math.min(window, minCalls));
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallMs = slowCallMs;
+    this.slowRateThreshold = slowRateThreshold;
+    this.openMs = Math.max(0L, openMs);
+    this.reset();
+  }
+
+  private void reset() {
+    this.size = 0;
+    this.next = 0;
+    this.state = State.CLOSED;
+    this.probeInFlight = false;
+  }
+
+  public synchronized State getState() {
+    return this.state;
+  }
+
+  /**
+   * Check that call is permitted, open breaker becomes half-open after open time and permits single
+   * probe call.
+   *
+   * @return true if call can be made, false if it must be rejected
+   */
+  public synchronized boolean isCallPermitted() {
+    switch (this.state) {
+      case CLOSED:
+        return true;
+      case OPEN: {
+        if (this.clock.getAsLong() - this.openedAt < this.openMs) {
+          return false;
+        }
+        this.state = State.HALF_OPEN;
+        this.probeInFlight = true;
+        return true;
+      }
+      default: {
+        if (this.probeInFlight) {
+          return false;
+        }
+        this.probeInFlight = true;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Register outcome of call.
+   *
+   * @param latencyMs latency of call
+   * @param error     true if call failed
+   * @return the new state if it has been changed by the call, null otherwise
+   */
+  public synchronized State onCall(final long latencyMs, final boolean error) {
+    final boolean slowCall = this.slowCallMs > 0L && latencyMs >= this.slowCallMs;
+    if (this.state == State.HALF_OPEN) {
+      this.probeInFlight = false;
+      if (error || slowCall) {
+        return this.open();
+      }
+      this.reset();
+      return State.CLOSED;
+    }
+    if (this.state == State.OPEN) {
+      return null;
+    }
+
+    this.failed[this.next] = error;
+    this.slow[this.next] = slowCall;
+    this.next = (this.next + 1) % this.failed.length;
+    this.size = Math.min(this.failed.length, this.size + 1);
+
+    if (this.size >= this.minCalls) {
+      int failures = 0;
+      int slowCalls = 0;
+      for (int i = 0; i < this.size; i++) {
+        failures += this.failed[i] ? 1 : 0;
+        slowCalls += this.slow[i] ? 1 : 0;
+      }
+      if ((double) failures / this.size >= this.failureRateThreshold
+          || (this.slowCallMs > 0L && (double) slowCalls / this.size >= this.slowRateThreshold)) {
+        return this.open();
+      }
+    }
+    return null;
+  }
+
+  private State open() {
+    this.state = State.OPEN;
+    this.openedAt = this.clock.getAsLong();
+    this.size = 0;
+    this.next = 0;
+    return State.OPEN;
+  }
+}
@@ -0,0 +1,86 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_SYSTEM_INSTRUCTION;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DELTA_INSTRUCTION;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.makeSourcePath;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiCacheRecord;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Regeneration of response for changed prompt, the prompt is sent together with the previous
+ * prompt and answer cached for the same source position.
+ *
+ * @since 1.1.1
+ */
+final class DeltaRegeneration {
+
+  private final AbstractJcpAiProcessor owner;
+
+  DeltaRegeneration(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Find the latest cached record for source position of changed prompt if delta regeneration is
+   * enabled, only records with saved prompt text are used.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @return found record or null
+   */
+  JcpAiCacheRecord findDeltaRecord(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final FilePositionInfo positionInfo) {
+    if (cacheFilePair == null || !this.owner.isDeltaRegeneration(context)) {
+      return null;
+    }
+    final JcpAiCacheRecord record = cacheFilePair.getKey().getCache()
+        .findLatestRecord(makeSourcePath(context, positionInfo), positionInfo.getLineNumber());
+    return record == null || record.getPrompt() == null ? null : record;
+  }
+
+  private List<ContentRecord> makeDeltaHistory(final PreprocessorContext context,
+                                               final JcpAiCacheRecord previous) {
+    return List.of(
+        ContentRecord.of(ContentRole.SYSTEM,
+            this.owner.findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION)),
+        ContentRecord.of(ContentRole.USER, previous.getPrompt()),
+        ContentRecord.of(ContentRole.ASSISTANT, previous.getResult()));
+  }
+
+  /**
+   * Send prompt to model, changed prompt is sent together with its previous version and answer if
+   * they are found in cache.
+   *
+   * @param context       the preprocessor context of prompt, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param prompt        the prompt, must not be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @param metric        the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse requestModel(final PreprocessorContext context,
+                              final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+                              final String prompt,
+                              final FilePositionInfo positionInfo,
+                              final PromptMetric metric) {
+    final JcpAiCacheRecord previous = this.findDeltaRecord(context, cacheFilePair, positionInfo);
+    if (previous == null) {
+      return this.owner.requestModel(context, List.of(), prompt, metric);
+    }
+    this.owner.logInfo("prompt changed at " + positionInfo.toShortString()
+        + ", sending it together with previous answer");
+    return this.owner.requestModel(context, this.makeDeltaHistory(context, previous),
+        prompt + "\n\n" + DELTA_INSTRUCTION, metric);
+  }
+}
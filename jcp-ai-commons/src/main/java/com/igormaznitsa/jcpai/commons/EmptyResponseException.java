@@ -0,0 +1,15 @@
+package com.igormaznitsa.jcpai.commons;
+
+/**
+ * Thrown if there is no any code content in model response after distillation.
+ *
+ * @since 1.1.1
+ */
+public class EmptyResponseException extends IllegalStateException {
+
+  private static final long serialVersionUID = 1L;
+
+  public EmptyResponseException(final String message) {
+    super(message);
+  }
+}
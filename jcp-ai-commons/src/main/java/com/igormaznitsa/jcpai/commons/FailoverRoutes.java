@@ -0,0 +1,107 @@
+package com.igormaznitsa.jcpai.commons;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Registry of processors which can serve failover requests of other processors. Connectors are
+ * shaded with their own copies of commons classes, so routes are kept in shared resources of
+ * preprocessor context and use only JDK types: request is list of role and text pairs where the
+ * last pair is the prompt, response is array of text, model, input and output tokens.
+ *
+ * @since 1.1.1
+ */
+public final class FailoverRoutes {
+
+  /**
+   * Name of shared resource of preprocessor context which keeps routes.
+   */
+  public static final String SHARED_RESOURCE_NAME = "jcpai.failover.routes";
+
+  private FailoverRoutes() {
+
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, BiFunction<PreprocessorContext, List<String[]>, String[]>> findRoutes(
+      final PreprocessorContext context, final boolean create) {
+    synchronized (FailoverRoutes.class) {
+      Object routes = context.getSharedResource(SHARED_RESOURCE_NAME);
+      if (routes == null && create) {
+        routes = new ConcurrentHashMap<String, Object>();
+        context.setSharedResource(SHARED_RESOURCE_NAME, routes);
+      }
+      return (Map<String, BiFunction<PreprocessorContext, List<String[]>, String[]>>) routes;
+    }
+  }
+
+  /**
+   * Register route to processor.
+   *
+   * @param context     the preprocessor context, must not be null
+   * @param processorId the processor text id, must not be null
+   * @param route       the route, must not be null
+   */
+  public static void register(
+      final PreprocessorContext context,
+      final String processorId,
+      final BiFunction<PreprocessorContext, List<String[]>, String[]> route) {
+    findRoutes(context, true).put(processorId.toUpperCase(Locale.ENGLISH), route);
+  }
+
+  public static void unregister(final PreprocessorContext context, final String processorId) {
+    final Map<String, ?> routes = findRoutes(context, false);
+    if (routes != null) {
+      routes.remove(processorId.toUpperCase(Locale.ENGLISH));
+    }
+  }
+
+  /**
+   * Find route to processor.
+   *
+   * @param context     the preprocessor context, must not be null
+   * @param processorId the processor text id, must not be null
+   * @return found route or null if processor is not registered
+   */
+  public static BiFunction<PreprocessorContext, List<String[]>, String[]> find(
+      final PreprocessorContext context, final String processorId) {
+    final Map<String, BiFunction<PreprocessorContext, List<String[]>, String[]>> routes =
+        findRoutes(context, false);
+    return routes == null ? null : routes.get(processorId.toUpperCase(Locale.ENGLISH));
+  }
+
+  public static List<String[]> encodeRequest(final List<ContentRecord> history,
+                                             final String prompt) {
+    final List<String[]> result = new ArrayList<>(history.size() + 1);
+    history.forEach(x -> result.add(new String[] {x.getRole().name(), x.getText()}));
+    result.add(new String[] {ContentRole.USER.name(), prompt});
+    return result;
+  }
+
+  public static List<ContentRecord> decodeHistory(final List<String[]> request) {
+    final List<ContentRecord> result = new ArrayList<>(request.size());
+    for (int i = 0; i < request.size() - 1; i++) {
+      result.add(ContentRecord.of(ContentRole.valueOf(request.get(i)[0]), request.get(i)[1]));
+    }
+    return result;
+  }
+
+  public static String decodePrompt(final List<String[]> request) {
+    return request.get(request.size() - 1)[1];
+  }
+
+  public static String[] encodeResponse(final PromptResponse response) {
+    return new String[] {response.getText(), response.getModel(),
+        Long.toString(response.getInputTokens()), Long.toString(response.getOutputTokens())};
+  }
+
+  public static PromptResponse decodeResponse(final String[] response) {
+    return PromptResponse.of(response[0], response[1], Long.parseLong(response[2]),
+        Long.parseLong(response[3]));
+  }
+}
@@ -0,0 +1,113 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.makeSourcePath;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiFailureRecord;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptFailureData;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Negative cache of prompts. Prompts failed with deterministic errors are registered in failures
+ * file of prompt cache and they are not sent again within backoff window.
+ *
+ * @since 1.1.1
+ */
+final class FailureBackoff {
+
+  private final AbstractJcpAiProcessor owner;
+
+  FailureBackoff(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Find failures of prompt cache file.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @return the failures or null if cache or backoff is not used
+   */
+  JcpAiPromptFailureData findFailureData(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair) {
+    if (cacheFilePair == null || this.owner.findFailureBackoffMs(context) == 0L) {
+      return null;
+    }
+    try {
+      return cacheFilePair.getKey().getFailureData();
+    } catch (IOException ex) {
+      throw new RuntimeException(
+          "Can't read prompt failures file: " + cacheFilePair.getKey().getFailuresPath(), ex);
+    }
+  }
+
+  JcpAiFailureRecord findRecentFailure(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey) {
+    final JcpAiPromptFailureData failureData = this.findFailureData(context, cacheFilePair);
+    return failureData == null || promptKey == null ? null : failureData.findActiveRecord(
+        promptKey, this.owner.findFailureBackoffMs(context), Instant.now());
+  }
+
+  /**
+   * Check that prompt has not failed within backoff window, the last failure is reported instead
+   * of sending the prompt again.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param promptKey     the prompt cache key, can be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @throws IllegalStateException if there is failure of prompt within backoff window
+   */
+  void assertNoRecentFailure(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey,
+      final FilePositionInfo positionInfo) {
+    final JcpAiFailureRecord failure = this.findRecentFailure(context, cacheFilePair, promptKey);
+    if (failure != null) {
+      throw new IllegalStateException(String.format(
+          "Prompt at %s is not sent because it failed %d time(s), last at %s with %s: %s;"
+              + " it will be sent again after %s or if %s is removed",
+          StringUtils.asText(positionInfo, true), failure.getCount(),
+          failure.getLastInstant(), failure.getErrorClass(), failure.getMessage(),
+          failure.getLastInstant().plusMillis(this.owner.findFailureBackoffMs(context)),
+          cacheFilePair.getKey().getFailuresPath()));
+    }
+  }
+
+  void register(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey,
+      final FilePositionInfo positionInfo,
+      final RuntimeException error) {
+    final JcpAiPromptFailureData failureData = this.findFailureData(context, cacheFilePair);
+    if (failureData != null && promptKey != null && !this.owner.isCacheOnly(context)
+        && this.owner.isDeterministicError(error)) {
+      final JcpAiFailureRecord failure = failureData.register(promptKey,
+          makeSourcePath(context, positionInfo), positionInfo.getLineNumber(), error);
+      this.owner.logWarn("registered failure " + failure.getCount() + " of prompt at "
+          + positionInfo.toShortString() + ", it will not be sent during "
+          + this.owner.findFailureBackoffMs(context) + " ms");
+    }
+  }
+
+  void remove(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey) {
+    final JcpAiPromptFailureData failureData = this.findFailureData(context, cacheFilePair);
+    if (failureData != null && failureData.remove(promptKey)) {
+      this.owner.logDebug("removed registered failure of prompt key " + promptKey);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_HEDGE_MAX_RATIO;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.HEDGE_LATENCY_WINDOW;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.HEDGE_MIN_SAMPLES;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_MAX_RATIO;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_MODEL;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_PERCENTILE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorFloatVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorStringVariable;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcpai.commons.metrics.LatencyWindow;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sender of hedged model requests. Duplicated request is sent if the first one takes longer than
+ * configured percentile of recent latencies, the first valid response wins.
+ *
+ * @since 1.1.1
+ */
+final class HedgedRequests {
+
+  private final AbstractJcpAiProcessor owner;
+  private final PromptRouting routing;
+  private final LatencyWindow latencyWindow = new LatencyWindow(HEDGE_LATENCY_WINDOW);
+  private final AtomicLong hedgeableCalls = new AtomicLong();
+  private final AtomicLong hedgeCalls = new AtomicLong();
+  private ExecutorService executor;
+
+  HedgedRequests(final AbstractJcpAiProcessor owner, final PromptRouting routing) {
+    this.owner = requireNonNull(owner);
+    this.routing = requireNonNull(routing);
+  }
+
+  void reset() {
+    this.hedgeableCalls.set(0L);
+    this.hedgeCalls.set(0L);
+  }
+
+  /**
+   * Register latency of successful model request.
+   *
+   * @param latencyMs the latency in milliseconds
+   */
+  void addLatency(final long latencyMs) {
+    this.latencyWindow.add(latencyMs);
+  }
+
+  private synchronized ExecutorService findExecutor() {
+    if (this.executor == null) {
+      final AtomicLong counter = new AtomicLong();
+      final String prefix =
+          "jcpai-" + this.owner.getProcessorTextId().toLowerCase(Locale.ENGLISH) + "-hedge-";
+      this.executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return this.executor;
+  }
+
+  synchronized void shutdown() {
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+      this.executor = null;
+    }
+  }
+
+  private boolean isValidResponse(final PreprocessorContext context,
+                                  final PromptResponse response) {
+    return !this.owner.extractCode(context, response.getText()).isBlank();
+  }
+
+  private PreprocessorContext makeHedgeContext(final PreprocessorContext context) {
+    return this.routing.makeModelContext(context,
+        findPreprocessorStringVariable(PROPERTY_JCPAI_HEDGE_MODEL, context).orElse(null));
+  }
+
+  /**
+   * Send prompt to model and send duplicated request if the first one takes longer than configured
+   * percentile of recent latencies. The first valid response wins and the other request is
+   * cancelled.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @param metric  the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse request(final PreprocessorContext context,
+                         final List<ContentRecord> history,
+                         final String prompt,
+                         final PromptMetric metric) {
+    final float percentile =
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_HEDGE_PERCENTILE, context).orElse(0.0f);
+    if (percentile <= 0.0f || this.latencyWindow.size() < HEDGE_MIN_SAMPLES) {
+      return this.owner.requestModelOnce(context, history, prompt, metric);
+    }
+    final float maxRatio = findPreprocessorFloatVariable(PROPERTY_JCPAI_HEDGE_MAX_RATIO, context)
+        .orElse(DEFAULT_HEDGE_MAX_RATIO);
+    final long thresholdMs = this.latencyWindow.percentile(percentile);
+    final long calls = this.hedgeableCalls.incrementAndGet();
+
+    final long start = System.currentTimeMillis();
+    final ExecutorCompletionService<PromptResponse> completionService =
+        new ExecutorCompletionService<>(this.findExecutor());
+    final List<Future<PromptResponse>> futures = new ArrayList<>();
+    try {
+      final PromptMetric primaryMetric = new PromptMetric(metric.getSource(), metric.getProvider());
+      primaryMetric.setCacheStatus(metric.getCacheStatus());
+      futures.add(completionService.submit(
+          () -> this.owner.requestModelOnce(context, history, prompt, primaryMetric)));
+
+      Future<PromptResponse> completed =
+          completionService.poll(thresholdMs, TimeUnit.MILLISECONDS);
+      if (completed == null && this.hedgeCalls.get() + 1L <= (long) (calls * maxRatio)) {
+        this.hedgeCalls.incrementAndGet();
+        final PreprocessorContext hedgeContext = this.makeHedgeContext(context);
+        this.owner.logInfo(String.format(
+            "request for %s takes longer than %d ms (p%s), sending hedged request",
+            metric.getSource(), thresholdMs, percentile));
+        final PromptMetric hedgeMetric = new PromptMetric(metric.getSource(), metric.getProvider());
+        hedgeMetric.setCacheStatus(metric.getCacheStatus());
+        futures.add(completionService.submit(
+            () -> this.owner.requestModelOnce(hedgeContext, history, prompt, hedgeMetric)));
+      }
+
+      RuntimeException lastError = null;
+      PromptResponse lastResponse = null;
+      for (int remaining = futures.size(); remaining > 0; remaining--) {
+        final Future<PromptResponse> future =
+            completed == null ? completionService.take() : completed;
+        completed = null;
+        try {
+          final PromptResponse response = future.get();
+          if (this.isValidResponse(context, response)) {
+            if (futures.size() > 1) {
+              this.owner.logInfo((future == futures.get(0) ? "primary" : "hedged") +
+                  " request won for " + metric.getSource());
+            }
+            metric.setResponse(response, System.currentTimeMillis() - start);
+            return response;
+          }
+          lastResponse = response;
+        } catch (ExecutionException ex) {
+          lastError = ex.getCause() instanceof RuntimeException
+              ? (RuntimeException) ex.getCause()
+              : new IllegalStateException(ex.getCause());
+        }
+      }
+      if (lastResponse != null) {
+        metric.setResponse(lastResponse, System.currentTimeMillis() - start);
+        return lastResponse;
+      }
+      throw requireNonNull(lastError);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during wait for model response", ex);
+    } finally {
+      futures.forEach(x -> x.cancel(true));
+    }
+  }
+}
@@ -2,15 +2,21 @@ package com.igormaznitsa.jcpai.commons;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Extractor of fenced code blocks from markdown text. It scans text line by line in single pass
+ * without backtracking, text can be provided either as whole char sequence or as sequence of
+ * streamed chunks.
+ */
 public class MarkdownCodeExtractor {
 
-  private static final String FENCED_CODE_REGEX = "^\\s*```[^\\r\\n]*$(.*?)^\\s*```[^\\r\\n]*$";
+  private static final String FENCE = "```";
 
-  private static final Pattern FENCED_PATTERN =
-      Pattern.compile(FENCED_CODE_REGEX, Pattern.MULTILINE | Pattern.DOTALL);
+  private final StringBuilder buffer = new StringBuilder();
+  private final List<String> codeBlocks = new ArrayList<>();
+  private int scanPosition;
+  private int contentStart = -1;
+  private boolean completed;
 
   /**
    * Extract all fenced code blocks from markdown text
@@ -18,16 +24,155 @@ public class MarkdownCodeExtractor {
    * @param markdown The markdown text
    * @return List of code block contents
    */
-  public static List<String> extractFencedCodeBlocks(String markdown) {
-    List<String> codeBlocks = new ArrayList<>();
-    Matcher matcher = FENCED_PATTERN.matcher(markdown);
+  public static List<String> extractFencedCodeBlocks(final CharSequence markdown) {
+    return extractFencedCodeBlocks(markdown, 0, markdown.length());
+  }
+
+  /**
+   * Extract all fenced code blocks from part of markdown text
+   *
+   * @param markdown The markdown text
+   * @param start    start index of the part, inclusive
+   * @param end      end index of the part, exclusive
+   * @return List of code block contents
+   * @since 1.1.1
+   */
+  public static List<String> extractFencedCodeBlocks(final CharSequence markdown, final int start,
+                                                     final int end) {
+    final MarkdownCodeExtractor extractor = new MarkdownCodeExtractor();
+    extractor.scanPosition = start;
+    extractor.scan(markdown, end, true);
+    return extractor.codeBlocks;
+  }
+
+  /**
+   * Scan lines of text since the scan position and collect found fenced code blocks.
+   *
+   * @param text text to be scanned
+   * @param end  end of text to be scanned
+   * @param last true if there will not be any text after end
+   */
+  private void scan(final CharSequence text, final int end, final boolean last) {
+    int position = this.scanPosition;
+    while (position < end) {
+      int lineEnd = position;
+      while (lineEnd < end && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+        lineEnd++;
+      }
+
+      final int nextLine;
+      if (lineEnd == end) {
+        if (!last) {
+          break;
+        }
+        nextLine = end;
+      } else if (text.charAt(lineEnd) == '\r') {
+        if (lineEnd + 1 == end && !last) {
+          break;
+        }
+        nextLine =
+            lineEnd + 1 < end && text.charAt(lineEnd + 1) == '\n' ? lineEnd + 2 : lineEnd + 1;
+      } else {
+        nextLine = lineEnd + 1;
+      }
+
+      if (isFenceLine(text, position, lineEnd)) {
+        if (this.contentStart < 0) {
+          this.contentStart = nextLine;
+        } else {
+          this.codeBlocks.add(trim(text, this.contentStart, position));
+          this.contentStart = -1;
+        }
+      }
+      position = nextLine;
+    }
+    this.scanPosition = position;
+  }
+
+  private static boolean isFenceLine(final CharSequence text, final int start, final int end) {
+    int i = start;
+    while (i < end && isSpace(text.charAt(i))) {
+      i++;
+    }
+    if (end - i < FENCE.length()) {
+      return false;
+    }
+    for (int j = 0; j < FENCE.length(); j++) {
+      if (text.charAt(i + j) != FENCE.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSpace(final char chr) {
+    return chr == ' ' || chr == '\t' || chr == '\f' || chr == '\u000B';
+  }
+
+  private static String trim(final CharSequence text, int start, int end) {
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return text.subSequence(start, end).toString();
+  }
+
+  /**
+   * Append next chunk of streamed markdown text. Code blocks are extracted as soon as their
+   * closing fence line is completed.
+   *
+   * @param chunk the chunk of text, must not be null
+   * @return the extractor instance
+   * @throws IllegalStateException if the extractor is already completed
+   * @since 1.1.1
+   */
+  public MarkdownCodeExtractor append(final CharSequence chunk) {
+    if (this.completed) {
+      throw new IllegalStateException("Extractor already completed");
+    }
+    this.buffer.append(chunk);
+    this.scanBuffer(false);
+    return this;
+  }
 
-    while (matcher.find()) {
-      String code = matcher.group(1).trim();
-      codeBlocks.add(code);
+  /**
+   * Complete streamed text processing.
+   *
+   * @return list of all found code block contents
+   * @since 1.1.1
+   */
+  public List<String> complete() {
+    if (!this.completed) {
+      this.completed = true;
+      this.scanBuffer(true);
+      this.buffer.setLength(0);
     }
+    return List.copyOf(this.codeBlocks);
+  }
 
-    return codeBlocks;
+  /**
+   * Get code blocks already found in streamed text.
+   *
+   * @return list of found code block contents
+   * @since 1.1.1
+   */
+  public List<String> getCodeBlocks() {
+    return List.copyOf(this.codeBlocks);
+  }
+
+  private void scanBuffer(final boolean last) {
+    this.scan(this.buffer, this.buffer.length(), last);
+
+    final int consumed = this.contentStart < 0 ? this.scanPosition : this.contentStart;
+    if (consumed > 0) {
+      this.buffer.delete(0, consumed);
+      this.scanPosition -= consumed;
+      if (this.contentStart >= 0) {
+        this.contentStart = 0;
+      }
+    }
   }
 
-}
\ No newline at end of file
+}
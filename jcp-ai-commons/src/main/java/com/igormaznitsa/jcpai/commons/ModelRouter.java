@@ -0,0 +1,94 @@
+package com.igormaznitsa.jcpai.commons;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Router selects model for prompt by file glob or by estimated number of prompt tokens, so that
+ * small prompts can be sent to fast model and big ones to strong model.
+ *
+ * @since 1.1.1
+ */
+public final class ModelRouter {
+
+  private final List<Map.Entry<PathMatcher, String>> fileRules;
+  private final String smallModel;
+  private final long smallMaxTokens;
+  private final String largeModel;
+  private final long largeMinTokens;
+
+  /**
+   * Constructor.
+   *
+   * @param fileRules      file rules in format {@code glob=model;glob=model}, can be null
+   * @param smallModel     model for small prompts, can be null
+   * @param smallMaxTokens max estimated number of tokens of small prompt
+   * @param largeModel     model for large prompts, can be null
+   * @param largeMinTokens min estimated number of tokens of large prompt
+   * @throws IllegalArgumentException if file rules have wrong format
+   */
+  public ModelRouter(final String fileRules, final String smallModel, final long smallMaxTokens,
+                     final String largeModel, final long largeMinTokens) {
+    this.fileRules = parseFileRules(fileRules);
+    this.smallModel = smallModel;
+    this.smallMaxTokens = smallMaxTokens;
+    this.largeModel = largeModel;
+    this.largeMinTokens = largeMinTokens;
+  }
+
+  private static List<Map.Entry<PathMatcher, String>> parseFileRules(final String rules) {
+    final List<Map.Entry<PathMatcher, String>> result = new ArrayList<>();
+    if (rules != null) {
+      for (final String rule : rules.split(";")) {
+        if (rule.isBlank()) {
+          continue;
+        }
+        final int separator = rule.lastIndexOf('=');
+        if (separator <= 0 || separator == rule.length() - 1) {
+          throw new IllegalArgumentException("Expected glob=model but found: " + rule.trim());
+        }
+        result.add(Map.entry(
+            FileSystems.getDefault().getPathMatcher("glob:" + rule.substring(0, separator).trim()),
+            rule.substring(separator + 1).trim()));
+      }
+    }
+    return List.copyOf(result);
+  }
+
+  public boolean isEmpty() {
+    return this.fileRules.isEmpty() && this.smallModel == null && this.largeModel == null;
+  }
+
+  /**
+   * Find model for prompt.
+   *
+   * @param file   source file of prompt, can be null
+   * @param prompt the prompt, must not be null
+   * @return routed model or null if there is no rule for the prompt
+   */
+  public String route(final Path file, final String prompt) {
+    if (file != null) {
+      final Path fileName = file.getFileName();
+      for (final Map.Entry<PathMatcher, String> rule : this.fileRules) {
+        if (rule.getKey().matches(file) || (fileName != null && rule.getKey().matches(fileName))) {
+          return rule.getValue();
+        }
+      }
+    }
+    if (this.smallModel == null && this.largeModel == null) {
+      return null;
+    }
+    final long tokens = TokenEstimator.estimateTokens(prompt);
+    if (this.smallModel != null && tokens <= this.smallMaxTokens) {
+      return this.smallModel;
+    }
+    if (this.largeModel != null && tokens >= this.largeMinTokens) {
+      return this.largeModel;
+    }
+    return null;
+  }
+}
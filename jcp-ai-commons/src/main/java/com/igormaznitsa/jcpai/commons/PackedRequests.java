@@ -0,0 +1,137 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_PACK_MAX_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_PACK_MAX_PROMPTS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_PACK_MAX_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorLongVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorVar;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.expression.Value;
+import com.igormaznitsa.jcpai.commons.metrics.PromptCacheStatus;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Sender of small prompts as packed requests, prompts are packed by {@link PromptPacker} and
+ * answers of failed or incomplete packs, as well as answers without code, are left to be requested
+ * separately.
+ *
+ * @since 1.1.1
+ */
+final class PackedRequests {
+
+  private final AbstractJcpAiProcessor owner;
+
+  PackedRequests(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  private static long shareTokens(final long tokens, final int parts) {
+    return tokens < 0L ? PromptResponse.UNKNOWN_TOKENS : tokens / parts;
+  }
+
+  /**
+   * Send small prompts as packed requests if packing is enabled. Prompts are grouped by model,
+   * every group is split into packs of allowed size.
+   *
+   * @param context        the preprocessor context, must not be null
+   * @param blocks         the detected text blocks, must not be null
+   * @param promptContexts contexts of prompt blocks, must not be null
+   * @param modelRequired  checks by block index that prompt must be sent to model, must not be null
+   * @return responses with latency by block index, prompts without valid answer are not included
+   */
+  Map<Integer, Map.Entry<PromptResponse, Long>> request(
+      final PreprocessorContext context,
+      final List<AbstractJcpAiProcessor.TextBlock> blocks,
+      final PreprocessorContext[] promptContexts,
+      final IntPredicate modelRequired) {
+    final int maxPrompts =
+        findPreprocessorLongVariable(PROPERTY_JCPAI_PACK_MAX_PROMPTS, context).orElse(0L)
+            .intValue();
+    if (maxPrompts < 2 || this.owner.isStructuredOutput(context)
+        || this.owner.isCacheOnly(context)) {
+      return Map.of();
+    }
+    final long maxTokens = findPreprocessorLongVariable(PROPERTY_JCPAI_PACK_MAX_TOKENS, context)
+        .orElse(DEFAULT_PACK_MAX_TOKENS);
+    final String modelProperty = this.owner.getModelPropertyName();
+
+    final Map<String, List<Integer>> groups = new LinkedHashMap<>();
+    for (int i = 0; i < blocks.size(); i++) {
+      if (!(blocks.get(i) instanceof AbstractJcpAiProcessor.JcpAiPrompt)
+          || TokenEstimator.estimateTokens(
+          ((AbstractJcpAiProcessor.JcpAiPrompt) blocks.get(i)).prompt) > maxTokens
+          || !modelRequired.test(i)) {
+        continue;
+      }
+      final String model = modelProperty == null ? "" :
+          findPreprocessorVar(modelProperty, promptContexts[i]).map(Value::asString).orElse("");
+      groups.computeIfAbsent(model, x -> new ArrayList<>()).add(i);
+    }
+
+    final Map<Integer, Map.Entry<PromptResponse, Long>> result = new HashMap<>();
+    for (final List<Integer> group : groups.values()) {
+      for (int from = 0; from < group.size(); from += maxPrompts) {
+        final List<Integer> pack = group.subList(from, Math.min(group.size(), from + maxPrompts));
+        if (pack.size() > 1) {
+          this.requestPack(promptContexts[pack.get(0)], blocks, pack, result);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void requestPack(final PreprocessorContext context,
+                           final List<AbstractJcpAiProcessor.TextBlock> blocks,
+                           final List<Integer> pack,
+                           final Map<Integer, Map.Entry<PromptResponse, Long>> result) {
+    final List<String> prompts = pack.stream()
+        .map(x -> ((AbstractJcpAiProcessor.JcpAiPrompt) blocks.get(x)).prompt)
+        .toList();
+    final PromptMetric packMetric = new PromptMetric(
+        "pack of " + pack.size() + " prompts from "
+            + StringUtils.asText(blocks.get(pack.get(0)).positionInfo, true),
+        this.owner.getProcessorTextId());
+    packMetric.setCacheStatus(PromptCacheStatus.MISS);
+    this.owner.logInfo("sending " + pack.size() + " prompts in one packed request");
+
+    final PromptResponse response;
+    try {
+      response = this.owner.requestModel(context, List.of(),
+          PromptPacker.makePackedPrompt(prompts), packMetric);
+    } catch (BudgetExceededException ex) {
+      throw ex;
+    } catch (RuntimeException ex) {
+      this.owner.logWarn(
+          "packed request failed, prompts will be sent separately: " + ex.getMessage());
+      return;
+    }
+
+    final String[] answers = PromptPacker.parseAnswers(response.getText(), pack.size());
+    int missing = 0;
+    for (int i = 0; i < answers.length; i++) {
+      if (answers[i] == null || this.owner.extractCode(context, answers[i]).isBlank()) {
+        missing++;
+        continue;
+      }
+      PromptResponse answer = PromptResponse.of(answers[i], response.getModel(),
+          shareTokens(response.getInputTokens(), pack.size()),
+          shareTokens(response.getOutputTokens(), pack.size()));
+      if (response.getFailoverProcessor() != null) {
+        answer = answer.withFailoverProcessor(response.getFailoverProcessor());
+      }
+      result.put(pack.get(i), Map.entry(answer, packMetric.getLatencyMs()));
+    }
+    if (missing > 0) {
+      this.owner.logWarn("packed response has no valid answer for " + missing
+          + " prompt(s), they will be sent separately");
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.igormaznitsa.jcpai.commons;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Minifier of prompt text. It collapses whitespaces, removes blank lines and repeated instruction
+ * lines, so that cosmetic changes of prompt don't change its minified form. Lines inside fenced
+ * code blocks (started and ended by lines beginning with three backticks or tildes) are kept
+ * untouched.
+ *
+ * @since 1.1.1
+ */
+public final class PromptMinifier {
+
+  /**
+   * Min number of words in line to be considered as instruction which can be deduplicated, short
+   * lines like closing brackets of code samples are kept.
+   */
+  public static final int MIN_INSTRUCTION_WORDS = 3;
+
+  private PromptMinifier() {
+
+  }
+
+  /**
+   * Minify prompt.
+   *
+   * @param prompt the prompt, must not be null
+   * @return minified prompt, must not be null
+   */
+  public static String minify(final String prompt) {
+    final StringBuilder result = new StringBuilder(prompt.length());
+    final Set<String> instructions = new HashSet<>();
+    final StringBuilder line = new StringBuilder();
+    boolean fenced = false;
+    int position = 0;
+    while (position < prompt.length()) {
+      final int lineEnd = StringUtils.findLineEnd(prompt, position);
+      collapseWhitespaces(prompt, position, lineEnd, line);
+      final boolean fence = isFence(line);
+      if (fenced && !fence) {
+        appendLine(result, prompt.subSequence(position, lineEnd));
+      } else if (line.length() > 0) {
+        final String text = line.toString();
+        if (fence || countWords(text) < MIN_INSTRUCTION_WORDS || instructions.add(text)) {
+          appendLine(result, text);
+        }
+      }
+      if (fence) {
+        fenced = !fenced;
+      }
+      position = StringUtils.findNextLineStart(prompt, lineEnd);
+    }
+    return result.toString();
+  }
+
+  private static boolean isFence(final CharSequence line) {
+    return line.length() >= 3
+        && (line.charAt(0) == '`' || line.charAt(0) == '~')
+        && line.charAt(1) == line.charAt(0)
+        && line.charAt(2) == line.charAt(0);
+  }
+
+  private static void appendLine(final StringBuilder buffer, final CharSequence line) {
+    if (buffer.length() > 0) {
+      buffer.append('\n');
+    }
+    buffer.append(line);
+  }
+
+  private static void collapseWhitespaces(final CharSequence text, final int start, final int end,
+                                          final StringBuilder buffer) {
+    buffer.setLength(0);
+    boolean space = false;
+    for (int i = start; i < end; i++) {
+      final char chr = text.charAt(i);
+      if (Character.isWhitespace(chr)) {
+        space = buffer.length() > 0;
+      } else {
+        if (space) {
+          buffer.append(' ');
+          space = false;
+        }
+        buffer.append(chr);
+      }
+    }
+  }
+
+  private static int countWords(final String text) {
+    int words = 0;
+    boolean inWord = false;
+    for (int i = 0; i < text.length(); i++) {
+      final boolean letter = Character.isLetter(text.charAt(i));
+      if (letter && !inWord) {
+        words++;
+      }
+      inWord = letter;
+    }
+    return words;
+  }
+}
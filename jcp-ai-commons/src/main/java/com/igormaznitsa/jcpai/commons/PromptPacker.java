@@ -0,0 +1,86 @@
+package com.igormaznitsa.jcpai.commons;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.util.List;
+
+/**
+ * Packer of several independent prompts into single prompt with JSON response contract.
+ *
+ * @since 1.1.1
+ */
+public final class PromptPacker {
+
+  private static final String PACK_INSTRUCTION =
+      "You get several independent requests. Process every request separately and return only JSON"
+          + " object without any other text in format {\"answers\":[{\"id\":1,\"answer\":\"...\"}]}"
+          + ", where id is number of request and answer is whole response for the request as"
+          + " JSON string.";
+
+  private PromptPacker() {
+
+  }
+
+  /**
+   * Make single prompt for several prompts.
+   *
+   * @param prompts the prompts, must not be null
+   * @return the packed prompt, must not be null
+   */
+  public static String makePackedPrompt(final List<String> prompts) {
+    final StringBuilder result = new StringBuilder(PACK_INSTRUCTION);
+    for (int i = 0; i < prompts.size(); i++) {
+      result.append("\n\n### REQUEST ").append(i + 1).append('\n').append(prompts.get(i));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Parse answers of packed response.
+   *
+   * @param response the response text, must not be null
+   * @param count    number of packed prompts
+   * @return array of answers in order of prompts, missing or invalid answers are null
+   */
+  public static String[] parseAnswers(final String response, final int count) {
+    final String[] result = new String[count];
+    final String json = StructuredOutput.findJsonObject(response);
+    if (json == null) {
+      return result;
+    }
+    try {
+      final JsonElement root = JsonParser.parseString(json);
+      if (!root.isJsonObject() || !root.getAsJsonObject().has("answers")
+          || !root.getAsJsonObject().get("answers").isJsonArray()) {
+        return result;
+      }
+      final JsonArray answers = root.getAsJsonObject().getAsJsonArray("answers");
+      for (final JsonElement element : answers) {
+        if (!element.isJsonObject()) {
+          continue;
+        }
+        final JsonObject answer = element.getAsJsonObject();
+        final JsonElement id = answer.get("id");
+        final JsonElement text = answer.get("answer");
+        if (id == null || text == null || !id.isJsonPrimitive() || !text.isJsonPrimitive()) {
+          continue;
+        }
+        final int index;
+        try {
+          index = id.getAsInt() - 1;
+        } catch (NumberFormatException ex) {
+          continue;
+        }
+        if (index >= 0 && index < count && !text.getAsString().isBlank()) {
+          result[index] = text.getAsString();
+        }
+      }
+    } catch (JsonParseException | IllegalStateException ex) {
+      // invalid structure, prompts will be requested separately
+    }
+    return result;
+  }
+}
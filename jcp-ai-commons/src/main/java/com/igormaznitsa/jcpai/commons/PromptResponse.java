@@ -0,0 +1,87 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Raw response of model for a prompt together with usage data reported by provider.
+ *
+ * @since 1.1.1
+ */
+public final class PromptResponse {
+  public static final long UNKNOWN_TOKENS = -1L;
+
+  private final String text;
+  private final String model;
+  private final long inputTokens;
+  private final long outputTokens;
+  private final String failoverProcessor;
+
+  private PromptResponse(final String text, final String model, final long inputTokens,
+                         final long outputTokens, final String failoverProcessor) {
+    this.text = requireNonNull(text);
+    this.model = model;
+    this.inputTokens = inputTokens;
+    this.outputTokens = outputTokens;
+    this.failoverProcessor = failoverProcessor;
+  }
+
+  public static PromptResponse of(final String text, final String model, final long inputTokens,
+                                  final long outputTokens) {
+    return new PromptResponse(text, model, inputTokens, outputTokens, null);
+  }
+
+  public static PromptResponse of(final String text, final String model) {
+    return new PromptResponse(text, model, UNKNOWN_TOKENS, UNKNOWN_TOKENS, null);
+  }
+
+  /**
+   * Make copy of the response marked as made by failover processor.
+   *
+   * @param processorId id of processor which made the response, must not be null
+   * @return the marked response, must not be null
+   */
+  public PromptResponse withFailoverProcessor(final String processorId) {
+    return new PromptResponse(this.text, this.model, this.inputTokens, this.outputTokens,
+        requireNonNull(processorId));
+  }
+
+  public String getText() {
+    return this.text;
+  }
+
+  /**
+   * Get name of model which made the response.
+   *
+   * @return model name, can be null if unknown
+   */
+  public String getModel() {
+    return this.model;
+  }
+
+  /**
+   * Get number of input tokens reported by provider.
+   *
+   * @return number of tokens or {@link #UNKNOWN_TOKENS} if not provided
+   */
+  public long getInputTokens() {
+    return this.inputTokens;
+  }
+
+  /**
+   * Get number of output tokens reported by provider.
+   *
+   * @return number of tokens or {@link #UNKNOWN_TOKENS} if not provided
+   */
+  public long getOutputTokens() {
+    return this.outputTokens;
+  }
+
+  /**
+   * Get id of failover processor which made the response.
+   *
+   * @return the processor id or null if the response is made by the requested processor
+   */
+  public String getFailoverProcessor() {
+    return this.failoverProcessor;
+  }
+}
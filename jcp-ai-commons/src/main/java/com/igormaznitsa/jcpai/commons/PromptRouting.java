@@ -0,0 +1,104 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_ROUTE_LARGE_MIN_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_ROUTE_SMALL_MAX_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_FILES;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_HINT;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_LARGE_MIN_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_LARGE_MODEL;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_SMALL_MAX_TOKENS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_ROUTE_SMALL_MODEL;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorLongVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorStringVariable;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import com.igormaznitsa.jcp.expression.Value;
+
+/**
+ * Selection of model for prompt by route hint, file glob or prompt size. Selected model is placed
+ * into model property of copy of preprocessor context.
+ *
+ * @since 1.1.1
+ */
+final class PromptRouting {
+
+  private final AbstractJcpAiProcessor owner;
+
+  PromptRouting(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Find model for prompt by route hint, file glob or prompt size.
+   *
+   * @param context      the preprocessor context, must not be null
+   * @param positionInfo the position of prompt, must not be null
+   * @param prompt       the prompt, must not be null
+   * @return the routed model or null if there is no route
+   * @throws IllegalArgumentException if there is no model for route hint
+   */
+  private static String findRoutedModel(final PreprocessorContext context,
+                                        final FilePositionInfo positionInfo,
+                                        final String prompt) {
+    final String hint =
+        findPreprocessorStringVariable(PROPERTY_JCPAI_ROUTE_HINT, context).orElse(null);
+    if (hint != null && !hint.isBlank()) {
+      final String hintProperty = PROPERTY_JCPAI_ROUTE_HINT + '.' + hint.trim();
+      return findPreprocessorStringVariable(hintProperty, context)
+          .orElseThrow(() -> new IllegalArgumentException(
+              "Can't find model for route hint " + hint.trim() + ", expected " + hintProperty));
+    }
+    final ModelRouter router = new ModelRouter(
+        findPreprocessorStringVariable(PROPERTY_JCPAI_ROUTE_FILES, context).orElse(null),
+        findPreprocessorStringVariable(PROPERTY_JCPAI_ROUTE_SMALL_MODEL, context).orElse(null),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_ROUTE_SMALL_MAX_TOKENS, context)
+            .orElse(DEFAULT_ROUTE_SMALL_MAX_TOKENS),
+        findPreprocessorStringVariable(PROPERTY_JCPAI_ROUTE_LARGE_MODEL, context).orElse(null),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_ROUTE_LARGE_MIN_TOKENS, context)
+            .orElse(DEFAULT_ROUTE_LARGE_MIN_TOKENS));
+    return router.isEmpty() ? null : router.route(
+        positionInfo.getFile() == null ? null : positionInfo.getFile().toPath(), prompt);
+  }
+
+  /**
+   * Make copy of context where model property has the model.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param model   the model, can be null
+   * @return the copy of context or the same context if model is null or can't be changed
+   */
+  PreprocessorContext makeModelContext(final PreprocessorContext context, final String model) {
+    final String modelProperty = this.owner.getModelPropertyName();
+    if (model == null || modelProperty == null) {
+      return context;
+    }
+    final PreprocessorContext result = new PreprocessorContext(context);
+    result.setGlobalVariable(modelProperty, Value.valueOf(model));
+    return result;
+  }
+
+  /**
+   * Make context for prompt where model property contains routed model. Model is a part of cache
+   * key provided by {@link AbstractJcpAiProcessor#getExtraPromptKeyValues(PreprocessorContext)}
+   * so that responses of different models are cached separately.
+   *
+   * @param context      the preprocessor context, must not be null
+   * @param positionInfo the position of prompt, must not be null
+   * @param prompt       the prompt, must not be null
+   * @return context with routed model or the same context if there is no route
+   */
+  PreprocessorContext makeRoutedContext(final PreprocessorContext context,
+                                        final FilePositionInfo positionInfo,
+                                        final String prompt) {
+    if (this.owner.getModelPropertyName() == null) {
+      return context;
+    }
+    final String model = findRoutedModel(context, positionInfo, prompt);
+    if (model != null) {
+      this.owner.logDebug("routed model " + model + " for " + positionInfo.toShortString());
+    }
+    return this.makeModelContext(context, model);
+  }
+}
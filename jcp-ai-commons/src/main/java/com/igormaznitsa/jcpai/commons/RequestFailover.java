@@ -0,0 +1,270 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_FAILOVER_ERROR_RATE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_FAILOVER_MIN_CALLS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_FAILOVER_OPEN_MS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_FAILOVER_SLOW_RATE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_FAILOVER_WINDOW;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.FAILOVER_PROCESSOR_KEY;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_ERROR_RATE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_MIN_CALLS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_OPEN_MS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_PROCESSORS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_SLOW_MS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_SLOW_RATE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_WINDOW;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorFloatVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorLongVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorStringVariable;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.utils.PreprocessorUtils;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiCacheRecord;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import com.igormaznitsa.jcpai.commons.metrics.PromptCacheStatus;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Failover of model requests to the next healthy processor from failover list. Health of the
+ * processor is tracked by {@link CircuitBreaker}, responses made by failover processors are cached
+ * with separate keys.
+ *
+ * @since 1.1.1
+ */
+final class RequestFailover {
+
+  private final AbstractJcpAiProcessor owner;
+  private final RetriedRequests retry;
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+  RequestFailover(final AbstractJcpAiProcessor owner, final RetriedRequests retry) {
+    this.owner = requireNonNull(owner);
+    this.retry = requireNonNull(retry);
+  }
+
+  private static List<String> findFailoverProcessors(final PreprocessorContext context) {
+    return findPreprocessorStringVariable(PROPERTY_JCPAI_FAILOVER_PROCESSORS, context)
+        .map(x -> Arrays.stream(x.split(","))
+            .map(String::trim)
+            .filter(y -> !y.isEmpty())
+            .toList())
+        .orElse(List.of());
+  }
+
+  private static Map<String, Object> withFailoverProcessor(final Map<String, Object> extraValues,
+                                                           final String processorId) {
+    final Map<String, Object> result = new HashMap<>(extraValues);
+    result.put(FAILOVER_PROCESSOR_KEY, processorId.toUpperCase(Locale.ENGLISH));
+    return result;
+  }
+
+  /**
+   * Make cache key for response, responses of failover processors get separate key.
+   *
+   * @param key         the cache key of prompt, must not be null
+   * @param response    the response, must not be null
+   * @param keyMaker    function makes cache key for extra values, must not be null
+   * @param extraValues extra values of cache key, must not be null
+   * @return the key to store the response
+   */
+  static String makeResponseCacheKey(final String key, final PromptResponse response,
+                                     final Function<Map<String, Object>, String> keyMaker,
+                                     final Map<String, Object> extraValues) {
+    return response.getFailoverProcessor() == null ? key
+        : keyMaker.apply(withFailoverProcessor(extraValues, response.getFailoverProcessor()));
+  }
+
+  /**
+   * Configure circuit breaker and register the processor as failover route for preprocessing
+   * session.
+   *
+   * @param context the preprocessor context, must not be null
+   */
+  void init(final PreprocessorContext context) {
+    this.circuitBreaker.configure(
+        findPreprocessorLongVariable(PROPERTY_JCPAI_FAILOVER_WINDOW, context)
+            .orElse(DEFAULT_FAILOVER_WINDOW).intValue(),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_FAILOVER_MIN_CALLS, context)
+            .orElse(DEFAULT_FAILOVER_MIN_CALLS).intValue(),
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_FAILOVER_ERROR_RATE, context)
+            .orElse(DEFAULT_FAILOVER_ERROR_RATE),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_FAILOVER_SLOW_MS, context).orElse(0L),
+        findPreprocessorFloatVariable(PROPERTY_JCPAI_FAILOVER_SLOW_RATE, context)
+            .orElse(DEFAULT_FAILOVER_SLOW_RATE),
+        findPreprocessorLongVariable(PROPERTY_JCPAI_FAILOVER_OPEN_MS, context)
+            .orElse(DEFAULT_FAILOVER_OPEN_MS));
+    FailoverRoutes.register(context, this.owner.getProcessorTextId(), this::serve);
+  }
+
+  void dispose(final PreprocessorContext context) {
+    FailoverRoutes.unregister(context, this.owner.getProcessorTextId());
+  }
+
+  /**
+   * Register outcome of model call in circuit breaker.
+   *
+   * @param latencyMs the call latency in milliseconds
+   * @param failed    true if the call failed with retryable error
+   */
+  void onCall(final long latencyMs, final boolean failed) {
+    final CircuitBreaker.State state = this.circuitBreaker.onCall(latencyMs, failed);
+    if (state != null) {
+      this.owner.logWarn("circuit breaker state changed to " + state);
+    }
+  }
+
+  /**
+   * Find the first processor in failover list which is registered in context.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return the primary processor id or null if failover list is not defined
+   */
+  String findPrimary(final PreprocessorContext context) {
+    final List<String> processors = findFailoverProcessors(context);
+    if (processors.isEmpty()) {
+      return null;
+    }
+    return processors.stream()
+        .filter(x -> FailoverRoutes.find(context, x) != null)
+        .findFirst()
+        .orElse(processors.get(0));
+  }
+
+  /**
+   * Get processors which follow this processor in failover list.
+   *
+   * @param context the preprocessor context, must not be null
+   * @return list of failover processor ids, empty if failover is not defined
+   */
+  private List<String> findTargets(final PreprocessorContext context) {
+    final List<String> processors = findFailoverProcessors(context);
+    for (int i = 0; i < processors.size(); i++) {
+      if (processors.get(i).equalsIgnoreCase(this.owner.getProcessorTextId())) {
+        return processors.subList(i + 1, processors.size());
+      }
+    }
+    return List.of();
+  }
+
+  /**
+   * Find cached response made by failover processor if circuit breaker of this processor is open.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, must not be null
+   * @param keyMaker      function makes cache key for extra values, must not be null
+   * @param extraValues   extra values of cache key, must not be null
+   * @return found record or null
+   */
+  JcpAiCacheRecord findCachedRecord(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final Function<Map<String, Object>, String> keyMaker,
+      final Map<String, Object> extraValues) {
+    if (this.circuitBreaker.getState() != CircuitBreaker.State.OPEN) {
+      return null;
+    }
+    for (final String target : this.findTargets(context)) {
+      final String key = keyMaker.apply(withFailoverProcessor(extraValues, target));
+      final JcpAiCacheRecord record = cacheFilePair.getKey().getCache().findRecord(key);
+      if (record != null) {
+        cacheFilePair.getValue().add(key);
+        return record;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Send prompt to model and send it to the next healthy processor from failover list if circuit
+   * breaker of this processor is open or request fails.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @param metric  the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse request(final PreprocessorContext context,
+                         final List<ContentRecord> history,
+                         final String prompt,
+                         final PromptMetric metric) {
+    final List<String> targets = this.findTargets(context);
+    if (targets.isEmpty()) {
+      return this.retry.request(context, history, prompt, metric);
+    }
+    RuntimeException error = null;
+    if (this.circuitBreaker.isCallPermitted()) {
+      try {
+        return this.retry.request(context, history, prompt, metric);
+      } catch (BudgetExceededException ex) {
+        throw ex;
+      } catch (RuntimeException ex) {
+        error = ex;
+        this.owner.logWarn("request failed for " + metric.getSource() + ", trying failover: " +
+            ex.getMessage());
+      }
+    } else {
+      this.owner.logWarn("circuit breaker is open, request for " + metric.getSource() +
+          " sent to failover processor");
+    }
+    for (final String target : targets) {
+      final BiFunction<PreprocessorContext, List<String[]>, String[]> route =
+          FailoverRoutes.find(context, target);
+      if (route == null) {
+        this.owner.logDebug("failover processor " + target + " is not registered");
+        continue;
+      }
+      final long start = System.currentTimeMillis();
+      try {
+        final PromptResponse response = FailoverRoutes.decodeResponse(
+                route.apply(context, FailoverRoutes.encodeRequest(history, prompt)))
+            .withFailoverProcessor(target);
+        metric.setResponse(response, System.currentTimeMillis() - start);
+        this.owner.logInfo(
+            "response for " + metric.getSource() + " made by failover processor " + target);
+        return response;
+      } catch (RuntimeException ex) {
+        this.owner.logWarn("failover processor " + target + " failed for " + metric.getSource()
+            + ": " + ex.getMessage());
+        if (error == null) {
+          error = ex;
+        } else {
+          error.addSuppressed(ex);
+        }
+      }
+    }
+    throw error == null ? new IllegalStateException(
+        "Can't find any healthy processor for " + metric.getSource()) : error;
+  }
+
+  /**
+   * Serve failover request of another processor.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param request encoded request, must not be null
+   * @return encoded response, must not be null
+   */
+  private String[] serve(final PreprocessorContext context, final List<String[]> request) {
+    this.owner.assertStarted();
+    if (!this.circuitBreaker.isCallPermitted()) {
+      throw new IllegalStateException(this.owner.getProcessorTextId() + " circuit breaker is open");
+    }
+    final PromptMetric metric = new PromptMetric(
+        StringUtils.asText(PreprocessorUtils.extractFilePositionInfo(context), true),
+        this.owner.getProcessorTextId());
+    metric.setCacheStatus(PromptCacheStatus.MISS);
+    final PromptResponse response = this.retry.request(context,
+        FailoverRoutes.decodeHistory(request), FailoverRoutes.decodePrompt(request), metric);
+    this.owner.getMetrics().add(metric);
+    return FailoverRoutes.encodeResponse(response);
+  }
+}
@@ -0,0 +1,170 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_CONCURRENCY_INITIAL;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_CONCURRENCY_MAX;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_CONCURRENCY_ADAPTIVE;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_CONCURRENCY_INITIAL;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_CONCURRENCY_MAX;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_RATE_RPM;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_RATE_TPM;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorBooleanVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorLongVariable;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits of model requests: token bucket rate limit per provider endpoint and adaptive limit of
+ * concurrent requests.
+ *
+ * @since 1.1.1
+ */
+final class RequestLimits {
+
+  private final AbstractJcpAiProcessor owner;
+  private final Map<String, TokenBucketRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+  private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  RequestLimits(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Configure concurrency limit for preprocessing session, the limit reached in previous session
+   * is kept if adaptive limit is still enabled.
+   *
+   * @param context the preprocessor context, must not be null
+   */
+  void init(final PreprocessorContext context) {
+    if (findPreprocessorBooleanVariable(PROPERTY_JCPAI_CONCURRENCY_ADAPTIVE, context)
+        .orElse(false)) {
+      final int initial =
+          findPreprocessorLongVariable(PROPERTY_JCPAI_CONCURRENCY_INITIAL, context)
+              .orElse(DEFAULT_CONCURRENCY_INITIAL).intValue();
+      final int max = findPreprocessorLongVariable(PROPERTY_JCPAI_CONCURRENCY_MAX, context)
+          .orElse(DEFAULT_CONCURRENCY_MAX).intValue();
+      if (this.concurrencyLimiter == null) {
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(initial, max);
+      } else {
+        this.concurrencyLimiter.configure(initial, max);
+      }
+      this.owner.getStats().onConcurrencyLimit(this.concurrencyLimiter.getLimit());
+      this.owner.logInfo("adaptive concurrency limit is " + this.concurrencyLimiter.getLimit()
+          + ", max " + max);
+    } else {
+      this.concurrencyLimiter = null;
+      this.owner.getStats().onConcurrencyLimit(0);
+    }
+  }
+
+  private TokenBucketRateLimiter findRateLimiter(final PreprocessorContext context) {
+    final long rpm = findPreprocessorLongVariable(PROPERTY_JCPAI_RATE_RPM, context).orElse(0L);
+    final long tpm = findPreprocessorLongVariable(PROPERTY_JCPAI_RATE_TPM, context).orElse(0L);
+    if (rpm <= 0L && tpm <= 0L) {
+      return null;
+    }
+    final String key = this.owner.getProcessorTextId() + '@'
+        + this.owner.findProviderBaseUrl(context).orElse("default");
+    final TokenBucketRateLimiter result =
+        this.rateLimiters.computeIfAbsent(key, x -> new TokenBucketRateLimiter(rpm, tpm));
+    result.configure(rpm, tpm);
+    return result;
+  }
+
+  /**
+   * Wait for free slot of concurrency limit and for rate limit.
+   *
+   * @param context         the preprocessor context, must not be null
+   * @param estimatedTokens estimated number of request tokens
+   * @param metric          the metric of request, must not be null
+   * @return permit to be released after request, must not be null
+   */
+  Permit acquire(final PreprocessorContext context, final long estimatedTokens,
+                 final PromptMetric metric) {
+    final TokenBucketRateLimiter rateLimiter = this.findRateLimiter(context);
+    final AdaptiveConcurrencyLimiter limiter = this.concurrencyLimiter;
+    if (limiter != null) {
+      try {
+        limiter.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted during wait for concurrency limit", ex);
+      }
+    }
+    final Permit permit = new Permit(limiter, rateLimiter, estimatedTokens);
+    if (rateLimiter != null) {
+      try {
+        permit.rateWaitMs = rateLimiter.acquire(estimatedTokens);
+        if (permit.rateWaitMs > 0L) {
+          this.owner.logInfo("rate limit delayed request for " + metric.getSource() + " by "
+              + permit.rateWaitMs + " ms");
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        permit.releaseConcurrency(-1L, null);
+        throw new IllegalStateException("Interrupted during wait for rate limit", ex);
+      } catch (RuntimeException ex) {
+        permit.releaseConcurrency(-1L, null);
+        throw ex;
+      }
+    }
+    return permit;
+  }
+
+  /**
+   * Acquired permit of model request.
+   */
+  final class Permit {
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final long estimatedTokens;
+    private long rateWaitMs;
+
+    private Permit(final AdaptiveConcurrencyLimiter limiter,
+                   final TokenBucketRateLimiter rateLimiter,
+                   final long estimatedTokens) {
+      this.limiter = limiter;
+      this.rateLimiter = rateLimiter;
+      this.estimatedTokens = estimatedTokens;
+    }
+
+    long getRateWaitMs() {
+      return this.rateWaitMs;
+    }
+
+    private void releaseConcurrency(final long latencyMs, final RuntimeException error) {
+      if (this.limiter != null) {
+        final int statusCode = error == null ? -1 : owner.findErrorStatusCode(error);
+        final boolean throttled = statusCode == 429 || statusCode == 503 || statusCode == 529;
+        final int newLimit = this.limiter.release(error == null ? latencyMs : -1L, throttled);
+        if (newLimit > 0) {
+          owner.getStats().onConcurrencyLimit(newLimit);
+          final String reason;
+          if (throttled) {
+            reason = " after throttling";
+          } else {
+            reason = error == null ? ", latency " + latencyMs + " ms" : "";
+          }
+          owner.logInfo("adaptive concurrency limit changed to " + newLimit + reason);
+        }
+      }
+    }
+
+    /**
+     * Release permit after request.
+     *
+     * @param latencyMs   latency of request
+     * @param error       error of request, null if request is successful
+     * @param spentTokens number of spent tokens to reconcile estimated tokens of rate limit
+     */
+    void release(final long latencyMs, final RuntimeException error, final long spentTokens) {
+      this.releaseConcurrency(latencyMs, error);
+      if (this.rateLimiter != null) {
+        this.rateLimiter.reconcile(this.estimatedTokens, spentTokens);
+      }
+    }
+  }
+}
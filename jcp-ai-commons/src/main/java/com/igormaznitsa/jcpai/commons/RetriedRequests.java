@@ -0,0 +1,59 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.List;
+
+/**
+ * Sender of model requests with retries made by {@link RetryPolicy} of the processor.
+ *
+ * @since 1.1.1
+ */
+final class RetriedRequests {
+
+  private final AbstractJcpAiProcessor owner;
+  private final HedgedRequests hedging;
+
+  RetriedRequests(final AbstractJcpAiProcessor owner, final HedgedRequests hedging) {
+    this.owner = requireNonNull(owner);
+    this.hedging = requireNonNull(hedging);
+  }
+
+  /**
+   * Send prompt to model with retries.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @param metric  the metric to be filled, must not be null
+   * @return the model response, must not be null
+   */
+  PromptResponse request(final PreprocessorContext context,
+                         final List<ContentRecord> history,
+                         final String prompt,
+                         final PromptMetric metric) {
+    final RetryPolicy retryPolicy = this.owner.makeRetryPolicy(context);
+    return retryPolicy.execute(() -> this.hedging.request(context, history, prompt, metric),
+        this.owner::isRetryableError,
+        this.owner::findErrorRetryAfterMs,
+        new RetryPolicy.RetryListener() {
+          @Override
+          public void onRetry(final int attempt, final long delayMs,
+                              final RuntimeException error) {
+            owner.logWarn(String.format("attempt %d of %d failed for %s, retry in %d ms: %s",
+                attempt, retryPolicy.getMaxAttempts(), metric.getSource(), delayMs,
+                error.getMessage()));
+          }
+
+          @Override
+          public void onDeadline(final int attempt, final long delayMs,
+                                 final RuntimeException error) {
+            owner.logError(String.format(
+                "attempt %d failed for %s, no retry because of deadline %d ms",
+                attempt, metric.getSource(), retryPolicy.getDeadlineMs()));
+          }
+        });
+  }
+}
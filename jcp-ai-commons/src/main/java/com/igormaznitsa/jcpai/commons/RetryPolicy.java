@@ -0,0 +1,208 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static java.util.Objects.requireNonNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Policy of retries for failed model requests. Delay between attempts grows exponentially, it has
+ * random jitter and can be overridden by delay requested by provider through Retry-After. All
+ * attempts of a prompt must fit into deadline.
+ *
+ * @since 1.1.1
+ */
+public final class RetryPolicy {
+
+  /**
+   * Value of retry-after if it is not provided.
+   */
+  public static final long NO_RETRY_AFTER = -1L;
+
+  private final int maxAttempts;
+  private final long initialDelayMs;
+  private final long maxDelayMs;
+  private final long deadlineMs;
+
+  /**
+   * Constructor.
+   *
+   * @param maxAttempts    max number of attempts, one means no retries
+   * @param initialDelayMs delay before the second attempt in milliseconds
+   * @param maxDelayMs     max delay between attempts in milliseconds
+   * @param deadlineMs     max time for all attempts of a prompt in milliseconds, zero or negative
+   *                       means no deadline
+   */
+  public RetryPolicy(final int maxAttempts, final long initialDelayMs, final long maxDelayMs,
+                     final long deadlineMs) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialDelayMs = Math.max(0L, initialDelayMs);
+    this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+    this.deadlineMs = deadlineMs;
+  }
+
+  /**
+   * Check that HTTP status means temporary error and request can be repeated.
+   *
+   * @param statusCode the HTTP status code
+   * @return true if request can be repeated
+   */
+  public static boolean isRetryableStatus(final int statusCode) {
+    return switch (statusCode) {
+      case 408, 409, 425, 429, 500, 502, 503, 504, 529 -> true;
+      default -> false;
+    };
+  }
+
+  /**
+   * Parse value of Retry-After header, it can be either number of seconds or HTTP date.
+   *
+   * @param value the header value, can be null
+   * @param now   the current time, must not be null
+   * @return delay in milliseconds or {@link #NO_RETRY_AFTER} if value can't be parsed
+   */
+  public static long parseRetryAfterMs(final String value, final Instant now) {
+    if (value == null || value.isBlank()) {
+      return NO_RETRY_AFTER;
+    }
+    final String trimmed = value.trim();
+    try {
+      return Math.max(0L, Math.round(Double.parseDouble(trimmed) * 1000.0d));
+    } catch (NumberFormatException ex) {
+      try {
+        final Instant instant =
+            ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        return Math.max(0L, Duration.between(now, instant).toMillis());
+      } catch (DateTimeParseException exx) {
+        return NO_RETRY_AFTER;
+      }
+    }
+  }
+
+  /**
+   * Find delay requested by provider in HTTP headers, retry-after-ms header is checked before
+   * Retry-After.
+   *
+   * @param headerValues function returning values of header for its name, must not be null
+   * @return delay in milliseconds or {@link #NO_RETRY_AFTER} if not provided
+   */
+  public static long findRetryAfterMs(final Function<String, List<String>> headerValues) {
+    final List<String> retryAfterMs = headerValues.apply("retry-after-ms");
+    if (retryAfterMs != null && !retryAfterMs.isEmpty()) {
+      try {
+        return Math.max(0L, Math.round(Double.parseDouble(retryAfterMs.get(0).trim())));
+      } catch (NumberFormatException ex) {
+        // ignore and check Retry-After
+      }
+    }
+    final List<String> retryAfter = headerValues.apply("retry-after");
+    return retryAfter == null || retryAfter.isEmpty() ? NO_RETRY_AFTER
+        : parseRetryAfterMs(retryAfter.get(0), Instant.now());
+  }
+
+  public int getMaxAttempts() {
+    return this.maxAttempts;
+  }
+
+  public long getDeadlineMs() {
+    return this.deadlineMs;
+  }
+
+  /**
+   * Compute delay before next attempt.
+   *
+   * @param attempt      number of failed attempt, starts with 1
+   * @param retryAfterMs delay requested by provider or {@link #NO_RETRY_AFTER}
+   * @param random       random value in range 0..1 for jitter
+   * @return delay in milliseconds
+   */
+  public long computeDelayMs(final int attempt, final long retryAfterMs, final double random) {
+    if (retryAfterMs >= 0L) {
+      return retryAfterMs;
+    }
+    final double exponential =
+        this.initialDelayMs * Math.pow(2.0d, Math.max(0, attempt - 1));
+    final long base = (long) Math.min(this.maxDelayMs, exponential);
+    final long half = base / 2L;
+    return half + Math.round((base - half) * random);
+  }
+
+  /**
+   * Execute call with retries.
+   *
+   * @param call       the call, must not be null
+   * @param retryable  predicate to detect errors which can be retried, must not be null
+   * @param retryAfter function to extract delay requested by provider, must not be null
+   * @param listener   listener of retries, must not be null
+   * @param <T>        type of result
+   * @return result of the call
+   * @throws RuntimeException the last error if all attempts failed, deadline reached or error is
+   *                          not retryable
+   */
+  public <T> T execute(final Supplier<T> call,
+                       final Predicate<RuntimeException> retryable,
+                       final ToLongFunction<RuntimeException> retryAfter,
+                       final RetryListener listener) {
+    requireNonNull(call);
+    final long start = System.currentTimeMillis();
+    int attempt = 1;
+    while (true) {
+      try {
+        return call.get();
+      } catch (RuntimeException ex) {
+        if (attempt >= this.maxAttempts || !retryable.test(ex)) {
+          throw ex;
+        }
+        final long delay = this.computeDelayMs(attempt, retryAfter.applyAsLong(ex),
+            ThreadLocalRandom.current().nextDouble());
+        if (this.deadlineMs > 0L
+            && System.currentTimeMillis() - start + delay >= this.deadlineMs) {
+          listener.onDeadline(attempt, delay, ex);
+          throw ex;
+        }
+        listener.onRetry(attempt, delay, ex);
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException iex) {
+          Thread.currentThread().interrupt();
+          throw ex;
+        }
+        attempt++;
+      }
+    }
+  }
+
+  /**
+   * Listener of retries.
+   */
+  public interface RetryListener {
+    /**
+     * Called before delay of next attempt.
+     *
+     * @param attempt number of failed attempt
+     * @param delayMs delay before the next attempt
+     * @param error   the error of failed attempt
+     */
+    void onRetry(int attempt, long delayMs, RuntimeException error);
+
+    /**
+     * Called if next attempt can't be made because of deadline.
+     *
+     * @param attempt number of failed attempt
+     * @param delayMs delay which would be before the next attempt
+     * @param error   the error of failed attempt
+     */
+    default void onDeadline(int attempt, long delayMs, RuntimeException error) {
+
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of background tasks regenerating stale cached responses. Every task is identified by key
+ * and repeated submission of the same key is ignored.
+ *
+ * @since 1.1.1
+ */
+public class RevalidationQueue {
+
+  private final ExecutorService executor;
+  private final Map<String, Map.Entry<String, Future<?>>> tasks = new LinkedHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param threadNamePrefix prefix of names of worker threads, must not be null
+   * @param threads          number of worker threads
+   */
+  public RevalidationQueue(final String threadNamePrefix, final int threads) {
+    requireNonNull(threadNamePrefix);
+    final AtomicInteger counter = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+      final Thread thread = new Thread(runnable, threadNamePrefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Submit task.
+   *
+   * @param key         the task key, must not be null
+   * @param description the task description to report pending task, must not be null
+   * @param task        the task, must not be null
+   * @return true if the task is submitted, false if there is already task for the key
+   */
+  public synchronized boolean submit(final String key, final String description,
+                                     final Runnable task) {
+    if (this.tasks.containsKey(requireNonNull(key))) {
+      return false;
+    }
+    this.tasks.put(key, Map.entry(requireNonNull(description), this.executor.submit(task)));
+    return true;
+  }
+
+  public synchronized int size() {
+    return this.tasks.size();
+  }
+
+  /**
+   * Wait for completion of all tasks and shutdown the queue. Tasks not completed during wait time
+   * are cancelled.
+   *
+   * @param waitMs max wait time in milliseconds, negative value means wait without limit
+   * @return descriptions of tasks which have not been completed, must not be null
+   */
+  public List<String> shutdown(final long waitMs) {
+    this.executor.shutdown();
+    try {
+      if (waitMs < 0L) {
+        while (!this.executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+          // wait for all tasks
+        }
+      } else {
+        this.executor.awaitTermination(waitMs, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    this.executor.shutdownNow();
+
+    final List<String> pending = new ArrayList<>();
+    synchronized (this) {
+      this.tasks.values().forEach(x -> {
+        if (!x.getValue().isDone() || x.getValue().isCancelled()) {
+          pending.add(x.getKey());
+        }
+      });
+      this.tasks.clear();
+    }
+    return pending;
+  }
+}
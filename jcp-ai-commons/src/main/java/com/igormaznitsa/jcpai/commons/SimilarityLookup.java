@@ -0,0 +1,97 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_SIMILARITY_REUSE;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiCacheRecord;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup of cached responses made for near-duplicate prompts.
+ *
+ * @since 1.1.1
+ */
+final class SimilarityLookup {
+
+  private final AbstractJcpAiProcessor owner;
+
+  SimilarityLookup(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Find cached response of near-duplicate prompt if similarity lookup is enabled. Found prompt is
+   * always reported but its record is returned only if reuse is confirmed by flag.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param prompt        the prompt which is not found in cache, must not be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @return record to be reused or null
+   */
+  JcpAiCacheRecord findSimilarRecord(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String prompt,
+      final FilePositionInfo positionInfo) {
+    if (cacheFilePair == null || !this.owner.isSimilarityLookup(context)) {
+      return null;
+    }
+    final Map.Entry<String, Double> found = cacheFilePair.getKey().getSimilarityIndex()
+        .findMostSimilar(prompt, this.owner.findSimilarityThreshold(context));
+    final JcpAiCacheRecord record =
+        found == null ? null : cacheFilePair.getKey().getCache().findRecord(found.getKey());
+    if (record == null) {
+      return null;
+    }
+    final boolean reuse = this.owner.isSimilarityReuse(context);
+    this.owner.logInfo(String.format(Locale.ENGLISH,
+        "prompt at %s is similar (%.2f) to cached prompt at %s:%d, %s",
+        positionInfo.toShortString(), found.getValue(), record.getFileName(), record.getLine(),
+        reuse ? "reusing its response"
+            : "define " + PROPERTY_JCPAI_SIMILARITY_REUSE + " to reuse its response"));
+    if (!reuse) {
+      return null;
+    }
+    cacheFilePair.getValue().add(record.getKey());
+    return record;
+  }
+
+  /**
+   * Check without logging that response of near-duplicate prompt will be reused.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, must not be null
+   * @param prompt        the prompt, must not be null
+   * @return true if there is similar prompt and its response is allowed to be reused
+   */
+  boolean isReusable(final PreprocessorContext context,
+                     final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+                     final String prompt) {
+    return this.owner.isSimilarityLookup(context) && this.owner.isSimilarityReuse(context)
+        && cacheFilePair.getKey().getSimilarityIndex()
+        .findMostSimilar(prompt, this.owner.findSimilarityThreshold(context)) != null;
+  }
+
+  /**
+   * Add prompt of new cache record to similarity index.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, must not be null
+   * @param record        the new cache record, must not be null
+   * @param prompt        the prompt, must not be null
+   */
+  void index(final PreprocessorContext context,
+             final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+             final JcpAiCacheRecord record,
+             final String prompt) {
+    if (this.owner.isSimilarityLookup(context)) {
+      cacheFilePair.getKey().getSimilarityIndex().add(record.getKey(), prompt);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_CACHE_REVALIDATE_THREADS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_CACHE_REVALIDATE_WAIT_MS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_THREADS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_WAIT_MS;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.findPreprocessorLongVariable;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.makeCachePromptKey;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.makeSourcePath;
+import static java.util.Objects.requireNonNull;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiCacheRecord;
+import com.igormaznitsa.jcpai.commons.cache.JcpAiPromptCacheFile;
+import com.igormaznitsa.jcpai.commons.metrics.PromptCacheStatus;
+import com.igormaznitsa.jcpai.commons.metrics.PromptMetric;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provider of stale cached responses, they are used if AI budget is exceeded or while response for
+ * changed prompt is regenerated in background.
+ *
+ * @since 1.1.1
+ */
+final class StaleResponses {
+
+  private final AbstractJcpAiProcessor owner;
+  private RevalidationQueue revalidationQueue;
+
+  StaleResponses(final AbstractJcpAiProcessor owner) {
+    this.owner = requireNonNull(owner);
+  }
+
+  /**
+   * Find the latest cached response for source position of prompt if AI budget is exceeded and
+   * policy allows stale responses.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, can be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @return found stale record or null if budget is not exceeded or there is no stale response
+   */
+  JcpAiCacheRecord findIfOverBudget(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final FilePositionInfo positionInfo) {
+    if (cacheFilePair == null
+        || this.owner.findParamBudgetPolicy(context) != BudgetExceededPolicy.STALE) {
+      return null;
+    }
+    final String exceeded = this.owner.getBudget().findExceededLimit();
+    if (exceeded == null) {
+      return null;
+    }
+    final JcpAiCacheRecord record = cacheFilePair.getKey().getCache()
+        .findLatestRecord(makeSourcePath(context, positionInfo), positionInfo.getLineNumber());
+    if (record != null) {
+      cacheFilePair.getValue().add(record.getKey());
+      this.owner.logWarn(
+          exceeded + ", using stale cached response for " + positionInfo.toShortString());
+    }
+    return record;
+  }
+
+  /**
+   * Check without side effects that there is cached response for source position which will be
+   * used in stale-while-revalidate mode.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, must not be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @return true if stale response will be used
+   */
+  boolean isRevalidated(final PreprocessorContext context,
+                        final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+                        final FilePositionInfo positionInfo) {
+    return this.owner.isStaleWhileRevalidate(context) && cacheFilePair.getKey().getCache()
+        .findLatestRecord(makeSourcePath(context, positionInfo), positionInfo.getLineNumber())
+        != null;
+  }
+
+  /**
+   * Find the latest cached response for source position of changed prompt and schedule background
+   * regeneration of response for the current prompt.
+   *
+   * @param context       the preprocessor context, must not be null
+   * @param cacheFilePair the cache file pair, must not be null
+   * @param promptKey     the cache key of the current prompt, must not be null
+   * @param prompt        the current prompt, must not be null
+   * @param positionInfo  the position of prompt, must not be null
+   * @return found stale record or null if there is no any cached response for the position
+   */
+  JcpAiCacheRecord findAndRevalidate(
+      final PreprocessorContext context,
+      final Map.Entry<JcpAiPromptCacheFile, Set<String>> cacheFilePair,
+      final String promptKey,
+      final String prompt,
+      final FilePositionInfo positionInfo) {
+    final JcpAiCacheRecord record = cacheFilePair.getKey().getCache()
+        .findLatestRecord(makeSourcePath(context, positionInfo), positionInfo.getLineNumber());
+    if (record == null) {
+      return null;
+    }
+    cacheFilePair.getValue().add(record.getKey());
+
+    final RevalidationQueue queue;
+    synchronized (this) {
+      if (this.revalidationQueue == null) {
+        this.revalidationQueue = new RevalidationQueue(
+            "jcpai-" + this.owner.getProcessorTextId().toLowerCase(Locale.ENGLISH)
+                + "-revalidate-",
+            findPreprocessorLongVariable(PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_THREADS, context)
+                .orElse(DEFAULT_CACHE_REVALIDATE_THREADS).intValue());
+      }
+      queue = this.revalidationQueue;
+    }
+
+    final String source = StringUtils.asText(positionInfo, true);
+    final Map<String, Object> extraKeyValues = this.owner.findPromptKeyValues(context);
+    final PreprocessorContext snapshot = new PreprocessorContext(context);
+    final boolean submitted = queue.submit(promptKey, source, () -> {
+      final PromptMetric metric = new PromptMetric(source, this.owner.getProcessorTextId());
+      metric.setCacheStatus(PromptCacheStatus.MISS);
+      try {
+        final PromptResponse response =
+            this.owner.requestModel(snapshot, List.of(), prompt, metric);
+        this.owner.distillResponse(snapshot, response.getText(), positionInfo, metric);
+        cacheFilePair.getKey().getCache()
+            .put(RequestFailover.makeResponseCacheKey(promptKey, response,
+                    x -> makeCachePromptKey(prompt, x), extraKeyValues),
+                makeSourcePath(context, positionInfo),
+                positionInfo.getLineNumber(), response.getText())
+            .setUsage(response.getModel(), response.getInputTokens(),
+                response.getOutputTokens(), metric.getLatencyMs());
+        this.owner.getMetrics().add(metric);
+        this.owner.logInfo("revalidated cached response for " + positionInfo.toShortString());
+      } catch (RuntimeException ex) {
+        this.owner.logWarn("Can't revalidate cached response for " + positionInfo.toShortString()
+            + " : " + ex.getMessage());
+      }
+    });
+    if (submitted) {
+      this.owner.logInfo("using stale cached response for changed prompt at "
+          + positionInfo.toShortString() + ", regeneration scheduled");
+    }
+    return record;
+  }
+
+  /**
+   * Wait for scheduled regenerations and stop background threads.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param error   error of preprocessing, pending regenerations are not awaited if not null
+   */
+  void complete(final PreprocessorContext context, final Throwable error) {
+    final RevalidationQueue queue;
+    synchronized (this) {
+      queue = this.revalidationQueue;
+      this.revalidationQueue = null;
+    }
+    if (queue == null) {
+      return;
+    }
+    final long waitMs = error == null
+        ? findPreprocessorLongVariable(PROPERTY_JCPAI_PROMPT_CACHE_REVALIDATE_WAIT_MS, context)
+        .orElse(DEFAULT_CACHE_REVALIDATE_WAIT_MS) : 0L;
+    this.owner.logInfo("waiting for " + queue.size() + " revalidation(s) of cached responses");
+    final List<String> pending = queue.shutdown(waitMs);
+    if (!pending.isEmpty()) {
+      this.owner.logWarn(pending.size()
+          + " revalidation(s) not completed, stale responses kept for: "
+          + String.join(", ", pending));
+    }
+  }
+}
@@ -26,15 +26,26 @@ public final class StringUtils {
       return text;
     }
 
-    String trimmed = text.trim();
-    if (trimmed.startsWith("{") && trimmed.endsWith("}")) {
-      trimmed = trimmed.substring(1, trimmed.length() - 1);
-      return extractCodePart(trimmed, eol);
+    int start = 0;
+    int end = text.length();
+    while (true) {
+      while (start < end && text.charAt(start) <= ' ') {
+        start++;
+      }
+      while (end > start && text.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      if (end - start >= 2 && text.charAt(start) == '{' && text.charAt(end - 1) == '}') {
+        start++;
+        end--;
+      } else {
+        break;
+      }
     }
 
     final String fenced = join(requireNonNullElse(eol, "\n"),
-        extractFencedCodeBlocks(trimmed)).trim();
-    return fenced.isEmpty() ? trimmed : fenced;
+        extractFencedCodeBlocks(text, start, end)).trim();
+    return fenced.isEmpty() ? text.substring(start, end) : fenced;
   }
 
   /**
@@ -54,6 +65,134 @@ public final class StringUtils {
     return text.substring(i);
   }
 
+  /**
+   * Check that char is line terminator in terms of regular expression {@code \\R}.
+   *
+   * @param chr char to be checked
+   * @return true if char is line terminator, false otherwise
+   * @since 1.1.1
+   */
+  public static boolean isLineTerminator(final char chr) {
+    return chr == '\n' || chr == '\r' || chr == '\u000B' || chr == '\f' || chr == '\u0085'
+        || chr == '\u2028' || chr == '\u2029';
+  }
+
+  /**
+   * Find end of line which starts at position.
+   *
+   * @param text  text to be scanned, must not be null
+   * @param start start position of line
+   * @return index of the first line terminator char or text length if not found
+   * @since 1.1.1
+   */
+  public static int findLineEnd(final CharSequence text, final int start) {
+    final int length = text.length();
+    int i = start;
+    while (i < length && !isLineTerminator(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Find start of next line.
+   *
+   * @param text    text to be scanned, must not be null
+   * @param lineEnd end of current line returned by {@link #findLineEnd(CharSequence, int)}
+   * @return start index of next line or text length if there is no more text
+   * @since 1.1.1
+   */
+  public static int findNextLineStart(final CharSequence text, final int lineEnd) {
+    final int length = text.length();
+    if (lineEnd >= length) {
+      return length;
+    }
+    if (text.charAt(lineEnd) == '\r' && lineEnd + 1 < length && text.charAt(lineEnd + 1) == '\n') {
+      return lineEnd + 2;
+    }
+    return lineEnd + 1;
+  }
+
+  /**
+   * Find index of the first non-whitespace char in range.
+   *
+   * @param text  text to be scanned, must not be null
+   * @param start start index, inclusive
+   * @param end   end index, exclusive
+   * @return index of the first non-whitespace char or end if not found
+   * @since 1.1.1
+   */
+  public static int skipWhitespaces(final CharSequence text, final int start, final int end) {
+    int i = start;
+    while (i < end && Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Count lines in text in the same manner as {@code text.split("\\R").length}, it means that
+   * trailing empty lines are not counted.
+   *
+   * @param text text to be scanned, must not be null
+   * @return number of lines
+   * @since 1.1.1
+   */
+  public static int countLines(final CharSequence text) {
+    if (text.length() == 0) {
+      return 1;
+    }
+    int end = text.length();
+    while (end > 0 && isLineTerminator(text.charAt(end - 1))) {
+      end--;
+    }
+    int lines = 0;
+    int position = 0;
+    while (position < end) {
+      lines++;
+      position = findNextLineStart(text, findLineEnd(text, position));
+    }
+    return lines;
+  }
+
+  /**
+   * Append lines of text into buffer, every line is prefixed and lines are separated by provided
+   * end of line.
+   *
+   * @param buffer    the buffer to append lines, must not be null
+   * @param text      the source text, must not be null
+   * @param start     start position of the first line in the source text
+   * @param lines     number of lines to be appended
+   * @param prefix    prefix for every line, must not be null
+   * @param eol       end of line to separate lines, must not be null
+   * @param leftTrim  if true then every line is left trimmed
+   * @param separated if true then end of line is appended before the first line
+   * @return true if buffer contains lines and next line must be separated, false otherwise
+   * @since 1.1.1
+   */
+  public static boolean appendLines(final StringBuilder buffer,
+                                    final CharSequence text,
+                                    final int start,
+                                    final int lines,
+                                    final String prefix,
+                                    final String eol,
+                                    final boolean leftTrim,
+                                    final boolean separated) {
+    boolean needEol = separated;
+    int position = start;
+    for (int i = 0; i < lines; i++) {
+      final int lineEnd = findLineEnd(text, position);
+      if (needEol) {
+        buffer.append(eol);
+      }
+      buffer.append(prefix)
+          .append(text, leftTrim ? skipWhitespaces(text, position, lineEnd) : position, lineEnd);
+      needEol = true;
+      position = findNextLineStart(text, lineEnd);
+    }
+    return needEol;
+  }
+
   /**
    * Get position info in format file:line
    *
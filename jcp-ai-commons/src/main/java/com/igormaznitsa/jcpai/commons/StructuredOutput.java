@@ -0,0 +1,91 @@
+package com.igormaznitsa.jcpai.commons;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.util.Optional;
+
+/**
+ * Contract of structured model output, response is JSON object with single string field contains
+ * generated code, so that code can be taken without distillation.
+ *
+ * @since 1.1.1
+ */
+public final class StructuredOutput {
+
+  /**
+   * Name of the field contains generated code.
+   */
+  public static final String FIELD_CODE = "code";
+  /**
+   * Name of the output schema or tool.
+   */
+  public static final String SCHEMA_NAME = "generated_code";
+  /**
+   * Description of the field contains generated code.
+   */
+  public static final String FIELD_CODE_DESCRIPTION =
+      "Only generated source code without markdown fences and explanations";
+
+  private StructuredOutput() {
+
+  }
+
+  /**
+   * Find text of JSON object in response, the object can be wrapped by markdown fence or text.
+   *
+   * @param response the response text, must not be null
+   * @return text of JSON object or null if not found
+   */
+  public static String findJsonObject(final String response) {
+    final String trimmed = response.trim();
+    if (trimmed.startsWith("{")) {
+      return trimmed;
+    }
+    for (final String block : MarkdownCodeExtractor.extractFencedCodeBlocks(trimmed)) {
+      if (block.startsWith("{")) {
+        return block;
+      }
+    }
+    final int start = trimmed.indexOf('{');
+    final int end = trimmed.lastIndexOf('}');
+    return start < 0 || end < start ? null : trimmed.substring(start, end + 1);
+  }
+
+  /**
+   * Extract code from structured response.
+   *
+   * @param response the response text, must not be null
+   * @return the code or empty if response is not structured one
+   */
+  public static Optional<String> extractCode(final String response) {
+    final String json = findJsonObject(response);
+    if (json == null) {
+      return Optional.empty();
+    }
+    try {
+      final JsonElement root = JsonParser.parseString(json);
+      if (!root.isJsonObject()) {
+        return Optional.empty();
+      }
+      final JsonElement code = root.getAsJsonObject().get(FIELD_CODE);
+      return code == null || !code.isJsonPrimitive() || !code.getAsJsonPrimitive().isString()
+          ? Optional.empty() : Optional.of(code.getAsString());
+    } catch (JsonParseException ex) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Make structured response for code, it is used by connectors which get code as tool arguments.
+   *
+   * @param code the code, must not be null
+   * @return JSON text of structured response, must not be null
+   */
+  public static String makeJson(final String code) {
+    final JsonObject result = new JsonObject();
+    result.addProperty(FIELD_CODE, code);
+    return result.toString();
+  }
+}
@@ -0,0 +1,157 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limiter with two token buckets, one for requests per minute and one for tokens per minute.
+ * Callers are queued in order of arrival and wait until both buckets have enough capacity. Token
+ * bucket is charged by estimated number of tokens before request and reconciled with actual usage
+ * after response. Zero or negative limit means no limit.
+ *
+ * @since 1.1.1
+ */
+public class TokenBucketRateLimiter {
+
+  private static final double MS_PER_MINUTE = 60_000.0d;
+
+  private final ReentrantLock queue = new ReentrantLock(true);
+  private final LongSupplier clockMs;
+  private final Sleeper sleeper;
+
+  private long requestsPerMinute;
+  private long tokensPerMinute;
+  private double availableRequests;
+  private double availableTokens;
+  private long lastRefillMs;
+
+  public TokenBucketRateLimiter(final long requestsPerMinute, final long tokensPerMinute) {
+    this(requestsPerMinute, tokensPerMinute, () -> System.nanoTime() / 1_000_000L,
+        Thread::sleep);
+  }
+
+  TokenBucketRateLimiter(final long requestsPerMinute, final long tokensPerMinute,
+                         final LongSupplier clockMs, final Sleeper sleeper) {
+    this.clockMs = requireNonNull(clockMs);
+    this.sleeper = requireNonNull(sleeper);
+    this.lastRefillMs = clockMs.getAsLong();
+    this.configure(requestsPerMinute, tokensPerMinute);
+  }
+
+  /**
+   * Set new limits, buckets are filled if limits are changed.
+   *
+   * @param requestsPerMinute max requests per minute
+   * @param tokensPerMinute   max tokens per minute
+   */
+  public synchronized void configure(final long requestsPerMinute, final long tokensPerMinute) {
+    if (this.requestsPerMinute != requestsPerMinute || this.tokensPerMinute != tokensPerMinute) {
+      this.requestsPerMinute = requestsPerMinute;
+      this.tokensPerMinute = tokensPerMinute;
+      this.availableRequests = Math.max(0L, requestsPerMinute);
+      this.availableTokens = Math.max(0L, tokensPerMinute);
+      this.lastRefillMs = this.clockMs.getAsLong();
+    }
+  }
+
+  public synchronized boolean isLimited() {
+    return this.requestsPerMinute > 0L || this.tokensPerMinute > 0L;
+  }
+
+  private void refill() {
+    final long now = this.clockMs.getAsLong();
+    final long passed = now - this.lastRefillMs;
+    if (passed > 0L) {
+      this.lastRefillMs = now;
+      if (this.requestsPerMinute > 0L) {
+        this.availableRequests = Math.min(this.requestsPerMinute,
+            this.availableRequests + passed * this.requestsPerMinute / MS_PER_MINUTE);
+      }
+      if (this.tokensPerMinute > 0L) {
+        this.availableTokens = Math.min(this.tokensPerMinute,
+            this.availableTokens + passed * this.tokensPerMinute / MS_PER_MINUTE);
+      }
+    }
+  }
+
+  /**
+   * Try to take capacity for request.
+   *
+   * @param tokens number of tokens to be taken
+   * @return zero if capacity has been taken or time to wait in milliseconds
+   */
+  private synchronized long tryAcquire(final long tokens) {
+    this.refill();
+    final long requiredTokens = Math.min(Math.max(0L, tokens), this.tokensPerMinute);
+    long waitMs = 0L;
+    if (this.requestsPerMinute > 0L && this.availableRequests < 1.0d) {
+      waitMs = (long) Math.ceil(
+          (1.0d - this.availableRequests) * MS_PER_MINUTE / this.requestsPerMinute);
+    }
+    if (this.tokensPerMinute > 0L && this.availableTokens < requiredTokens) {
+      waitMs = Math.max(waitMs, (long) Math.ceil(
+          (requiredTokens - this.availableTokens) * MS_PER_MINUTE / this.tokensPerMinute));
+    }
+    if (waitMs == 0L) {
+      if (this.requestsPerMinute > 0L) {
+        this.availableRequests -= 1.0d;
+      }
+      if (this.tokensPerMinute > 0L) {
+        this.availableTokens -= requiredTokens;
+      }
+    }
+    return waitMs;
+  }
+
+  /**
+   * Wait in queue until request with estimated number of tokens is allowed.
+   *
+   * @param estimatedTokens estimated number of tokens of request
+   * @return time spent in waiting in milliseconds
+   * @throws InterruptedException if interrupted during waiting
+   */
+  public long acquire(final long estimatedTokens) throws InterruptedException {
+    if (!this.isLimited()) {
+      return 0L;
+    }
+    final long start = this.clockMs.getAsLong();
+    this.queue.lockInterruptibly();
+    try {
+      long waitMs = this.tryAcquire(estimatedTokens);
+      while (waitMs > 0L) {
+        this.sleeper.sleep(waitMs);
+        waitMs = this.tryAcquire(estimatedTokens);
+      }
+    } finally {
+      this.queue.unlock();
+    }
+    return this.clockMs.getAsLong() - start;
+  }
+
+  /**
+   * Correct token bucket by actual number of tokens spent by request.
+   *
+   * @param estimatedTokens number of tokens taken before request
+   * @param actualTokens    actual number of tokens, negative if unknown
+   */
+  public synchronized void reconcile(final long estimatedTokens, final long actualTokens) {
+    if (this.tokensPerMinute > 0L && actualTokens >= 0L) {
+      this.refill();
+      final long takenTokens = Math.min(Math.max(0L, estimatedTokens), this.tokensPerMinute);
+      this.availableTokens =
+          Math.min(this.tokensPerMinute, this.availableTokens + takenTokens - actualTokens);
+    }
+  }
+
+  synchronized double getAvailableTokens() {
+    this.refill();
+    return this.availableTokens;
+  }
+
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(long ms) throws InterruptedException;
+  }
+}
@@ -0,0 +1,68 @@
+package com.igormaznitsa.jcpai.commons;
+
+import java.util.Collection;
+
+/**
+ * Local estimator of number of tokens in text. It doesn't use any model specific vocabulary but
+ * approximates BPE tokenizers: every run of letters or digits gives one token per four chars and
+ * every other non-whitespace char gives one token.
+ *
+ * @since 1.1.1
+ */
+public final class TokenEstimator {
+
+  private static final int CHARS_PER_WORD_TOKEN = 4;
+  private static final int TOKENS_PER_MESSAGE = 4;
+
+  private TokenEstimator() {
+
+  }
+
+  /**
+   * Estimate number of tokens in text.
+   *
+   * @param text the text, can be null
+   * @return estimated number of tokens, zero for null or empty text
+   */
+  public static long estimateTokens(final CharSequence text) {
+    if (text == null) {
+      return 0L;
+    }
+    long tokens = 0L;
+    int wordLength = 0;
+    for (int i = 0; i < text.length(); i++) {
+      final char chr = text.charAt(i);
+      if (Character.isLetterOrDigit(chr)) {
+        wordLength++;
+      } else {
+        if (wordLength > 0) {
+          tokens += (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+          wordLength = 0;
+        }
+        if (!Character.isWhitespace(chr)) {
+          tokens++;
+        }
+      }
+    }
+    if (wordLength > 0) {
+      tokens += (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+    }
+    return tokens;
+  }
+
+  /**
+   * Estimate number of tokens in history records together with prompt.
+   *
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, can be null
+   * @return estimated number of input tokens
+   */
+  public static long estimateTokens(final Collection<ContentRecord> history,
+                                    final CharSequence prompt) {
+    long tokens = estimateTokens(prompt) + TOKENS_PER_MESSAGE;
+    for (final ContentRecord record : history) {
+      tokens += estimateTokens(record.getText()) + TOKENS_PER_MESSAGE;
+    }
+    return tokens;
+  }
+}
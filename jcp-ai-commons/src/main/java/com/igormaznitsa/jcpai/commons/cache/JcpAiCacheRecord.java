@@ -4,14 +4,32 @@ import static java.util.Objects.requireNonNull;
 
 import com.google.gson.JsonObject;
 import java.time.Instant;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 public class JcpAiCacheRecord {
+  /**
+   * Value of usage fields if they are unknown, for instance for records written by previous
+   * versions.
+   *
+   * @since 1.1.1
+   */
+  public static final long UNKNOWN = -1L;
+
   private Instant instant;
   private String key;
   private String result;
   private String fileName;
   private int line;
   private long sinceUse;
+  private String model;
+  private long inputTokens = UNKNOWN;
+  private long outputTokens = UNKNOWN;
+  private long latencyMs = UNKNOWN;
+  private String prompt;
+
+  private String distilledEol;
+  private String distilledResult;
 
   public JcpAiCacheRecord() {
 
@@ -24,6 +42,22 @@ public class JcpAiCacheRecord {
     this.fileName = jsonObject.get("fileName").getAsString();
     this.line = jsonObject.get("line").getAsInt();
     this.sinceUse = jsonObject.has("sinceUse") ? jsonObject.get("sinceUse").getAsLong() : 0L;
+    this.model = jsonObject.has("model") ? jsonObject.get("model").getAsString() : null;
+    this.inputTokens = readLong(jsonObject, "inputTokens");
+    this.outputTokens = readLong(jsonObject, "outputTokens");
+    this.latencyMs = readLong(jsonObject, "latencyMs");
+    this.prompt = jsonObject.has("prompt") ? jsonObject.get("prompt").getAsString() : null;
+  }
+
+  private static long readLong(final JsonObject jsonObject, final String name) {
+    return jsonObject.has(name) ? jsonObject.get(name).getAsLong() : UNKNOWN;
+  }
+
+  private static void writeLong(final JsonObject jsonObject, final String name,
+                                final long value) {
+    if (value >= 0L) {
+      jsonObject.addProperty(name, value);
+    }
   }
 
   public JsonObject toJsonObject() {
@@ -34,6 +68,15 @@ public class JcpAiCacheRecord {
     result.addProperty("line", this.line);
     result.addProperty("result", this.result);
     result.addProperty("sinceUse", this.sinceUse);
+    if (this.model != null) {
+      result.addProperty("model", this.model);
+    }
+    writeLong(result, "inputTokens", this.inputTokens);
+    writeLong(result, "outputTokens", this.outputTokens);
+    writeLong(result, "latencyMs", this.latencyMs);
+    if (this.prompt != null) {
+      result.addProperty("prompt", this.prompt);
+    }
     return result;
   }
 
@@ -81,7 +124,74 @@ public class JcpAiCacheRecord {
     return this.result;
   }
 
-  public void setResult(String result) {
+  public synchronized void setResult(String result) {
     this.result = requireNonNull(result);
+    this.distilledEol = null;
+    this.distilledResult = null;
+  }
+
+  /**
+   * Set usage data of the model request which generated the result.
+   *
+   * @param model        the model name, can be null
+   * @param inputTokens  number of input tokens, negative if unknown
+   * @param outputTokens number of output tokens, negative if unknown
+   * @param latencyMs    generation latency in milliseconds, negative if unknown
+   * @since 1.1.1
+   */
+  public void setUsage(final String model, final long inputTokens, final long outputTokens,
+                       final long latencyMs) {
+    this.model = model;
+    this.inputTokens = Math.max(UNKNOWN, inputTokens);
+    this.outputTokens = Math.max(UNKNOWN, outputTokens);
+    this.latencyMs = Math.max(UNKNOWN, latencyMs);
+  }
+
+  /**
+   * Get text of prompt which generated the result.
+   *
+   * @return the prompt text or null if not saved
+   * @since 1.1.1
+   */
+  public String getPrompt() {
+    return this.prompt;
+  }
+
+  public void setPrompt(final String prompt) {
+    this.prompt = prompt;
+  }
+
+  public String getModel() {
+    return this.model;
+  }
+
+  public long getInputTokens() {
+    return this.inputTokens;
+  }
+
+  public long getOutputTokens() {
+    return this.outputTokens;
+  }
+
+  public long getLatencyMs() {
+    return this.latencyMs;
+  }
+
+  /**
+   * Get distilled form of the raw model response kept in the result, the distilled text is memoized
+   * for the last used end of line.
+   *
+   * @param eol       the end of line used during distillation, must not be null
+   * @param distiller the distillation function, must not be null
+   * @return distilled result, must not be null
+   * @since 1.1.1
+   */
+  public synchronized String findDistilledResult(final String eol,
+                                                 final UnaryOperator<String> distiller) {
+    if (this.distilledResult == null || !Objects.equals(this.distilledEol, eol)) {
+      this.distilledResult = requireNonNull(distiller.apply(this.result));
+      this.distilledEol = eol;
+    }
+    return this.distilledResult;
   }
 }
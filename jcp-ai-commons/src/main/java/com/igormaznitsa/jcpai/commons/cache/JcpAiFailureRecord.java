@@ -0,0 +1,111 @@
+package com.igormaznitsa.jcpai.commons.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.gson.JsonObject;
+import java.time.Instant;
+
+/**
+ * Record of failed processing of prompt, it keeps the last error and number of failures.
+ *
+ * @since 1.1.1
+ */
+public class JcpAiFailureRecord {
+
+  private String key;
+  private String fileName;
+  private int line;
+  private String errorClass;
+  private String message;
+  private long count;
+  private Instant firstInstant;
+  private Instant lastInstant;
+
+  public JcpAiFailureRecord() {
+
+  }
+
+  public JcpAiFailureRecord(final JsonObject jsonObject) {
+    this.key = jsonObject.get("key").getAsString();
+    this.fileName = jsonObject.get("fileName").getAsString();
+    this.line = jsonObject.get("line").getAsInt();
+    this.errorClass = jsonObject.get("errorClass").getAsString();
+    this.message = jsonObject.has("message") ? jsonObject.get("message").getAsString() : null;
+    this.count = jsonObject.get("count").getAsLong();
+    this.firstInstant = Instant.parse(jsonObject.get("first").getAsString());
+    this.lastInstant = Instant.parse(jsonObject.get("last").getAsString());
+  }
+
+  public JsonObject toJsonObject() {
+    final JsonObject result = new JsonObject();
+    result.addProperty("key", this.key);
+    result.addProperty("fileName", this.fileName);
+    result.addProperty("line", this.line);
+    result.addProperty("errorClass", this.errorClass);
+    if (this.message != null) {
+      result.addProperty("message", this.message);
+    }
+    result.addProperty("count", this.count);
+    result.addProperty("first", this.firstInstant.toString());
+    result.addProperty("last", this.lastInstant.toString());
+    return result;
+  }
+
+  /**
+   * Register new failure, the error replaces previous one and counter is incremented.
+   *
+   * @param fileName   the source file path, must not be null
+   * @param line       the source line
+   * @param errorClass the error class name, must not be null
+   * @param message    the error message, can be null
+   * @param instant    time of failure, must not be null
+   */
+  public void onFailure(final String fileName, final int line, final String errorClass,
+                        final String message, final Instant instant) {
+    this.fileName = requireNonNull(fileName);
+    this.line = line;
+    this.errorClass = requireNonNull(errorClass);
+    this.message = message;
+    this.count++;
+    if (this.firstInstant == null) {
+      this.firstInstant = requireNonNull(instant);
+    }
+    this.lastInstant = requireNonNull(instant);
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public void setKey(final String key) {
+    this.key = requireNonNull(key);
+  }
+
+  public String getFileName() {
+    return this.fileName;
+  }
+
+  public int getLine() {
+    return this.line;
+  }
+
+  public String getErrorClass() {
+    return this.errorClass;
+  }
+
+  public String getMessage() {
+    return this.message;
+  }
+
+  public long getCount() {
+    return this.count;
+  }
+
+  public Instant getFirstInstant() {
+    return this.firstInstant;
+  }
+
+  public Instant getLastInstant() {
+    return this.lastInstant;
+  }
+}
@@ -2,6 +2,12 @@ package com.igormaznitsa.jcpai.commons.cache;
 
 import static java.util.Objects.requireNonNull;
 
+import com.igormaznitsa.jcpai.commons.jfr.CacheFlushEvent;
+import com.igormaznitsa.jcpai.commons.jfr.CacheLoadEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -9,16 +15,36 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class JcpAiPromptCacheFile {
 
+  /**
+   * Extension added to name of cache file to make name of its prompt similarity index file.
+   *
+   * @since 1.1.1
+   */
+  public static final String SIMILARITY_INDEX_EXTENSION = ".simidx";
+
+  /**
+   * Extension added to name of cache file to make name of its prompt failures file.
+   *
+   * @since 1.1.1
+   */
+  public static final String FAILURES_EXTENSION = ".failures";
+
   private final Path path;
   private final JcpAiPromptResultData cache;
+  private PromptSimilarityIndex similarityIndex;
+  private JcpAiPromptFailureData failureData;
 
   public JcpAiPromptCacheFile(final Path path) throws IOException {
     this.path = requireNonNull(path);
+    final CacheLoadEvent event = new CacheLoadEvent();
+    event.begin();
     String content = "[]";
     if (Files.isDirectory(this.path)) {
       throw new IOException("Required a file but found a directory: " + this.path);
@@ -27,6 +53,13 @@ public final class JcpAiPromptCacheFile {
     }
     this.cache = new JcpAiPromptResultData();
     this.cache.read(new StringReader(content));
+    event.end();
+    if (event.shouldCommit()) {
+      event.path = this.path.toString();
+      event.bytes = content.length();
+      event.records = this.cache.size();
+      event.commit();
+    }
   }
 
   public boolean isChanged() {
@@ -45,20 +78,139 @@ public final class JcpAiPromptCacheFile {
     return this.cache.stream();
   }
 
+  /**
+   * Get path of prompt similarity index file placed next to the cache file.
+   *
+   * @return path of the index file, must not be null
+   * @since 1.1.1
+   */
+  public Path getSimilarityIndexPath() {
+    return this.path.resolveSibling(this.path.getFileName() + SIMILARITY_INDEX_EXTENSION);
+  }
+
+  /**
+   * Get prompt similarity index of cached prompts. The index is loaded from its file at first
+   * call, if the file is not found or can't be read then index is built from cached records which
+   * have saved prompt text.
+   *
+   * @return the index, must not be null
+   * @since 1.1.1
+   */
+  public synchronized PromptSimilarityIndex getSimilarityIndex() {
+    if (this.similarityIndex == null) {
+      PromptSimilarityIndex index = new PromptSimilarityIndex();
+      final Path indexPath = this.getSimilarityIndexPath();
+      if (Files.isRegularFile(indexPath)) {
+        try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(indexPath)))) {
+          index.read(input);
+          index.retain(x -> this.cache.findRecord(x) != null);
+        } catch (IOException ex) {
+          index = new PromptSimilarityIndex();
+        }
+      }
+      final PromptSimilarityIndex loadedIndex = index;
+      this.cache.stream()
+          .filter(x -> x.getPrompt() != null && !loadedIndex.contains(x.getKey()))
+          .forEach(x -> loadedIndex.add(x.getKey(), x.getPrompt()));
+      this.similarityIndex = loadedIndex;
+    }
+    return this.similarityIndex;
+  }
+
+  /**
+   * Get path of prompt failures file placed next to the cache file.
+   *
+   * @return path of the failures file, must not be null
+   * @since 1.1.1
+   */
+  public Path getFailuresPath() {
+    return this.path.resolveSibling(this.path.getFileName() + FAILURES_EXTENSION);
+  }
+
+  /**
+   * Get failures of prompts registered for the cache, they are loaded from file at first call.
+   *
+   * @return the failure data, must not be null
+   * @throws IOException if the failures file can't be read
+   * @since 1.1.1
+   */
+  public synchronized JcpAiPromptFailureData getFailureData() throws IOException {
+    if (this.failureData == null) {
+      final JcpAiPromptFailureData data = new JcpAiPromptFailureData();
+      final Path failuresPath = this.getFailuresPath();
+      if (Files.isRegularFile(failuresPath)) {
+        data.read(new StringReader(Files.readString(failuresPath, StandardCharsets.UTF_8)));
+      }
+      this.failureData = data;
+    }
+    return this.failureData;
+  }
+
   public boolean flush(final Predicate<JcpAiCacheRecord> filter) throws IOException {
+    this.flushSimilarityIndex(filter);
+    this.flushFailureData();
     if (this.cache.isChanged()) {
+      final CacheFlushEvent event = new CacheFlushEvent();
+      event.begin();
       final StringWriter writer = new StringWriter(16384);
-      this.cache.write(writer, filter);
-      Files.writeString(this.path, writer.toString(),
+      final int records = this.cache.write(writer, filter);
+      final String content = writer.toString();
+      Files.writeString(this.path, content,
           StandardCharsets.UTF_8,
           StandardOpenOption.CREATE,
           StandardOpenOption.TRUNCATE_EXISTING,
           StandardOpenOption.WRITE);
+      event.end();
+      if (event.shouldCommit()) {
+        event.path = this.path.toString();
+        event.bytes = content.length();
+        event.records = records;
+        event.commit();
+      }
       return true;
     }
     return false;
   }
 
+  private synchronized void flushSimilarityIndex(final Predicate<JcpAiCacheRecord> filter)
+      throws IOException {
+    if (this.similarityIndex == null) {
+      return;
+    }
+    final Set<String> keptKeys = this.cache.stream()
+        .filter(filter)
+        .map(JcpAiCacheRecord::getKey)
+        .collect(Collectors.toSet());
+    this.similarityIndex.retain(keptKeys::contains);
+    if (this.similarityIndex.isChanged()) {
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(this.getSimilarityIndexPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)))) {
+        this.similarityIndex.write(output);
+      }
+    }
+  }
+
+  private synchronized void flushFailureData() throws IOException {
+    if (this.failureData == null || !this.failureData.isChanged()) {
+      return;
+    }
+    if (this.failureData.size() == 0) {
+      Files.deleteIfExists(this.getFailuresPath());
+    } else {
+      final StringWriter writer = new StringWriter();
+      this.failureData.write(writer);
+      Files.writeString(this.getFailuresPath(), writer.toString(),
+          StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.WRITE);
+    }
+  }
+
   public Path getPath() {
     return this.path;
   }
@@ -0,0 +1,115 @@
+package com.igormaznitsa.jcpai.commons.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Negative cache of prompts, it keeps failures of prompts by their cache keys so that prompts
+ * which always fail are not re-sent to model during backoff window.
+ *
+ * @since 1.1.1
+ */
+public class JcpAiPromptFailureData {
+
+  private final LinkedHashMap<String, JcpAiFailureRecord> records = new LinkedHashMap<>();
+  private boolean changed;
+
+  public JcpAiPromptFailureData() {
+  }
+
+  public synchronized int size() {
+    return this.records.size();
+  }
+
+  public synchronized void read(final Reader reader) {
+    this.records.clear();
+    final JsonArray array = new Gson().fromJson(reader, JsonArray.class);
+    for (int i = 0; i < array.size(); i++) {
+      final JcpAiFailureRecord record = new JcpAiFailureRecord(array.get(i).getAsJsonObject());
+      this.records.put(record.getKey(), record);
+    }
+    this.changed = false;
+  }
+
+  public synchronized JcpAiFailureRecord findRecord(final String key) {
+    return this.records.get(requireNonNull(key));
+  }
+
+  /**
+   * Find failure of prompt which happened not earlier than backoff window.
+   *
+   * @param key       the prompt cache key, must not be null
+   * @param backoffMs the backoff window in milliseconds
+   * @param now       the current time, must not be null
+   * @return found failure record or null if no failure within window
+   */
+  public synchronized JcpAiFailureRecord findActiveRecord(final String key, final long backoffMs,
+                                                          final Instant now) {
+    final JcpAiFailureRecord record = this.records.get(requireNonNull(key));
+    return record == null || !record.getLastInstant().plusMillis(backoffMs).isAfter(now) ? null
+        : record;
+  }
+
+  /**
+   * Register failure of prompt.
+   *
+   * @param key      the prompt cache key, must not be null
+   * @param fileName the source file path, must not be null
+   * @param line     the source line
+   * @param error    the error, must not be null
+   * @return the updated failure record, must not be null
+   */
+  public synchronized JcpAiFailureRecord register(final String key, final String fileName,
+                                                  final int line, final Throwable error) {
+    this.changed = true;
+    final JcpAiFailureRecord record = this.records.computeIfAbsent(requireNonNull(key), x -> {
+      final JcpAiFailureRecord newRecord = new JcpAiFailureRecord();
+      newRecord.setKey(x);
+      return newRecord;
+    });
+    record.onFailure(fileName, line, error.getClass().getName(), error.getMessage(),
+        Instant.now());
+    return record;
+  }
+
+  public synchronized boolean remove(final String key) {
+    final boolean removed = this.records.remove(requireNonNull(key)) != null;
+    this.changed |= removed;
+    return removed;
+  }
+
+  /**
+   * Remove all records which are not accepted by filter.
+   *
+   * @param filter the filter of records to be kept, must not be null
+   */
+  public synchronized void retain(final Predicate<JcpAiFailureRecord> filter) {
+    this.changed |= this.records.values().removeIf(filter.negate());
+  }
+
+  public synchronized boolean isChanged() {
+    return this.changed;
+  }
+
+  public synchronized int write(final Writer writer) throws IOException {
+    final JsonArray array = new JsonArray();
+    this.records.values().stream()
+        .sorted(Comparator.comparing(JcpAiFailureRecord::getKey))
+        .map(JcpAiFailureRecord::toJsonObject)
+        .forEach(array::add);
+    writer.append(new GsonBuilder().setPrettyPrinting().create().toJson(array));
+    writer.flush();
+    this.changed = false;
+    return array.size();
+  }
+}
@@ -10,13 +10,16 @@ import java.io.Reader;
 import java.io.Writer;
 import java.time.Instant;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class JcpAiPromptResultData {
 
   private final LinkedHashMap<String, JcpAiCacheRecord> records = new LinkedHashMap<>();
+  private final Map<String, JcpAiCacheRecord> latestRecords = new HashMap<>();
   private boolean changed;
 
   public JcpAiPromptResultData() throws IOException {
@@ -28,10 +31,13 @@ public class JcpAiPromptResultData {
 
   public synchronized void read(final Reader reader) {
     this.records.clear();
+    this.latestRecords.clear();
     final JsonArray array = new Gson().fromJson(reader, JsonArray.class);
     for (int i = 0; i < array.size(); i++) {
       final JcpAiCacheRecord record = new JcpAiCacheRecord(array.get(i).getAsJsonObject());
       this.records.put(record.getKey(), record);
+      this.latestRecords.merge(makePositionKey(record.getFileName(), record.getLine()), record,
+          (a, b) -> b.getInstant().isAfter(a.getInstant()) ? b : a);
     }
     this.changed = !this.records.isEmpty();
   }
@@ -41,8 +47,30 @@ public class JcpAiPromptResultData {
     return record == null ? null : record.getResult();
   }
 
-  public synchronized void put(final String key, final String fileName, final int line,
-                               final String response) {
+  public synchronized JcpAiCacheRecord findRecord(final String key) {
+    return this.records.get(requireNonNull(key));
+  }
+
+  private static String makePositionKey(final String fileName, final int line) {
+    return fileName + ':' + line;
+  }
+
+  /**
+   * Find the latest record made for source position, records are indexed by position so that
+   * search doesn't depend on number of records.
+   *
+   * @param fileName the source file path, must not be null
+   * @param line     the source line
+   * @return the latest record or null if not found
+   * @since 1.1.1
+   */
+  public synchronized JcpAiCacheRecord findLatestRecord(final String fileName, final int line) {
+    return this.latestRecords.get(makePositionKey(requireNonNull(fileName), line));
+  }
+
+  public synchronized JcpAiCacheRecord put(final String key, final String fileName,
+                                           final int line,
+                                           final String response) {
     this.changed = true;
 
     final JcpAiCacheRecord newRecord = new JcpAiCacheRecord();
@@ -52,10 +80,13 @@ public class JcpAiPromptResultData {
     newRecord.setKey(requireNonNull(key));
     newRecord.setResult(requireNonNull(response));
     this.records.put(key, newRecord);
+    this.latestRecords.put(makePositionKey(fileName, line), newRecord);
+    return newRecord;
   }
 
   public synchronized void clear() {
     this.records.clear();
+    this.latestRecords.clear();
   }
 
   public synchronized boolean isChanged() {
@@ -66,7 +97,7 @@ public class JcpAiPromptResultData {
     this.changed = changed;
   }
 
-  public synchronized void write(final Writer writer, final Predicate<JcpAiCacheRecord> filter)
+  public synchronized int write(final Writer writer, final Predicate<JcpAiCacheRecord> filter)
       throws IOException {
     final JsonArray array = new JsonArray();
     this.records.values().stream()
@@ -77,6 +108,7 @@ public class JcpAiPromptResultData {
         .forEach(array::add);
     writer.append(new GsonBuilder().setPrettyPrinting().create().toJson(array));
     writer.flush();
+    return array.size();
   }
 
   public Stream<JcpAiCacheRecord> stream() {
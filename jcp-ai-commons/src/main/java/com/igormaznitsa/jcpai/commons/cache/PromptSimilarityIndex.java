@@ -0,0 +1,277 @@
+package com.igormaznitsa.jcpai.commons.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+
+/**
+ * Index of cached prompts to find near-duplicate ones. Every prompt is normalized, split into
+ * char shingles and described by MinHash signature, candidates are selected through LSH bands so
+ * that lookup doesn't scan all prompts. Only signatures are stored, the index can be written into
+ * binary stream and read back.
+ *
+ * @since 1.1.1
+ */
+public final class PromptSimilarityIndex {
+
+  public static final int HASHES = 64;
+  public static final int BANDS = 16;
+  public static final int SHINGLE_LENGTH = 5;
+
+  private static final int ROWS = HASHES / BANDS;
+  private static final int MAGIC = 0x4A435049;
+  private static final int VERSION = 1;
+  private static final long PRIME = (1L << 31) - 1L;
+  private static final long SEED = 0x4A43505F4D484CL;
+  private static final long[] HASH_A = new long[HASHES];
+  private static final long[] HASH_B = new long[HASHES];
+
+  static {
+    final SplittableRandom random = new SplittableRandom(SEED);
+    for (int i = 0; i < HASHES; i++) {
+      HASH_A[i] = 1L + random.nextLong(PRIME - 1L);
+      HASH_B[i] = random.nextLong(PRIME);
+    }
+  }
+
+  private final Map<String, int[]> signatures = new HashMap<>();
+  private final Map<Long, Set<String>> buckets = new HashMap<>();
+  private boolean changed;
+
+  public PromptSimilarityIndex() {
+
+  }
+
+  /**
+   * Normalize text before comparison, case is ignored and all whitespace runs are replaced by
+   * single space.
+   *
+   * @param text the text, must not be null
+   * @return normalized text, must not be null
+   */
+  public static String normalize(final String text) {
+    final StringBuilder result = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      final char chr = text.charAt(i);
+      if (Character.isWhitespace(chr)) {
+        space = result.length() > 0;
+      } else {
+        if (space) {
+          result.append(' ');
+          space = false;
+        }
+        result.append(chr);
+      }
+    }
+    return result.toString().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Make MinHash signature of text.
+   *
+   * @param text the text, must not be null
+   * @return signature with {@link #HASHES} values
+   */
+  public static int[] makeSignature(final String text) {
+    final String normalized = normalize(text);
+    final int[] result = new int[HASHES];
+    Arrays.fill(result, Integer.MAX_VALUE);
+    final int shingles = Math.max(1, normalized.length() - SHINGLE_LENGTH + 1);
+    for (int i = 0; i < shingles; i++) {
+      final long shingle = hashShingle(normalized, i,
+          Math.min(normalized.length(), i + SHINGLE_LENGTH));
+      for (int h = 0; h < HASHES; h++) {
+        final int value = (int) ((HASH_A[h] * shingle + HASH_B[h]) % PRIME);
+        if (value < result[h]) {
+          result[h] = value;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Estimate Jaccard similarity of two texts through their signatures.
+   *
+   * @param first  the first signature, must not be null
+   * @param second the second signature, must not be null
+   * @return similarity in range 0..1
+   */
+  public static double estimateSimilarity(final int[] first, final int[] second) {
+    int equal = 0;
+    for (int i = 0; i < HASHES; i++) {
+      if (first[i] == second[i]) {
+        equal++;
+      }
+    }
+    return equal / (double) HASHES;
+  }
+
+  private static long hashShingle(final String text, final int start, final int end) {
+    int hash = 0x811C9DC5;
+    for (int i = start; i < end; i++) {
+      hash ^= text.charAt(i);
+      hash *= 0x01000193;
+    }
+    return hash & 0x7FFFFFFFL;
+  }
+
+  private static long makeBucketKey(final int[] signature, final int band) {
+    final int from = band * ROWS;
+    return ((long) band << 32)
+        | (Arrays.hashCode(Arrays.copyOfRange(signature, from, from + ROWS)) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Add prompt text into index, existing signature for the same key is replaced.
+   *
+   * @param key    the cache key of prompt, must not be null
+   * @param prompt the prompt text, must not be null
+   */
+  public synchronized void add(final String key, final String prompt) {
+    this.remove(requireNonNull(key));
+    this.register(key, makeSignature(requireNonNull(prompt)));
+    this.changed = true;
+  }
+
+  private void register(final String key, final int[] signature) {
+    this.signatures.put(key, signature);
+    for (int band = 0; band < BANDS; band++) {
+      this.buckets.computeIfAbsent(makeBucketKey(signature, band), x -> new HashSet<>()).add(key);
+    }
+  }
+
+  private boolean remove(final String key) {
+    final int[] signature = this.signatures.remove(key);
+    if (signature == null) {
+      return false;
+    }
+    for (int band = 0; band < BANDS; band++) {
+      final long bucketKey = makeBucketKey(signature, band);
+      final Set<String> bucket = this.buckets.get(bucketKey);
+      if (bucket != null) {
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+          this.buckets.remove(bucketKey);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove all keys which are not accepted by filter.
+   *
+   * @param filter the filter of keys to be kept, must not be null
+   */
+  public synchronized void retain(final Predicate<String> filter) {
+    for (final String key : Set.copyOf(this.signatures.keySet())) {
+      if (!filter.test(key) && this.remove(key)) {
+        this.changed = true;
+      }
+    }
+  }
+
+  /**
+   * Find the most similar indexed prompt.
+   *
+   * @param prompt    the prompt text, must not be null
+   * @param threshold minimal similarity in range 0..1
+   * @return pair of found key and estimated similarity, or null if not found
+   */
+  public synchronized Map.Entry<String, Double> findMostSimilar(final String prompt,
+                                                                final double threshold) {
+    final int[] signature = makeSignature(prompt);
+    final Set<String> candidates = new HashSet<>();
+    for (int band = 0; band < BANDS; band++) {
+      final Set<String> bucket = this.buckets.get(makeBucketKey(signature, band));
+      if (bucket != null) {
+        candidates.addAll(bucket);
+      }
+    }
+    String bestKey = null;
+    double bestSimilarity = -1.0d;
+    for (final String candidate : candidates) {
+      final double similarity =
+          estimateSimilarity(signature, this.signatures.get(candidate));
+      if (similarity >= threshold && (similarity > bestSimilarity
+          || (similarity == bestSimilarity && candidate.compareTo(bestKey) < 0))) {
+        bestKey = candidate;
+        bestSimilarity = similarity;
+      }
+    }
+    return bestKey == null ? null : new AbstractMap.SimpleImmutableEntry<>(bestKey, bestSimilarity);
+  }
+
+  public synchronized boolean contains(final String key) {
+    return this.signatures.containsKey(key);
+  }
+
+  public synchronized int size() {
+    return this.signatures.size();
+  }
+
+  public synchronized boolean isChanged() {
+    return this.changed;
+  }
+
+  /**
+   * Read index from stream, current content is replaced.
+   *
+   * @param input the input stream, must not be null
+   * @throws IOException if wrong format or any IO error
+   */
+  public synchronized void read(final DataInputStream input) throws IOException {
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not a prompt similarity index");
+    }
+    final int version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported prompt similarity index version: " + version);
+    }
+    final int count = input.readInt();
+    this.signatures.clear();
+    this.buckets.clear();
+    for (int i = 0; i < count; i++) {
+      final String key = input.readUTF();
+      final int[] signature = new int[HASHES];
+      for (int h = 0; h < HASHES; h++) {
+        signature[h] = input.readInt();
+      }
+      this.register(key, signature);
+    }
+    this.changed = false;
+  }
+
+  /**
+   * Write index into stream.
+   *
+   * @param output the output stream, must not be null
+   * @throws IOException if any IO error
+   */
+  public synchronized void write(final DataOutputStream output) throws IOException {
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(this.signatures.size());
+    for (final Map.Entry<String, int[]> entry : this.signatures.entrySet()) {
+      output.writeUTF(entry.getKey());
+      for (final int value : entry.getValue()) {
+        output.writeInt(value);
+      }
+    }
+    output.flush();
+    this.changed = false;
+  }
+}
@@ -0,0 +1,31 @@
+package com.igormaznitsa.jcpai.commons.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for writing of prompt cache file.
+ *
+ * @since 1.1.1
+ */
+@Name("com.igormaznitsa.jcpai.CacheFlush")
+@Label("Prompt Cache Flush")
+@Category("JCP-AI")
+@Description("Serialization and write of prompt cache file")
+@StackTrace(false)
+public class CacheFlushEvent extends Event {
+  @Label("Path")
+  public String path;
+
+  @Label("Size")
+  @DataAmount(DataAmount.BYTES)
+  public long bytes;
+
+  @Label("Records")
+  public int records;
+}
@@ -0,0 +1,29 @@
+package com.igormaznitsa.jcpai.commons.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for making of prompt key and search of cached response.
+ *
+ * @since 1.1.1
+ */
+@Name("com.igormaznitsa.jcpai.CacheLookup")
+@Label("Prompt Cache Lookup")
+@Category("JCP-AI")
+@Description("Hashing of prompt key and search of cached response")
+@StackTrace(false)
+public class CacheLookupEvent extends Event {
+  @Label("Provider")
+  public String provider;
+
+  @Label("Source")
+  public String source;
+
+  @Label("Hit")
+  public boolean hit;
+}
@@ -0,0 +1,38 @@
+package com.igormaznitsa.jcpai.commons.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for distillation of model response.
+ *
+ * @since 1.1.1
+ */
+@Name("com.igormaznitsa.jcpai.Distillation")
+@Label("Response Distillation")
+@Category("JCP-AI")
+@Description("Extraction of code from model response")
+@StackTrace(false)
+public class DistillationEvent extends Event {
+  @Label("Provider")
+  public String provider;
+
+  @Label("Source")
+  public String source;
+
+  @Label("Cached")
+  public boolean cached;
+
+  @Label("Input Chars")
+  @DataAmount(DataAmount.BYTES)
+  public long inputChars;
+
+  @Label("Output Chars")
+  @DataAmount(DataAmount.BYTES)
+  public long outputChars;
+}
@@ -0,0 +1,51 @@
+package com.igormaznitsa.jcpai.commons.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for request of prompt to model provider.
+ *
+ * @since 1.1.1
+ */
+@Name("com.igormaznitsa.jcpai.PromptRequest")
+@Label("Prompt Request")
+@Category("JCP-AI")
+@Description("Request of prompt to LLM provider")
+@StackTrace(false)
+public class PromptRequestEvent extends Event {
+  @Label("Provider")
+  public String provider;
+
+  @Label("Model")
+  public String model;
+
+  @Label("Source")
+  public String source;
+
+  @Label("Prompt Chars")
+  @DataAmount(DataAmount.BYTES)
+  public long promptChars;
+
+  @Label("History Items")
+  public int historyItems;
+
+  @Label("Response Chars")
+  @DataAmount(DataAmount.BYTES)
+  public long responseChars;
+
+  @Label("Input Tokens")
+  public long inputTokens = -1L;
+
+  @Label("Output Tokens")
+  public long outputTokens = -1L;
+
+  @Label("Error")
+  @Description("Error of failed request, null if request is successful")
+  public String error;
+}
@@ -0,0 +1,244 @@
+package com.igormaznitsa.jcpai.commons.jmx;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live statistics of processor registered as platform MBean.
+ *
+ * @since 1.1.1
+ */
+public class JcpAiProcessorStats implements JcpAiProcessorStatsMXBean {
+
+  public static final String DOMAIN = "com.igormaznitsa.jcpai";
+
+  private final String processorId;
+  private final BooleanSupplier startedSupplier;
+  private final Supplier<Map<String, Integer>> cacheFileRecordsSupplier;
+  private final LongAdder startedSessions = new LongAdder();
+  private final AtomicInteger inFlightRequests = new AtomicInteger();
+  private final LongAdder totalCalls = new LongAdder();
+  private final LongAdder totalErrors = new LongAdder();
+  private final LongAdder totalLatencyMs = new LongAdder();
+  private final LongAdder totalInputTokens = new LongAdder();
+  private final LongAdder totalOutputTokens = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+  private final AtomicLong lastFlushDurationMs = new AtomicLong();
+  private final AtomicInteger concurrencyLimit = new AtomicInteger();
+  private volatile ObjectName registeredName;
+
+  public JcpAiProcessorStats(final String processorId,
+                             final BooleanSupplier startedSupplier,
+                             final Supplier<Map<String, Integer>> cacheFileRecordsSupplier) {
+    this.processorId = requireNonNull(processorId);
+    this.startedSupplier = requireNonNull(startedSupplier);
+    this.cacheFileRecordsSupplier = requireNonNull(cacheFileRecordsSupplier);
+  }
+
+  /**
+   * Make object name for processor statistics MBean.
+   *
+   * @param processorId the processor id, must not be null
+   * @return the object name, must not be null
+   * @throws JMException if the name can't be made
+   */
+  public static ObjectName makeObjectName(final String processorId) throws JMException {
+    return new ObjectName(DOMAIN + ":type=Processor,name=" + ObjectName.quote(processorId));
+  }
+
+  /**
+   * Register the MBean in platform MBean server if not registered yet. If there is already MBean
+   * with the same name, for instance registered by processor loaded by another class loader of
+   * build daemon, then it is replaced.
+   *
+   * @return true if the MBean has been registered by the call, false if already registered
+   * @throws JMException if any JMX error
+   */
+  public synchronized boolean register() throws JMException {
+    if (this.registeredName != null) {
+      return false;
+    }
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = makeObjectName(this.processorId);
+    try {
+      server.registerMBean(this, name);
+    } catch (InstanceAlreadyExistsException ex) {
+      server.unregisterMBean(name);
+      server.registerMBean(this, name);
+    }
+    this.registeredName = name;
+    return true;
+  }
+
+  /**
+   * Unregister the MBean if it is registered.
+   *
+   * @throws JMException if any JMX error
+   */
+  public synchronized void unregister() throws JMException {
+    final ObjectName name = this.registeredName;
+    this.registeredName = null;
+    if (name != null) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    }
+  }
+
+  public void onSessionStarted() {
+    this.startedSessions.increment();
+  }
+
+  public void onRequestStarted() {
+    this.inFlightRequests.incrementAndGet();
+  }
+
+  /**
+   * Register completion of model request.
+   *
+   * @param latencyMs    latency of the request in milliseconds
+   * @param inputTokens  number of input tokens, negative if unknown
+   * @param outputTokens number of output tokens, negative if unknown
+   * @param error        true if the request failed
+   */
+  public void onRequestCompleted(final long latencyMs, final long inputTokens,
+                                 final long outputTokens, final boolean error) {
+    this.inFlightRequests.decrementAndGet();
+    this.totalCalls.increment();
+    this.totalLatencyMs.add(latencyMs);
+    if (error) {
+      this.totalErrors.increment();
+    }
+    if (inputTokens > 0L) {
+      this.totalInputTokens.add(inputTokens);
+    }
+    if (outputTokens > 0L) {
+      this.totalOutputTokens.add(outputTokens);
+    }
+  }
+
+  public void onCacheLookup(final boolean hit) {
+    if (hit) {
+      this.cacheHits.increment();
+    } else {
+      this.cacheMisses.increment();
+    }
+  }
+
+  public void onFlush(final long durationMs) {
+    this.lastFlushDurationMs.set(durationMs);
+  }
+
+  public void onConcurrencyLimit(final int limit) {
+    this.concurrencyLimit.set(limit);
+  }
+
+  @Override
+  public int getConcurrencyLimit() {
+    return this.concurrencyLimit.get();
+  }
+
+  @Override
+  public String getProcessorId() {
+    return this.processorId;
+  }
+
+  @Override
+  public boolean isStarted() {
+    return this.startedSupplier.getAsBoolean();
+  }
+
+  @Override
+  public long getStartedSessions() {
+    return this.startedSessions.sum();
+  }
+
+  @Override
+  public int getInFlightRequests() {
+    return this.inFlightRequests.get();
+  }
+
+  @Override
+  public long getTotalCalls() {
+    return this.totalCalls.sum();
+  }
+
+  @Override
+  public long getTotalErrors() {
+    return this.totalErrors.sum();
+  }
+
+  @Override
+  public long getTotalLatencyMs() {
+    return this.totalLatencyMs.sum();
+  }
+
+  @Override
+  public double getAverageLatencyMs() {
+    final long calls = this.getTotalCalls();
+    return calls == 0L ? 0.0d : (double) this.getTotalLatencyMs() / calls;
+  }
+
+  @Override
+  public long getTotalInputTokens() {
+    return this.totalInputTokens.sum();
+  }
+
+  @Override
+  public long getTotalOutputTokens() {
+    return this.totalOutputTokens.sum();
+  }
+
+  @Override
+  public long getCacheHits() {
+    return this.cacheHits.sum();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return this.cacheMisses.sum();
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    final long hits = this.getCacheHits();
+    final long total = hits + this.getCacheMisses();
+    return total == 0L ? 0.0d : (double) hits / total;
+  }
+
+  @Override
+  public long getLastFlushDurationMs() {
+    return this.lastFlushDurationMs.get();
+  }
+
+  @Override
+  public Map<String, Integer> getCacheFileRecords() {
+    return this.cacheFileRecordsSupplier.get();
+  }
+
+  @Override
+  public void resetCounters() {
+    this.startedSessions.reset();
+    this.totalCalls.reset();
+    this.totalErrors.reset();
+    this.totalLatencyMs.reset();
+    this.totalInputTokens.reset();
+    this.totalOutputTokens.reset();
+    this.cacheHits.reset();
+    this.cacheMisses.reset();
+    this.lastFlushDurationMs.set(0L);
+  }
+}
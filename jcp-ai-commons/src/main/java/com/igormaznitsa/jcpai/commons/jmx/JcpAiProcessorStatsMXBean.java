@@ -0,0 +1,59 @@
+package com.igormaznitsa.jcpai.commons.jmx;
+
+import java.util.Map;
+
+/**
+ * Management interface to watch live statistics of processor, the statistics are cumulative
+ * for all builds made by processor instance, it is useful for long-running build daemons.
+ *
+ * @since 1.1.1
+ */
+public interface JcpAiProcessorStatsMXBean {
+
+  String getProcessorId();
+
+  boolean isStarted();
+
+  long getStartedSessions();
+
+  int getInFlightRequests();
+
+  long getTotalCalls();
+
+  long getTotalErrors();
+
+  long getTotalLatencyMs();
+
+  double getAverageLatencyMs();
+
+  long getTotalInputTokens();
+
+  long getTotalOutputTokens();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  double getCacheHitRatio();
+
+  long getLastFlushDurationMs();
+
+  /**
+   * Get current limit of concurrent model requests.
+   *
+   * @return the limit or zero if adaptive concurrency limiter is not used
+   */
+  int getConcurrencyLimit();
+
+  /**
+   * Get number of records in every prompt cache file registered in current session.
+   *
+   * @return map of cache file paths to record numbers, must not be null
+   */
+  Map<String, Integer> getCacheFileRecords();
+
+  /**
+   * Reset all cumulative counters.
+   */
+  void resetCounters();
+}
@@ -0,0 +1,46 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of recently observed latencies.
+ *
+ * @since 1.1.1
+ */
+public class LatencyWindow {
+
+  private final long[] values;
+  private int size;
+  private int next;
+
+  public LatencyWindow(final int capacity) {
+    this.values = new long[Math.max(1, capacity)];
+  }
+
+  public synchronized void add(final long latencyMs) {
+    this.values[this.next] = latencyMs;
+    this.next = (this.next + 1) % this.values.length;
+    this.size = Math.min(this.values.length, this.size + 1);
+  }
+
+  public synchronized int size() {
+    return this.size;
+  }
+
+  public synchronized void clear() {
+    this.size = 0;
+    this.next = 0;
+  }
+
+  /**
+   * Get percentile of latencies in the window.
+   *
+   * @param percentile percentile in range 0..100
+   * @return the percentile value or zero if the window is empty
+   */
+  public synchronized long percentile(final double percentile) {
+    final long[] sorted = Arrays.copyOf(this.values, this.size);
+    Arrays.sort(sorted);
+    return PromptMetricsCollector.percentile(sorted, percentile);
+  }
+}
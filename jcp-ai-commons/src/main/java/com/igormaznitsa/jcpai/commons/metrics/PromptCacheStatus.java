@@ -0,0 +1,30 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+/**
+ * Status of prompt cache for a processed prompt.
+ *
+ * @since 1.1.1
+ */
+public enum PromptCacheStatus {
+  /**
+   * Response found in cache.
+   */
+  HIT,
+  /**
+   * Response not found in cache and requested from model.
+   */
+  MISS,
+  /**
+   * Cache is not used for the prompt, response requested from model.
+   */
+  DISABLED,
+  /**
+   * Response made for previous version of prompt at the same source position is found in cache
+   * and used instead of model request.
+   */
+  STALE,
+  /**
+   * Response for near-duplicate prompt is found in cache and reused instead of model request.
+   */
+  SIMILAR
+}
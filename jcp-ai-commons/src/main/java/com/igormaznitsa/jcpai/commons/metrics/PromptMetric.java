@@ -0,0 +1,144 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.gson.JsonObject;
+import com.igormaznitsa.jcpai.commons.PromptResponse;
+
+/**
+ * Metric of single prompt processing.
+ *
+ * @since 1.1.1
+ */
+public class PromptMetric {
+  private final String source;
+  private final String provider;
+  private String model;
+  private PromptCacheStatus cacheStatus = PromptCacheStatus.DISABLED;
+  private long latencyMs;
+  private long inputTokens = PromptResponse.UNKNOWN_TOKENS;
+  private long outputTokens = PromptResponse.UNKNOWN_TOKENS;
+  private long distillationMicros;
+  private long savedInputTokens = PromptResponse.UNKNOWN_TOKENS;
+  private long savedOutputTokens = PromptResponse.UNKNOWN_TOKENS;
+  private long savedLatencyMs = -1L;
+
+  public PromptMetric(final String source, final String provider) {
+    this.source = requireNonNull(source);
+    this.provider = requireNonNull(provider);
+  }
+
+  public JsonObject toJsonObject() {
+    final JsonObject result = new JsonObject();
+    result.addProperty("source", this.source);
+    result.addProperty("provider", this.provider);
+    if (this.model != null) {
+      result.addProperty("model", this.model);
+    }
+    result.addProperty("cache", this.cacheStatus.name());
+    result.addProperty("latencyMs", this.latencyMs);
+    result.addProperty("inputTokens", this.inputTokens);
+    result.addProperty("outputTokens", this.outputTokens);
+    result.addProperty("distillationMicros", this.distillationMicros);
+    if (!this.isModelCalled()) {
+      result.addProperty("savedInputTokens", this.savedInputTokens);
+      result.addProperty("savedOutputTokens", this.savedOutputTokens);
+      result.addProperty("savedLatencyMs", this.savedLatencyMs);
+    }
+    return result;
+  }
+
+  /**
+   * Fill metric by data from model response.
+   *
+   * @param response  the model response, must not be null
+   * @param latencyMs the latency of model request in milliseconds
+   */
+  public void setResponse(final PromptResponse response, final long latencyMs) {
+    this.model = response.getModel();
+    this.inputTokens = response.getInputTokens();
+    this.outputTokens = response.getOutputTokens();
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * Fill metric by usage data stored in cache record, it is what the cache saved for the prompt.
+   *
+   * @param model        the model generated cached response, can be null
+   * @param inputTokens  number of input tokens, negative if unknown
+   * @param outputTokens number of output tokens, negative if unknown
+   * @param latencyMs    generation latency in milliseconds, negative if unknown
+   */
+  public void setSaved(final String model, final long inputTokens, final long outputTokens,
+                       final long latencyMs) {
+    this.model = model;
+    this.savedInputTokens = inputTokens;
+    this.savedOutputTokens = outputTokens;
+    this.savedLatencyMs = latencyMs;
+  }
+
+  public long getSavedInputTokens() {
+    return this.savedInputTokens;
+  }
+
+  public long getSavedOutputTokens() {
+    return this.savedOutputTokens;
+  }
+
+  public long getSavedLatencyMs() {
+    return this.savedLatencyMs;
+  }
+
+  public boolean isModelCalled() {
+    return this.cacheStatus == PromptCacheStatus.MISS
+        || this.cacheStatus == PromptCacheStatus.DISABLED;
+  }
+
+  public String getSource() {
+    return this.source;
+  }
+
+  public String getProvider() {
+    return this.provider;
+  }
+
+  public String getModel() {
+    return this.model;
+  }
+
+  public void setModel(final String model) {
+    this.model = model;
+  }
+
+  public PromptCacheStatus getCacheStatus() {
+    return this.cacheStatus;
+  }
+
+  public void setCacheStatus(final PromptCacheStatus cacheStatus) {
+    this.cacheStatus = requireNonNull(cacheStatus);
+  }
+
+  public long getLatencyMs() {
+    return this.latencyMs;
+  }
+
+  public void setLatencyMs(final long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  public long getInputTokens() {
+    return this.inputTokens;
+  }
+
+  public long getOutputTokens() {
+    return this.outputTokens;
+  }
+
+  public long getDistillationMicros() {
+    return this.distillationMicros;
+  }
+
+  public void setDistillationMicros(final long distillationMicros) {
+    this.distillationMicros = distillationMicros;
+  }
+}
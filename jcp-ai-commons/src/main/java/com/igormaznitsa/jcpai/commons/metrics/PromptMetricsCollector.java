@@ -0,0 +1,250 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collector of prompt metrics during preprocessing session, it makes JSON report and text summary
+ * with latency percentiles.
+ *
+ * @since 1.1.1
+ */
+public class PromptMetricsCollector {
+
+  private static final long[] HISTOGRAM_BOUNDS_MS = {1000L, 5000L, 15000L, 30000L, 60000L};
+
+  private final List<PromptMetric> metrics = new ArrayList<>();
+  private Instant started = Instant.now();
+  private double inputTokenPrice;
+  private double outputTokenPrice;
+
+  public PromptMetricsCollector() {
+
+  }
+
+  /**
+   * Get percentile value from sorted array with nearest-rank method.
+   *
+   * @param sorted     sorted values, must not be null
+   * @param percentile percentile in range 0..100
+   * @return the percentile value or zero if array is empty
+   */
+  public static long percentile(final long[] sorted, final double percentile) {
+    if (sorted.length == 0) {
+      return 0L;
+    }
+    final int rank = (int) Math.ceil(percentile / 100.0d * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+  }
+
+  private static String histogramLabel(final int index) {
+    if (index == 0) {
+      return "<" + HISTOGRAM_BOUNDS_MS[0] / 1000L + "s";
+    } else if (index == HISTOGRAM_BOUNDS_MS.length) {
+      return ">=" + HISTOGRAM_BOUNDS_MS[index - 1] / 1000L + "s";
+    } else {
+      return HISTOGRAM_BOUNDS_MS[index - 1] / 1000L + "-" + HISTOGRAM_BOUNDS_MS[index] / 1000L + "s";
+    }
+  }
+
+  public synchronized void reset() {
+    this.metrics.clear();
+    this.started = Instant.now();
+  }
+
+  /**
+   * Set prices of tokens to estimate cost saved by cache.
+   *
+   * @param inputPricePerMillion  price of million input tokens, zero if unknown
+   * @param outputPricePerMillion price of million output tokens, zero if unknown
+   */
+  public synchronized void setTokenPrices(final double inputPricePerMillion,
+                                          final double outputPricePerMillion) {
+    this.inputTokenPrice = inputPricePerMillion;
+    this.outputTokenPrice = outputPricePerMillion;
+  }
+
+  private boolean isCostKnown() {
+    return this.inputTokenPrice > 0.0d || this.outputTokenPrice > 0.0d;
+  }
+
+  private double estimateCost(final long inputTokens, final long outputTokens) {
+    return (inputTokens * this.inputTokenPrice + outputTokens * this.outputTokenPrice)
+        / 1_000_000.0d;
+  }
+
+  public synchronized void add(final PromptMetric metric) {
+    this.metrics.add(requireNonNull(metric));
+  }
+
+  public synchronized boolean isEmpty() {
+    return this.metrics.isEmpty();
+  }
+
+  public synchronized List<PromptMetric> getMetrics() {
+    return List.copyOf(this.metrics);
+  }
+
+  private long[] findSortedModelLatencies() {
+    return this.metrics.stream()
+        .filter(PromptMetric::isModelCalled)
+        .mapToLong(PromptMetric::getLatencyMs)
+        .sorted()
+        .toArray();
+  }
+
+  private long[] makeHistogram(final long[] latencies) {
+    final long[] histogram = new long[HISTOGRAM_BOUNDS_MS.length + 1];
+    for (final long latency : latencies) {
+      int index = 0;
+      while (index < HISTOGRAM_BOUNDS_MS.length && latency >= HISTOGRAM_BOUNDS_MS[index]) {
+        index++;
+      }
+      histogram[index]++;
+    }
+    return histogram;
+  }
+
+  private List<PromptMetric> findSlowest(final int topN) {
+    return this.metrics.stream()
+        .filter(PromptMetric::isModelCalled)
+        .sorted(Comparator.comparingLong(PromptMetric::getLatencyMs).reversed())
+        .limit(Math.max(0, topN))
+        .toList();
+  }
+
+  private long countCacheStatus(final PromptCacheStatus status) {
+    return this.metrics.stream().filter(x -> x.getCacheStatus() == status).count();
+  }
+
+  private static long sumKnown(final List<PromptMetric> metrics,
+                               final ToLongFunction<PromptMetric> getter) {
+    return metrics.stream().mapToLong(getter).filter(x -> x > 0L).sum();
+  }
+
+  /**
+   * Write JSON report.
+   *
+   * @param writer      the writer, must not be null
+   * @param processorId the processor id to be written into report, must not be null
+   * @param topN        number of the slowest prompts to be listed separately
+   * @throws IOException if any IO error
+   */
+  public synchronized void write(final Writer writer, final String processorId, final int topN)
+      throws IOException {
+    final long[] latencies = this.findSortedModelLatencies();
+
+    final JsonObject latency = new JsonObject();
+    latency.addProperty("p50", percentile(latencies, 50.0d));
+    latency.addProperty("p95", percentile(latencies, 95.0d));
+    latency.addProperty("p99", percentile(latencies, 99.0d));
+    latency.addProperty("max", latencies.length == 0 ? 0L : latencies[latencies.length - 1]);
+
+    final JsonObject histogram = new JsonObject();
+    final long[] histogramValues = this.makeHistogram(latencies);
+    for (int i = 0; i < histogramValues.length; i++) {
+      histogram.addProperty(histogramLabel(i), histogramValues[i]);
+    }
+
+    final JsonObject summary = new JsonObject();
+    summary.addProperty("prompts", this.metrics.size());
+    summary.addProperty("modelCalls", latencies.length);
+    for (final PromptCacheStatus status : PromptCacheStatus.values()) {
+      summary.addProperty("cache" + status.name(), this.countCacheStatus(status));
+    }
+    summary.addProperty("inputTokens", sumKnown(this.metrics, PromptMetric::getInputTokens));
+    summary.addProperty("outputTokens", sumKnown(this.metrics, PromptMetric::getOutputTokens));
+    summary.addProperty("distillationMicros",
+        sumKnown(this.metrics, PromptMetric::getDistillationMicros));
+    summary.add("latencyMs", latency);
+    summary.add("latencyHistogram", histogram);
+
+    final long savedInputTokens = sumKnown(this.metrics, PromptMetric::getSavedInputTokens);
+    final long savedOutputTokens = sumKnown(this.metrics, PromptMetric::getSavedOutputTokens);
+    final JsonObject saved = new JsonObject();
+    saved.addProperty("inputTokens", savedInputTokens);
+    saved.addProperty("outputTokens", savedOutputTokens);
+    saved.addProperty("latencyMs", sumKnown(this.metrics, PromptMetric::getSavedLatencyMs));
+    if (this.isCostKnown()) {
+      saved.addProperty("estimatedCost", this.estimateCost(savedInputTokens, savedOutputTokens));
+    }
+    summary.add("savedByCache", saved);
+
+    final JsonArray slowest = new JsonArray();
+    this.findSlowest(topN).forEach(x -> slowest.add(x.toJsonObject()));
+
+    final JsonArray prompts = new JsonArray();
+    this.metrics.forEach(x -> prompts.add(x.toJsonObject()));
+
+    final JsonObject report = new JsonObject();
+    report.addProperty("processor", requireNonNull(processorId));
+    report.addProperty("started", this.started.toString());
+    report.addProperty("completed", Instant.now().toString());
+    report.add("summary", summary);
+    report.add("slowest", slowest);
+    report.add("prompts", prompts);
+
+    writer.append(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+    writer.flush();
+  }
+
+  /**
+   * Make text summary to be printed into log.
+   *
+   * @param topN number of the slowest prompts to be listed
+   * @return list of summary lines, must not be null
+   */
+  public synchronized List<String> makeSummary(final int topN) {
+    final long[] latencies = this.findSortedModelLatencies();
+    final List<String> result = new ArrayList<>();
+    result.add(String.format(
+        "prompts %d, model calls %d, cache hit %d, miss %d, disabled %d, stale %d, similar %d,"
+            + " tokens in %d, out %d",
+        this.metrics.size(), latencies.length,
+        this.countCacheStatus(PromptCacheStatus.HIT),
+        this.countCacheStatus(PromptCacheStatus.MISS),
+        this.countCacheStatus(PromptCacheStatus.DISABLED),
+        this.countCacheStatus(PromptCacheStatus.STALE),
+        this.countCacheStatus(PromptCacheStatus.SIMILAR),
+        sumKnown(this.metrics, PromptMetric::getInputTokens),
+        sumKnown(this.metrics, PromptMetric::getOutputTokens)));
+    final long savedInputTokens = sumKnown(this.metrics, PromptMetric::getSavedInputTokens);
+    final long savedOutputTokens = sumKnown(this.metrics, PromptMetric::getSavedOutputTokens);
+    final long savedLatencyMs = sumKnown(this.metrics, PromptMetric::getSavedLatencyMs);
+    if (savedInputTokens + savedOutputTokens + savedLatencyMs > 0L) {
+      result.add(String.format(Locale.ENGLISH,
+          "saved by cache: tokens in %d, out %d, generation %.1f s%s", savedInputTokens,
+          savedOutputTokens, savedLatencyMs / 1000.0d,
+          this.isCostKnown() ? String.format(Locale.ENGLISH, ", estimated cost %.4f",
+              this.estimateCost(savedInputTokens, savedOutputTokens)) : ""));
+    }
+    if (latencies.length > 0) {
+      result.add(String.format("latency p50 %d ms, p95 %d ms, p99 %d ms, max %d ms",
+          percentile(latencies, 50.0d),
+          percentile(latencies, 95.0d),
+          percentile(latencies, 99.0d),
+          latencies[latencies.length - 1]));
+      final long[] histogram = this.makeHistogram(latencies);
+      final StringBuilder histogramLine = new StringBuilder("latency histogram:");
+      for (int i = 0; i < histogram.length; i++) {
+        histogramLine.append(' ').append(histogramLabel(i)).append('=').append(histogram[i]);
+      }
+      result.add(histogramLine.toString());
+      this.findSlowest(topN).forEach(x -> result.add(
+          String.format("slow prompt %s, model %s, %d ms, tokens in %d, out %d", x.getSource(),
+              x.getModel(), x.getLatencyMs(), x.getInputTokens(), x.getOutputTokens())));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,132 @@
+package com.igormaznitsa.jcpai.commons.trace;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exporter writes spans into file in OTLP JSON format, the file can be opened by local trace
+ * viewers without any collector.
+ *
+ * @since 1.1.1
+ */
+public class OtlpJsonFileTraceExporter implements TraceExporter {
+
+  private static final int SPAN_KIND_INTERNAL = 1;
+  private static final int SPAN_KIND_CLIENT = 3;
+  private static final int STATUS_CODE_OK = 1;
+  private static final int STATUS_CODE_ERROR = 2;
+
+  private final Path path;
+
+  public OtlpJsonFileTraceExporter(final Path path) {
+    this.path = requireNonNull(path);
+  }
+
+  private static JsonObject makeAttribute(final String key, final Object value) {
+    final JsonObject attributeValue = new JsonObject();
+    if (value instanceof Boolean) {
+      attributeValue.addProperty("boolValue", (Boolean) value);
+    } else if (value instanceof Float || value instanceof Double) {
+      attributeValue.addProperty("doubleValue", ((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      attributeValue.addProperty("intValue", Long.toString(((Number) value).longValue()));
+    } else {
+      attributeValue.addProperty("stringValue", String.valueOf(value));
+    }
+    final JsonObject result = new JsonObject();
+    result.addProperty("key", key);
+    result.add("value", attributeValue);
+    return result;
+  }
+
+  private static JsonObject makeSpan(final TraceSpan span) {
+    final JsonObject result = new JsonObject();
+    result.addProperty("traceId", span.getTraceId());
+    result.addProperty("spanId", span.getSpanId());
+    if (span.getParentSpanId() != null) {
+      result.addProperty("parentSpanId", span.getParentSpanId());
+    }
+    result.addProperty("name", span.getName());
+    result.addProperty("kind",
+        span.getAttributes().containsKey("jcpai.provider.call") ? SPAN_KIND_CLIENT :
+            SPAN_KIND_INTERNAL);
+    result.addProperty("startTimeUnixNano", Long.toString(span.getStartEpochNanos()));
+    result.addProperty("endTimeUnixNano", Long.toString(span.getEndEpochNanos()));
+
+    final JsonArray attributes = new JsonArray();
+    for (final Map.Entry<String, Object> entry : span.getAttributes().entrySet()) {
+      attributes.add(makeAttribute(entry.getKey(), entry.getValue()));
+    }
+    result.add("attributes", attributes);
+
+    final JsonObject status = new JsonObject();
+    if (span.getErrorMessage() == null) {
+      status.addProperty("code", STATUS_CODE_OK);
+    } else {
+      status.addProperty("code", STATUS_CODE_ERROR);
+      status.addProperty("message", span.getErrorMessage());
+    }
+    result.add("status", status);
+    return result;
+  }
+
+  /**
+   * Make OTLP JSON document for spans.
+   *
+   * @param serviceName the service name, must not be null
+   * @param spans       list of spans, must not be null
+   * @return OTLP JSON document as JSON object
+   */
+  public static JsonObject makeDocument(final String serviceName, final List<TraceSpan> spans) {
+    final JsonArray resourceAttributes = new JsonArray();
+    resourceAttributes.add(makeAttribute("service.name", serviceName));
+    final JsonObject resource = new JsonObject();
+    resource.add("attributes", resourceAttributes);
+
+    final JsonObject scope = new JsonObject();
+    scope.addProperty("name", "com.igormaznitsa.jcpai");
+
+    final JsonArray spanArray = new JsonArray();
+    spans.forEach(x -> spanArray.add(makeSpan(x)));
+
+    final JsonObject scopeSpans = new JsonObject();
+    scopeSpans.add("scope", scope);
+    scopeSpans.add("spans", spanArray);
+    final JsonArray scopeSpansArray = new JsonArray();
+    scopeSpansArray.add(scopeSpans);
+
+    final JsonObject resourceSpans = new JsonObject();
+    resourceSpans.add("resource", resource);
+    resourceSpans.add("scopeSpans", scopeSpansArray);
+    final JsonArray resourceSpansArray = new JsonArray();
+    resourceSpansArray.add(resourceSpans);
+
+    final JsonObject result = new JsonObject();
+    result.add("resourceSpans", resourceSpansArray);
+    return result;
+  }
+
+  public Path getPath() {
+    return this.path;
+  }
+
+  @Override
+  public void export(final String serviceName, final List<TraceSpan> spans) throws IOException {
+    Files.writeString(this.path,
+        new GsonBuilder().setPrettyPrinting().create().toJson(makeDocument(serviceName, spans)),
+        StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+  }
+}
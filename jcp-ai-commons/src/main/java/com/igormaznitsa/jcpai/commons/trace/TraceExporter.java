@@ -0,0 +1,20 @@
+package com.igormaznitsa.jcpai.commons.trace;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exporter of finished trace spans.
+ *
+ * @since 1.1.1
+ */
+public interface TraceExporter {
+  /**
+   * Export spans.
+   *
+   * @param serviceName name of service to be recorded as resource of spans, must not be null
+   * @param spans       finished spans, must not be null
+   * @throws IOException if any IO error
+   */
+  void export(String serviceName, List<TraceSpan> spans) throws IOException;
+}
@@ -0,0 +1,135 @@
+package com.igormaznitsa.jcpai.commons.trace;
+
+import static java.util.Objects.requireNonNull;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Span of trace, it should be closed to be registered in its tracer.
+ *
+ * @since 1.1.1
+ */
+public class TraceSpan implements AutoCloseable {
+
+  static final TraceSpan NOOP = new TraceSpan();
+
+  private final Tracer tracer;
+  private final TraceSpan parent;
+  private final String traceId;
+  private final String spanId;
+  private final String name;
+  private final long startEpochNanos;
+  private final long startNanoTime;
+  private final Map<String, Object> attributes = new LinkedHashMap<>();
+  private long endEpochNanos;
+  private String errorMessage;
+  private boolean ended;
+
+  private TraceSpan() {
+    this.tracer = null;
+    this.parent = null;
+    this.traceId = "";
+    this.spanId = "";
+    this.name = "";
+    this.startEpochNanos = 0L;
+    this.startNanoTime = 0L;
+    this.ended = true;
+  }
+
+  TraceSpan(final Tracer tracer, final TraceSpan parent, final String traceId,
+            final String spanId, final String name) {
+    this.tracer = requireNonNull(tracer);
+    this.parent = parent;
+    this.traceId = requireNonNull(traceId);
+    this.spanId = requireNonNull(spanId);
+    this.name = requireNonNull(name);
+    final Instant now = Instant.now();
+    this.startEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    this.startNanoTime = System.nanoTime();
+  }
+
+  /**
+   * Set attribute of span, supported values are strings, numbers and booleans.
+   *
+   * @param key   the attribute key, must not be null
+   * @param value the attribute value, ignored if null
+   * @return the span
+   */
+  public synchronized TraceSpan setAttribute(final String key, final Object value) {
+    if (this.tracer != null && value != null) {
+      this.attributes.put(requireNonNull(key), value);
+    }
+    return this;
+  }
+
+  /**
+   * Mark span as failed one.
+   *
+   * @param error the error, must not be null
+   * @return the span
+   */
+  public synchronized TraceSpan setError(final Throwable error) {
+    if (this.tracer != null) {
+      this.errorMessage = error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+    return this;
+  }
+
+  public TraceSpan getParent() {
+    return this.parent;
+  }
+
+  public String getTraceId() {
+    return this.traceId;
+  }
+
+  public String getSpanId() {
+    return this.spanId;
+  }
+
+  public String getParentSpanId() {
+    return this.parent == null ? null : this.parent.spanId;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public long getStartEpochNanos() {
+    return this.startEpochNanos;
+  }
+
+  public synchronized long getEndEpochNanos() {
+    return this.endEpochNanos;
+  }
+
+  public synchronized Map<String, Object> getAttributes() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(this.attributes));
+  }
+
+  public synchronized String getErrorMessage() {
+    return this.errorMessage;
+  }
+
+  /**
+   * End the span and register it in tracer, repeated calls are ignored.
+   */
+  public void end() {
+    synchronized (this) {
+      if (this.ended) {
+        return;
+      }
+      this.ended = true;
+      this.endEpochNanos = this.startEpochNanos + (System.nanoTime() - this.startNanoTime);
+    }
+    this.tracer.onSpanEnd(this);
+  }
+
+  @Override
+  public void close() {
+    this.end();
+  }
+}
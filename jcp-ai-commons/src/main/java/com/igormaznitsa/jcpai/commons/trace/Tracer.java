@@ -0,0 +1,89 @@
+package com.igormaznitsa.jcpai.commons.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collector of trace spans for preprocessing session. Spans started in the same thread are nested.
+ *
+ * @since 1.1.1
+ */
+public class Tracer {
+
+  private final List<TraceSpan> finishedSpans = new ArrayList<>();
+  private final ThreadLocal<TraceSpan> currentSpan = new ThreadLocal<>();
+  private volatile String traceId = makeId(16);
+  private volatile boolean enabled;
+
+  private static String makeId(final int bytes) {
+    final StringBuilder buffer = new StringBuilder(bytes * 2);
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < bytes; i++) {
+      final int value = random.nextInt(256);
+      buffer.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 15, 16));
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Start new trace, all collected spans are removed.
+   *
+   * @param enabled true if spans should be collected, false if tracing is disabled
+   */
+  public synchronized void reset(final boolean enabled) {
+    this.finishedSpans.clear();
+    this.traceId = makeId(16);
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  public String getTraceId() {
+    return this.traceId;
+  }
+
+  /**
+   * Start span, it becomes child of current span of the thread.
+   *
+   * @param name name of the span, must not be null
+   * @return started span, must be closed
+   */
+  public TraceSpan startSpan(final String name) {
+    if (!this.enabled) {
+      return TraceSpan.NOOP;
+    }
+    final TraceSpan span =
+        new TraceSpan(this, this.currentSpan.get(), this.traceId, makeId(8), name);
+    this.currentSpan.set(span);
+    return span;
+  }
+
+  void onSpanEnd(final TraceSpan span) {
+    if (this.currentSpan.get() == span) {
+      if (span.getParent() == null) {
+        this.currentSpan.remove();
+      } else {
+        this.currentSpan.set(span.getParent());
+      }
+    }
+    synchronized (this) {
+      if (this.enabled && this.traceId.equals(span.getTraceId())) {
+        this.finishedSpans.add(span);
+      }
+    }
+  }
+
+  /**
+   * Get all finished spans and remove them from tracer.
+   *
+   * @return list of finished spans, must not be null
+   */
+  public synchronized List<TraceSpan> drainFinishedSpans() {
+    final List<TraceSpan> result = new ArrayList<>(this.finishedSpans);
+    this.finishedSpans.clear();
+    return result;
+  }
+}
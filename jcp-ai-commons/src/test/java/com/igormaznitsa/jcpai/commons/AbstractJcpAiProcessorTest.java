@@ -0,0 +1,589 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.StubJcpAiProcessor.asPromptText;
+import static com.igormaznitsa.jcpai.commons.StubJcpAiProcessor.makeContext;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.expression.Value;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AbstractJcpAiProcessorTest {
+
+  private static final String CODE = "```java\nint a = 1;\n```";
+
+  @TempDir
+  Path baseDir;
+
+  private static PreprocessorContext withFailureBackoff(final PreprocessorContext context) {
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILURE_BACKOFF_MS,
+        Value.valueOf(60000L));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_RETRY_MAX_ATTEMPTS,
+        Value.valueOf(1L));
+    return context;
+  }
+
+  @Test
+  void testRetryableFailureNotRegistered() {
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor((c, h, p) -> {
+      throw new StubJcpAiProcessor.StatusException(503);
+    });
+    final PreprocessorContext context = withFailureBackoff(makeContext(this.baseDir, "Main.java"));
+    processor.onContextStarted(context);
+    final String text = asPromptText("make variable");
+
+    assertThrows(StubJcpAiProcessor.StatusException.class,
+        () -> processor.processUncommentedText(context, 0, text));
+    assertThrows(StubJcpAiProcessor.StatusException.class,
+        () -> processor.processUncommentedText(context, 0, text));
+    assertEquals(2, processor.prompts.size());
+
+    processor.setHandler((c, h, p) -> PromptResponse.of(CODE, "model"));
+    assertEquals("int a = 1;", processor.processUncommentedText(context, 0, text));
+    processor.onContextStopped(context, null);
+    assertTrue(this.baseDir.resolve("prompts.cache").toFile().isFile());
+    assertFalse(this.baseDir.resolve("prompts.cache.failures").toFile().exists());
+  }
+
+  @Test
+  void testDeterministicFailuresRegistered() {
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor((c, h, p) -> {
+      if (p.contains("bad")) {
+        throw new StubJcpAiProcessor.StatusException(400);
+      }
+      return PromptResponse.of(" \n ", "model");
+    });
+    final PreprocessorContext context = withFailureBackoff(makeContext(this.baseDir, "Main.java"));
+    processor.onContextStarted(context);
+
+    assertThrows(StubJcpAiProcessor.StatusException.class,
+        () -> processor.processUncommentedText(context, 0, asPromptText("bad request")));
+    assertThrows(EmptyResponseException.class,
+        () -> processor.processUncommentedText(context, 0, asPromptText("blank response")));
+    assertEquals(2, processor.prompts.size());
+
+    final IllegalStateException badError = assertThrows(IllegalStateException.class,
+        () -> processor.processUncommentedText(context, 0, asPromptText("bad request")));
+    assertTrue(badError.getMessage().contains("is not sent because it failed 1 time(s)"));
+    assertThrows(IllegalStateException.class,
+        () -> processor.processUncommentedText(context, 0, asPromptText("blank response")));
+    assertEquals(2, processor.prompts.size());
+    processor.onContextStopped(context, null);
+  }
+
+  @Test
+  void testStaleOverBudgetNotMixedBetweenSameNamedFiles() {
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "a/Main.java");
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_BUDGET_MAX_CALLS,
+        Value.valueOf(1L));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_BUDGET_POLICY,
+        Value.valueOf("stale"));
+    processor.onContextStarted(context);
+
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("make variable")));
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("make changed variable")));
+
+    StubJcpAiProcessor.openFile(context, "b/Main.java", 0);
+    assertThrows(BudgetExceededException.class,
+        () -> processor.processUncommentedText(context, 0, asPromptText("make other variable")));
+    assertEquals(1, processor.prompts.size());
+    processor.onContextStopped(context, null);
+  }
+
+  @Test
+  void testStaleWhileRevalidateNotMixedBetweenSameNamedFiles() {
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor((c, h, p) ->
+        PromptResponse.of(p.contains("other") ? "```java\nint b = 2;\n```" : CODE, "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "a/Main.java");
+    context.setGlobalVariable(
+        AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_STALE_WHILE_REVALIDATE,
+        Value.valueOf(true));
+    processor.onContextStarted(context);
+
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("make variable")));
+    assertEquals(1, processor.prompts.size());
+
+    StubJcpAiProcessor.openFile(context, "b/Main.java", 0);
+    assertEquals("int b = 2;",
+        processor.processUncommentedText(context, 0, asPromptText("make other variable")));
+    assertEquals(2, processor.prompts.size());
+
+    StubJcpAiProcessor.openFile(context, "a/Main.java", 0);
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("make changed variable")));
+    processor.onContextStopped(context, null);
+    assertEquals(List.of("make variable", "make other variable", "make changed variable"),
+        processor.prompts);
+  }
+
+  @Test
+  void testDeltaHistorySentForChangedPrompt() {
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "a/Main.java");
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_DELTA, Value.valueOf(true));
+    processor.onContextStarted(context);
+
+    processor.processUncommentedText(context, 0, asPromptText("make variable"));
+    processor.processUncommentedText(context, 0, asPromptText("make variable named b"));
+    StubJcpAiProcessor.openFile(context, "b/Main.java", 0);
+    processor.processUncommentedText(context, 0, asPromptText("make other variable"));
+    processor.onContextStopped(context, null);
+
+    assertEquals(3, processor.histories.size());
+    assertTrue(processor.histories.get(0).isEmpty());
+    final List<ContentRecord> history = processor.histories.get(1);
+    assertEquals(List.of(ContentRole.SYSTEM, ContentRole.USER, ContentRole.ASSISTANT),
+        history.stream().map(ContentRecord::getRole).toList());
+    assertEquals("make variable", history.get(1).getText());
+    assertEquals(CODE, history.get(2).getText());
+    assertEquals("make variable named b\n\n" + AbstractJcpAiProcessor.DELTA_INSTRUCTION,
+        processor.prompts.get(1));
+    assertTrue(processor.histories.get(2).isEmpty());
+    assertEquals("make other variable", processor.prompts.get(2));
+  }
+
+  @Test
+  void testNoDeltaHistoryWithoutSavedPrompt() {
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    processor.onContextStarted(context);
+
+    processor.processUncommentedText(context, 0, asPromptText("make variable"));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_DELTA, Value.valueOf(true));
+    processor.processUncommentedText(context, 0, asPromptText("make variable named b"));
+    processor.onContextStopped(context, null);
+
+    assertEquals(List.of("make variable", "make variable named b"), processor.prompts);
+    assertTrue(processor.histories.get(1).isEmpty());
+  }
+
+  private static String callChain(final StubJcpAiProcessor processor,
+                                  final PreprocessorContext context, final String... prompts) {
+    return processor.processUserFunction(context, AbstractJcpAiProcessor.FUNCTION_AI_CHAIN,
+        Arrays.stream(prompts).map(Value::valueOf).toList()).asString();
+  }
+
+  @Test
+  void testChainStepsCached() {
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor(
+        (c, h, p) -> PromptResponse.of("```java\n// " + p + ' ' + h.size() + "\n```", "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    processor.onContextStarted(context);
+    assertEquals("// second 3", callChain(processor, context, "first", "second"));
+    processor.onContextStopped(context, null);
+    assertEquals(List.of("first", "second"), processor.prompts);
+
+    processor.onContextStarted(context);
+    assertEquals("// second 3", callChain(processor, context, "first", "second"));
+    assertEquals(2, processor.prompts.size());
+
+    assertEquals("// changed 3", callChain(processor, context, "first", "changed"));
+    assertEquals(List.of("first", "second", "changed"), processor.prompts);
+
+    assertEquals("// second 3", callChain(processor, context, "other", "second"));
+    assertEquals(List.of("first", "second", "changed", "other", "second"), processor.prompts);
+    assertEquals("// other 1", processor.histories.get(4).get(2).getText());
+    processor.onContextStopped(context, null);
+  }
+
+  private static PreprocessorContext withChainHistory(final PreprocessorContext context,
+                                                      final long maxTokens,
+                                                      final ChainHistoryStrategy strategy) {
+    context.removeGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE);
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_INSTRUCTION_SYSTEM,
+        Value.valueOf("sys"));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_CHAIN_HISTORY_MAX_TOKENS,
+        Value.valueOf(maxTokens));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_CHAIN_HISTORY_STRATEGY,
+        Value.valueOf(strategy.name()));
+    return context;
+  }
+
+  private static PromptResponse answerChainStep(final List<ContentRecord> history,
+                                                final String prompt,
+                                                final AtomicInteger summaries) {
+    if (history.get(0).getText().equals(AbstractJcpAiProcessor.CHAIN_SUMMARY_SYSTEM_INSTRUCTION)) {
+      return PromptResponse.of("summary " + summaries.incrementAndGet(), "model");
+    }
+    return PromptResponse.of("Here is the code:\n```java\n// " + prompt
+        + " which is answered by rather long line of code comment\n```", "model");
+  }
+
+  private static List<ContentRecord> history(final String... records) {
+    final List<ContentRecord> result = new ArrayList<>();
+    result.add(ContentRecord.of(ContentRole.SYSTEM, "sys"));
+    for (final String record : records) {
+      final int separator = record.indexOf(':');
+      result.add(ContentRecord.of(ContentRole.valueOf(record.substring(0, separator)),
+          record.substring(separator + 1)));
+    }
+    return result;
+  }
+
+  private static void assertHistory(final List<ContentRecord> expected,
+                                    final List<ContentRecord> history) {
+    assertEquals(expected.stream().map(x -> x.getRole() + ":" + x.getText()).toList(),
+        history.stream().map(x -> x.getRole() + ":" + x.getText()).toList());
+  }
+
+  @Test
+  void testChainHistoryNeverStartsWithResponse() {
+    for (final ChainHistoryStrategy strategy : ChainHistoryStrategy.values()) {
+      for (long maxTokens = 1L; maxTokens < 150L; maxTokens++) {
+        final AtomicInteger summaries = new AtomicInteger();
+        final StubJcpAiProcessor processor =
+            new StubJcpAiProcessor((c, h, p) -> answerChainStep(h, p, summaries));
+        final PreprocessorContext context =
+            withChainHistory(makeContext(this.baseDir, "Main.java"), maxTokens, strategy);
+        processor.onContextStarted(context);
+        callChain(processor, context, "p1", "p2", "p3", "p4", "p5");
+        processor.onContextStopped(context, null);
+        for (final List<ContentRecord> history : processor.histories) {
+          assertTrue(history.size() < 2 || history.get(1).getRole() == ContentRole.USER,
+              strategy + " " + maxTokens + " " + history);
+        }
+      }
+    }
+  }
+
+  @Test
+  void testChainHistoryDropResponses() {
+    final String response = "// p3 which is answered by rather long line of code comment";
+    final List<ContentRecord> expected =
+        history("USER:p1", "USER:p2", "USER:p3", "ASSISTANT:" + response);
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> answerChainStep(h, p, new AtomicInteger()));
+    final PreprocessorContext context = withChainHistory(makeContext(this.baseDir, "Main.java"),
+        TokenEstimator.estimateTokens(expected, "p4"), ChainHistoryStrategy.DROP_RESPONSES);
+    processor.onContextStarted(context);
+    callChain(processor, context, "p1", "p2", "p3", "p4");
+    processor.onContextStopped(context, null);
+    assertHistory(expected, processor.histories.get(3));
+  }
+
+  @Test
+  void testChainHistoryCodeOnly() {
+    final String response =
+        "Here is the code:\n```java\n// p3 which is answered by rather long line of code "
+            + "comment\n```";
+    final List<ContentRecord> expected = history(
+        "USER:p1", "ASSISTANT:// p1 which is answered by rather long line of code comment",
+        "USER:p2", "ASSISTANT:// p2 which is answered by rather long line of code comment",
+        "USER:p3", "ASSISTANT:" + response);
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> answerChainStep(h, p, new AtomicInteger()));
+    final PreprocessorContext context = withChainHistory(makeContext(this.baseDir, "Main.java"),
+        TokenEstimator.estimateTokens(expected, "p4"), ChainHistoryStrategy.CODE_ONLY);
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_DISTILLATE_RESPONSE,
+        Value.valueOf(false));
+    processor.onContextStarted(context);
+    callChain(processor, context, "p1", "p2", "p3", "p4");
+    processor.onContextStopped(context, null);
+    assertHistory(expected, processor.histories.get(3));
+  }
+
+  @Test
+  void testChainHistorySummarizedIncrementally() {
+    final String response = "// p3 which is answered by rather long line of code comment";
+    final List<ContentRecord> expected = history(
+        "USER:Summary of previous conversation:\nsummary 2", "USER:p3", "ASSISTANT:" + response);
+    final AtomicInteger summaries = new AtomicInteger();
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> answerChainStep(h, p, summaries));
+    final PreprocessorContext context = withChainHistory(makeContext(this.baseDir, "Main.java"),
+        TokenEstimator.estimateTokens(expected, "p4"), ChainHistoryStrategy.SUMMARIZE);
+    processor.onContextStarted(context);
+    callChain(processor, context, "p1", "p2", "p3", "p4");
+    processor.onContextStopped(context, null);
+
+    assertEquals(2, summaries.get());
+    final List<String> summaryPrompts =
+        processor.prompts.stream().filter(x -> x.startsWith("Summarize")).toList();
+    assertTrue(summaryPrompts.get(0).contains("USER:\np1\n"));
+    assertFalse(summaryPrompts.get(1).contains("USER:\np1\n"));
+    assertTrue(summaryPrompts.get(1).contains("summary 1\n\nUSER:\np2\n"));
+    assertHistory(expected, processor.histories.get(processor.histories.size() - 1));
+  }
+
+  private static PreprocessorContext withFailover(final PreprocessorContext context) {
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_PROCESSORS,
+        Value.valueOf("STUB,BACKUP"));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_FAILOVER_MIN_CALLS,
+        Value.valueOf(2L));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_RETRY_MAX_ATTEMPTS,
+        Value.valueOf(1L));
+    return context;
+  }
+
+  private static int countPrimaryCalls(final int status, final Path baseDir) {
+    final StubJcpAiProcessor primary = new StubJcpAiProcessor((c, h, p) -> {
+      throw new StubJcpAiProcessor.StatusException(status);
+    });
+    final StubJcpAiProcessor backup =
+        new StubJcpAiProcessor("BACKUP", (c, h, p) -> PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = withFailover(makeContext(baseDir, "Main.java"));
+    primary.onContextStarted(context);
+    backup.onContextStarted(context);
+    for (int i = 0; i < 4; i++) {
+      assertEquals("int a = 1;",
+          primary.processUncommentedText(context, 0, asPromptText("make variable " + i)));
+    }
+    primary.onContextStopped(context, null);
+    backup.onContextStopped(context, null);
+    assertEquals(4, backup.prompts.size());
+    return primary.prompts.size();
+  }
+
+  @Test
+  void testCircuitBreakerCountsOnlyRetryableErrors(@TempDir final Path otherDir) {
+    assertEquals(4, countPrimaryCalls(400, this.baseDir));
+    assertEquals(2, countPrimaryCalls(503, otherDir));
+  }
+
+  @Test
+  void testPromptCachesFlushedOnlyAfterFailoverFailed() {
+    final StubJcpAiProcessor primary =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    final StubJcpAiProcessor backup =
+        new StubJcpAiProcessor("BACKUP", (c, h, p) -> PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = withFailover(makeContext(this.baseDir, "Main.java"));
+    final Path cacheFile = this.baseDir.resolve("prompts.cache");
+    primary.onContextStarted(context);
+    backup.onContextStarted(context);
+    assertEquals("int a = 1;",
+        primary.processUncommentedText(context, 0, asPromptText("make variable")));
+    primary.setHandler((c, h, p) -> {
+      throw new StubJcpAiProcessor.StatusException(503);
+    });
+    assertEquals("int a = 1;",
+        primary.processUncommentedText(context, 0, asPromptText("make other variable")));
+    assertFalse(cacheFile.toFile().exists());
+
+    backup.setHandler((c, h, p) -> {
+      throw new StubJcpAiProcessor.StatusException(503);
+    });
+    assertThrows(RuntimeException.class,
+        () -> primary.processUncommentedText(context, 0, asPromptText("make third variable")));
+    assertTrue(cacheFile.toFile().isFile());
+    primary.onContextStopped(context, null);
+    backup.onContextStopped(context, null);
+  }
+
+  @Test
+  void testRevalidatedFailoverResponseNotCachedUnderPrimaryKey() {
+    final StubJcpAiProcessor primary =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    final StubJcpAiProcessor backup = new StubJcpAiProcessor("BACKUP",
+        (c, h, p) -> PromptResponse.of("```java\nint b = 2;\n```", "model"));
+    final PreprocessorContext context = withFailover(makeContext(this.baseDir, "Main.java"));
+    context.setGlobalVariable(
+        AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_STALE_WHILE_REVALIDATE,
+        Value.valueOf(true));
+    primary.onContextStarted(context);
+    backup.onContextStarted(context);
+    assertEquals("int a = 1;",
+        primary.processUncommentedText(context, 0, asPromptText("make variable")));
+    primary.setHandler((c, h, p) -> {
+      throw new StubJcpAiProcessor.StatusException(503);
+    });
+    assertEquals("int a = 1;",
+        primary.processUncommentedText(context, 0, asPromptText("make changed variable")));
+    primary.onContextStopped(context, null);
+    backup.onContextStopped(context, null);
+    assertEquals(List.of("make changed variable"), backup.prompts);
+
+    context.removeGlobalVariable(
+        AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_STALE_WHILE_REVALIDATE);
+    primary.setHandler((c, h, p) -> PromptResponse.of("```java\nint c = 3;\n```", "model"));
+    primary.onContextStarted(context);
+    assertEquals("int c = 3;",
+        primary.processUncommentedText(context, 0, asPromptText("make changed variable")));
+    primary.onContextStopped(context, null);
+  }
+
+  @Test
+  void testPackedAnswerWithoutCodeSentSeparately() {
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor((c, h, p) ->
+        p.contains("### REQUEST")
+            ? PromptResponse.of("{\"answers\":[{\"id\":1,\"answer\":\"{ }\"},"
+            + "{\"id\":2,\"answer\":\"```java\\nint b = 2;\\n```\"}]}", "model")
+            : PromptResponse.of(CODE, "model"));
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_PACK_MAX_PROMPTS,
+        Value.valueOf(2L));
+    processor.onContextStarted(context);
+
+    assertEquals("int a = 1;\n// separator\nint b = 2;", processor.processUncommentedText(context,
+        0, asPromptText("first prompt", "second prompt")));
+    processor.onContextStopped(context, null);
+    assertEquals(2, processor.prompts.size());
+    assertEquals("first prompt", processor.prompts.get(1));
+  }
+
+  private StubJcpAiProcessor makeCacheOnlyProcessor(final PreprocessorContext context) {
+    final StubJcpAiProcessor processor =
+        new StubJcpAiProcessor((c, h, p) -> PromptResponse.of(CODE, "model"));
+    processor.onContextStarted(context);
+    processor.processUncommentedText(context, 0, asPromptText("cached prompt"));
+    processor.onContextStopped(context, null);
+    processor.setHandler((c, h, p) -> fail("model must not be requested in cache-only mode"));
+    processor.prompts.clear();
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_PROMPT_CACHE_ONLY,
+        Value.valueOf(true));
+    return processor;
+  }
+
+  @Test
+  void testCacheOnlyMissesReportedTogether() {
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    final StubJcpAiProcessor processor = this.makeCacheOnlyProcessor(context);
+    processor.onContextStarted(context);
+
+    final String result = processor.processUncommentedText(context, 0,
+        asPromptText("cached prompt", "first missed prompt", "second missed prompt"));
+    assertTrue(result.startsWith("int a = 1;\n// separator\n"), result);
+    assertEquals("", callChain(processor, context, "first chain step", "second chain step"));
+    assertTrue(processor.prompts.isEmpty());
+
+    final IllegalStateException error =
+        assertThrows(IllegalStateException.class, () -> processor.onContextStopped(context, null));
+    assertTrue(error.getMessage().startsWith("4 prompt(s) not found in cache in cache-only mode:"));
+    for (final String prompt : List.of("first missed prompt", "second missed prompt",
+        "first chain step", "second chain step")) {
+      assertTrue(error.getMessage().contains(prompt), prompt);
+    }
+    assertFalse(error.getMessage().contains("cached prompt"));
+    assertTrue(error.getMessage().contains("depends on missing step 1: second chain step"),
+        error.getMessage());
+    processor.onContextStopped(context, null);
+    assertTrue(processor.prompts.isEmpty());
+  }
+
+  @Test
+  void testCacheOnlyMissesNotThrownOnError() {
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    final StubJcpAiProcessor processor = this.makeCacheOnlyProcessor(context);
+    processor.onContextStarted(context);
+    processor.processUncommentedText(context, 0, asPromptText("missed prompt"));
+    processor.onContextStopped(context, new IllegalStateException("preprocessing failed"));
+    assertTrue(processor.prompts.isEmpty());
+
+    processor.onContextStarted(context);
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("cached prompt")));
+    processor.onContextStopped(context, null);
+  }
+
+  private static PromptResponse sleepAndAnswer(final long delayMs, final String text,
+                                               final AtomicInteger interrupted) {
+    try {
+      Thread.sleep(delayMs);
+    } catch (InterruptedException ex) {
+      interrupted.incrementAndGet();
+      throw new IllegalStateException("interrupted", ex);
+    }
+    return PromptResponse.of(text, "model");
+  }
+
+  private static boolean isHedged(final PreprocessorContext context) {
+    return AbstractJcpAiProcessor.findPreprocessorVar(StubJcpAiProcessor.MODEL_PROPERTY, context)
+        .isPresent();
+  }
+
+  private StubJcpAiProcessor startHedgedProcessor(final PreprocessorContext context,
+                                                  final float maxRatio,
+                                                  final StubJcpAiProcessor.PromptHandler handler) {
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_PERCENTILE,
+        Value.valueOf(50.0f));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_MAX_RATIO,
+        Value.valueOf(maxRatio));
+    context.setGlobalVariable(AbstractJcpAiProcessor.PROPERTY_JCPAI_HEDGE_MODEL,
+        Value.valueOf("hedge"));
+    final StubJcpAiProcessor processor = new StubJcpAiProcessor(
+        (c, h, p) -> p.startsWith("warm") ? sleepAndAnswer(20L, CODE, new AtomicInteger())
+            : handler.handle(c, h, p));
+    processor.onContextStarted(context);
+    for (int i = 0; i < AbstractJcpAiProcessor.HEDGE_MIN_SAMPLES; i++) {
+      processor.processUncommentedText(context, 0, asPromptText("warm " + i));
+    }
+    processor.prompts.clear();
+    processor.models.clear();
+    return processor;
+  }
+
+  @Test
+  void testHedgedRequestWinsAndPrimaryCancelled() {
+    final AtomicInteger interrupted = new AtomicInteger();
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    final StubJcpAiProcessor processor = this.startHedgedProcessor(context, 1.0f,
+        (c, h, p) -> isHedged(c)
+            ? PromptResponse.of("```java\nint h = 1;\n```", "hedge")
+            : sleepAndAnswer(10000L, CODE, interrupted));
+
+    final long start = System.currentTimeMillis();
+    assertEquals("int h = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("slow prompt")));
+    assertTrue(System.currentTimeMillis() - start < 10000L);
+    processor.onContextStopped(context, null);
+
+    assertEquals(Arrays.asList(null, "hedge"), processor.models);
+    final long deadline = System.currentTimeMillis() + 5000L;
+    while (interrupted.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(1, interrupted.get());
+  }
+
+  @Test
+  void testFirstInvalidResponseDoesNotWin() {
+    final AtomicInteger interrupted = new AtomicInteger();
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    final StubJcpAiProcessor processor = this.startHedgedProcessor(context, 1.0f,
+        (c, h, p) -> isHedged(c)
+            ? PromptResponse.of(" ", "hedge")
+            : sleepAndAnswer(200L, CODE, interrupted));
+
+    assertEquals("int a = 1;",
+        processor.processUncommentedText(context, 0, asPromptText("slow prompt")));
+    processor.onContextStopped(context, null);
+    assertEquals(Arrays.asList(null, "hedge"), processor.models);
+    assertEquals(0, interrupted.get());
+  }
+
+  @Test
+  void testHedgedRequestsLimitedByRatio() {
+    final AtomicInteger interrupted = new AtomicInteger();
+    final PreprocessorContext context = makeContext(this.baseDir, "Main.java");
+    final StubJcpAiProcessor processor = this.startHedgedProcessor(context, 0.5f,
+        (c, h, p) -> isHedged(c)
+            ? PromptResponse.of("```java\nint h = 1;\n```", "hedge")
+            : sleepAndAnswer(200L, CODE, interrupted));
+
+    final List<String> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(
+          processor.processUncommentedText(context, 0, asPromptText("slow prompt " + i)));
+    }
+    processor.onContextStopped(context, null);
+
+    assertEquals(List.of("int a = 1;", "int h = 1;", "int a = 1;", "int h = 1;"), results);
+    assertEquals(2, processor.models.stream().filter("hedge"::equals).count());
+  }
+}
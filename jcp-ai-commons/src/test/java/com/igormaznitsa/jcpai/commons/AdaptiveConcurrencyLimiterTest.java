@@ -0,0 +1,61 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+  private static void request(final AdaptiveConcurrencyLimiter limiter, final long latency,
+                              final boolean throttled) throws Exception {
+    limiter.acquire();
+    limiter.release(latency, throttled);
+  }
+
+  @Test
+  void testGrowWhileLatencyFlat() throws Exception {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 4);
+    for (int i = 0; i < 100; i++) {
+      request(limiter, 1000L, false);
+    }
+    assertEquals(4, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void testDecreaseOnThrottlingAndLatency() throws Exception {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 16);
+    request(limiter, 1000L, false);
+    request(limiter, 1000L, true);
+    assertEquals(4, limiter.getLimit());
+    request(limiter, 5000L, false);
+    assertEquals(3, limiter.getLimit());
+    for (int i = 0; i < 20; i++) {
+      request(limiter, -1L, true);
+    }
+    assertEquals(1, limiter.getLimit());
+  }
+
+  @Test
+  void testWaitForLimit() throws Exception {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+    limiter.acquire();
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final Thread thread = new Thread(() -> {
+      try {
+        limiter.acquire();
+        acquired.countDown();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    thread.start();
+    assertEquals(1L, acquired.getCount());
+    limiter.release(100L, false);
+    assertTrue(acquired.await(5L, TimeUnit.SECONDS));
+    thread.join();
+  }
+}
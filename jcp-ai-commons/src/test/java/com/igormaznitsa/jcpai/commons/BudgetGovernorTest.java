@@ -0,0 +1,51 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BudgetGovernorTest {
+
+  @Test
+  void testNoLimits() {
+    final BudgetGovernor governor = new BudgetGovernor();
+    governor.reset(0L, 0L, 0L);
+    assertFalse(governor.isLimited());
+    for (int i = 0; i < 100; i++) {
+      governor.register(1000L, 1000L);
+    }
+    assertNull(governor.findExceededLimit());
+  }
+
+  @Test
+  void testCallLimit() {
+    final BudgetGovernor governor = new BudgetGovernor();
+    governor.reset(2L, 0L, 0L);
+    assertTrue(governor.isLimited());
+    governor.register(10L, 10L);
+    assertDoesNotThrow(governor::check);
+    governor.register(10L, 10L);
+    assertThrows(BudgetExceededException.class, governor::check);
+
+    governor.reset(2L, 0L, 0L);
+    assertDoesNotThrow(governor::check);
+  }
+
+  @Test
+  void testTokenAndTimeLimits() {
+    final BudgetGovernor governor = new BudgetGovernor();
+    governor.reset(0L, 100L, 0L);
+    governor.register(99L, 10L);
+    assertNull(governor.findExceededLimit());
+    governor.register(1L, 10L);
+    assertTrue(governor.findExceededLimit().contains("token"));
+
+    governor.reset(0L, 0L, 1000L);
+    governor.register(-1L, 1000L);
+    assertTrue(governor.findExceededLimit().contains("ms"));
+  }
+}
@@ -0,0 +1,57 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+  @Test
+  void testOpenOnErrorRateAndProbe() {
+    final AtomicLong clock = new AtomicLong(1000L);
+    final CircuitBreaker breaker = new CircuitBreaker(clock::get);
+    breaker.configure(4, 2, 0.5d, 0L, 1.0d, 5000L);
+
+    assertTrue(breaker.isCallPermitted());
+    assertNull(breaker.onCall(100L, false));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.onCall(100L, true));
+    assertFalse(breaker.isCallPermitted());
+
+    clock.addAndGet(5000L);
+    assertTrue(breaker.isCallPermitted());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.isCallPermitted());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.onCall(100L, true));
+
+    clock.addAndGet(5000L);
+    assertTrue(breaker.isCallPermitted());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.onCall(100L, false));
+    assertTrue(breaker.isCallPermitted());
+  }
+
+  @Test
+  void testOpenOnSlowCalls() {
+    final CircuitBreaker breaker = new CircuitBreaker(() -> 0L);
+    breaker.configure(10, 3, 0.5d, 1000L, 0.6d, 1000L);
+
+    assertNull(breaker.onCall(2000L, false));
+    assertNull(breaker.onCall(100L, false));
+    assertNull(breaker.onCall(100L, false));
+    assertNull(breaker.onCall(2000L, false));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.onCall(3000L, false));
+    assertFalse(breaker.isCallPermitted());
+  }
+
+  @Test
+  void testMinCalls() {
+    final CircuitBreaker breaker = new CircuitBreaker(() -> 0L);
+    breaker.configure(10, 3, 0.5d, 0L, 1.0d, 1000L);
+    assertNull(breaker.onCall(100L, true));
+    assertNull(breaker.onCall(100L, true));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.onCall(100L, true));
+  }
+}
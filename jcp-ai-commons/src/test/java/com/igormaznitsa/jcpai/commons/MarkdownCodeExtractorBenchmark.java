@@ -0,0 +1,105 @@
+package com.igormaznitsa.jcpai.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Warmed-up nanoTime harness comparing the regular expression fenced code extraction used before
+ * 1.1.1 with the line scanner of {@link MarkdownCodeExtractor}. It is not a unit test and is
+ * started manually from test classpath:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *   com.igormaznitsa.jcpai.commons.MarkdownCodeExtractorBenchmark
+ * </pre>
+ * where cp.txt is made by {@code mvn dependency:build-classpath -Dmdep.outputFile=cp.txt}.
+ */
+final class MarkdownCodeExtractorBenchmark {
+
+  private static final Pattern LEGACY_FENCED_PATTERN =
+      Pattern.compile("^\\s*```[^\\r\\n]*$(.*?)^\\s*```[^\\r\\n]*$",
+          Pattern.MULTILINE | Pattern.DOTALL);
+
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int MEASURED_ROUNDS = 50;
+
+  private static volatile Object sink;
+
+  private MarkdownCodeExtractorBenchmark() {
+
+  }
+
+  static List<String> extractLegacy(final String markdown) {
+    final List<String> codeBlocks = new ArrayList<>();
+    final Matcher matcher = LEGACY_FENCED_PATTERN.matcher(markdown);
+    while (matcher.find()) {
+      codeBlocks.add(matcher.group(1).trim());
+    }
+    return codeBlocks;
+  }
+
+  static String makeLargeResponse() {
+    final StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      buffer.append("Explanation of block ").append(i).append(" with some words.\n```java\n");
+      for (int j = 0; j < 60; j++) {
+        buffer.append("    int value").append(j).append(" = compute(").append(j).append(");\n");
+      }
+      buffer.append("```\n");
+    }
+    return buffer.toString();
+  }
+
+  static String makeUnclosedFence() {
+    final StringBuilder buffer = new StringBuilder("```java\n");
+    for (int i = 0; i < 20000; i++) {
+      buffer.append("int a").append(i).append(" = ").append(i).append(";\n");
+    }
+    return buffer.toString();
+  }
+
+  static String makeWhitespaceLines() {
+    return "   \n".repeat(2000) + "code";
+  }
+
+  static String makeAlternatingFences() {
+    final StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      buffer.append(i % 2 == 0 ? "```java\n" : "```\n").append("line ").append(i).append('\n');
+    }
+    return buffer.toString();
+  }
+
+  private static double measureMicros(final Function<String, List<String>> extractor,
+                                      final String text) {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      sink = extractor.apply(text);
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      sink = extractor.apply(text);
+    }
+    return (System.nanoTime() - start) / 1000.0d / MEASURED_ROUNDS;
+  }
+
+  public static void main(final String... args) {
+    final String[][] cases = {
+        {"large, 200 blocks", makeLargeResponse()},
+        {"unclosed fence, 20k lines", makeUnclosedFence()},
+        {"2k whitespace-only lines", makeWhitespaceLines()},
+        {"2k alternating fences", makeAlternatingFences()}
+    };
+    for (final String[] benchmarkCase : cases) {
+      final double legacy =
+          measureMicros(MarkdownCodeExtractorBenchmark::extractLegacy, benchmarkCase[1]);
+      final double scanner =
+          measureMicros(MarkdownCodeExtractor::extractFencedCodeBlocks, benchmarkCase[1]);
+      System.out.printf(Locale.ROOT, "%-28s %10.1f us -> %8.1f us%n", benchmarkCase[0], legacy,
+          scanner);
+    }
+  }
+}
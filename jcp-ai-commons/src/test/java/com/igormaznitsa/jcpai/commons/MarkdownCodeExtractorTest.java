@@ -349,4 +349,35 @@ public class MarkdownCodeExtractorTest {
     assertEquals("b = 2", result.get(1));
     assertEquals("let c = 3;", result.get(2));
   }
-}
\ No newline at end of file
+
+  @Test
+  @DisplayName("Should extract fenced code blocks from streamed chunks")
+  void shouldExtractFencedCodeBlocksFromStreamedChunks() {
+    String markdown = "Text\r\n```java\r\nint a = 1;\r\n```\r\nmore\n  ```\nint b = 2;\n```end";
+
+    for (int chunkSize = 1; chunkSize <= markdown.length(); chunkSize++) {
+      final MarkdownCodeExtractor extractor = new MarkdownCodeExtractor();
+      for (int i = 0; i < markdown.length(); i += chunkSize) {
+        extractor.append(markdown.subSequence(i, Math.min(markdown.length(), i + chunkSize)));
+      }
+      assertEquals(List.of("int a = 1;", "int b = 2;"), extractor.complete(),
+          "chunk size " + chunkSize);
+    }
+  }
+
+  @Test
+  @DisplayName("Should process many fence lines in linear time")
+  void shouldProcessManyFenceLines() {
+    final StringBuilder markdown = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      markdown.append("```\n");
+    }
+    markdown.setLength(markdown.length() - 1);
+    markdown.append("x\n");
+
+    List<String> result = MarkdownCodeExtractor.extractFencedCodeBlocks(markdown);
+
+    assertEquals(50_000, result.size());
+    assertTrue(result.stream().allMatch(String::isEmpty));
+  }
+}
@@ -0,0 +1,42 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+class ModelRouterTest {
+
+  @Test
+  void testEmpty() {
+    final ModelRouter router = new ModelRouter(null, null, 100L, null, 1000L);
+    assertTrue(router.isEmpty());
+    assertNull(router.route(Path.of("src", "Main.java"), "prompt"));
+  }
+
+  @Test
+  void testRouteBySize() {
+    final ModelRouter router = new ModelRouter(null, "small", 10L, "large", 100L);
+    assertEquals("small", router.route(null, "make getter"));
+    assertNull(router.route(null, "word ".repeat(50)));
+    assertEquals("large", router.route(null, "word ".repeat(200)));
+  }
+
+  @Test
+  void testRouteByFile() {
+    final ModelRouter router =
+        new ModelRouter("**/dto/*.java = fast; *Test.java=tests", "small", 10L, null, 0L);
+    assertEquals("fast", router.route(Path.of("src", "dto", "User.java"), "word ".repeat(50)));
+    assertEquals("tests", router.route(Path.of("src", "UserTest.java"), "make getter"));
+    assertEquals("small", router.route(Path.of("src", "User.java"), "make getter"));
+  }
+
+  @Test
+  void testWrongFileRule() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new ModelRouter("*.java", null, 0L, null, 0L));
+  }
+}
@@ -0,0 +1,36 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class PromptMinifierTest {
+
+  @Test
+  void testCollapseWhitespacesAndBlankLines() {
+    assertEquals("make class Foo\nwith field int a",
+        PromptMinifier.minify("  make   class\tFoo  \n\n   \r\n with field    int a  "));
+    assertEquals("", PromptMinifier.minify(" \n\t\n"));
+  }
+
+  @Test
+  void testCosmeticChangesGiveSameForm() {
+    assertEquals(PromptMinifier.minify("generate getter\n  for field a"),
+        PromptMinifier.minify("\n generate    getter\n\n\tfor field a\n"));
+  }
+
+  @Test
+  void testDeduplicateInstructions() {
+    assertEquals("return only java code\n}\nmake method foo\n}",
+        PromptMinifier.minify("return only java code\n}\nmake method foo\n}\n"
+            + "return  only java code"));
+  }
+
+  @Test
+  void testFencedCodeKeptUntouched() {
+    final String code = "```java\nint a = 1;\n\n  if (a > 0) {\n    a++;\n    a++;\n  }\n```";
+    assertEquals("add logging into code\n" + code + "\n```\n  a  +=  2;\n```",
+        PromptMinifier.minify("add logging into code\n" + code
+            + "\n\nadd  logging into code\n ```\n  a  +=  2;\n```\nadd logging into code"));
+  }
+}
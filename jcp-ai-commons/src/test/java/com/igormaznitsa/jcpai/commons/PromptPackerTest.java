@@ -0,0 +1,35 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PromptPackerTest {
+
+  @Test
+  void testMakePackedPrompt() {
+    final String packed = PromptPacker.makePackedPrompt(List.of("first", "second"));
+    assertTrue(packed.contains("### REQUEST 1\nfirst"));
+    assertTrue(packed.contains("### REQUEST 2\nsecond"));
+  }
+
+  @Test
+  void testParseAnswers() {
+    assertArrayEquals(new String[] {"int a;", "int b;"}, PromptPacker.parseAnswers(
+        "{\"answers\":[{\"id\":2,\"answer\":\"int b;\"},{\"id\":1,\"answer\":\"int a;\"}]}", 2));
+    assertArrayEquals(new String[] {"int a;", null}, PromptPacker.parseAnswers(
+        "Result:\n```json\n{\"answers\":[{\"id\":1,\"answer\":\"int a;\"},"
+            + "{\"id\":2,\"answer\":\" \"},{\"id\":3,\"answer\":\"x\"}]}\n```", 2));
+  }
+
+  @Test
+  void testParseInvalidAnswers() {
+    assertArrayEquals(new String[2], PromptPacker.parseAnswers("no json", 2));
+    assertArrayEquals(new String[2], PromptPacker.parseAnswers("{\"answers\":[", 2));
+    assertArrayEquals(new String[2], PromptPacker.parseAnswers("{\"answers\":\"a\"}", 2));
+    assertArrayEquals(new String[2],
+        PromptPacker.parseAnswers("{\"answers\":[{\"id\":\"x\",\"answer\":\"a\"}]}", 2));
+  }
+}
@@ -0,0 +1,112 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+
+  private static final RetryPolicy.RetryListener NO_LISTENER = (attempt, delay, error) -> {
+  };
+
+  @Test
+  void testDelay() {
+    final RetryPolicy policy = new RetryPolicy(5, 1000L, 5000L, 0L);
+    assertEquals(500L, policy.computeDelayMs(1, RetryPolicy.NO_RETRY_AFTER, 0.0d));
+    assertEquals(1000L, policy.computeDelayMs(1, RetryPolicy.NO_RETRY_AFTER, 1.0d));
+    assertEquals(2000L, policy.computeDelayMs(2, RetryPolicy.NO_RETRY_AFTER, 1.0d));
+    assertEquals(5000L, policy.computeDelayMs(10, RetryPolicy.NO_RETRY_AFTER, 1.0d));
+    assertEquals(7000L, policy.computeDelayMs(1, 7000L, 0.5d));
+  }
+
+  @Test
+  void testRetryAfter() {
+    final Instant now = Instant.parse("2025-10-21T07:28:00Z");
+    assertEquals(2000L, RetryPolicy.parseRetryAfterMs("2", now));
+    assertEquals(60000L, RetryPolicy.parseRetryAfterMs("Tue, 21 Oct 2025 07:29:00 GMT", now));
+    assertEquals(RetryPolicy.NO_RETRY_AFTER, RetryPolicy.parseRetryAfterMs("soon", now));
+    assertEquals(RetryPolicy.NO_RETRY_AFTER, RetryPolicy.parseRetryAfterMs(null, now));
+
+    final Map<String, List<String>> headers =
+        Map.of("retry-after-ms", List.of("150"), "retry-after", List.of("1"));
+    assertEquals(150L, RetryPolicy.findRetryAfterMs(headers::get));
+    assertEquals(1000L,
+        RetryPolicy.findRetryAfterMs(Map.of("retry-after", List.of("1"))::get));
+    assertEquals(RetryPolicy.NO_RETRY_AFTER, RetryPolicy.findRetryAfterMs(x -> List.of()));
+  }
+
+  @Test
+  void testRetryableStatus() {
+    assertTrue(RetryPolicy.isRetryableStatus(429));
+    assertTrue(RetryPolicy.isRetryableStatus(503));
+    assertFalse(RetryPolicy.isRetryableStatus(400));
+    assertFalse(RetryPolicy.isRetryableStatus(401));
+  }
+
+  @Test
+  void testRetryUntilSuccess() {
+    final RetryPolicy policy = new RetryPolicy(3, 1L, 2L, 0L);
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger retries = new AtomicInteger();
+    final String result = policy.execute(() -> {
+      if (calls.incrementAndGet() < 3) {
+        throw new IllegalStateException("temporary");
+      }
+      return "done";
+    }, x -> true, x -> RetryPolicy.NO_RETRY_AFTER,
+        (attempt, delay, error) -> retries.incrementAndGet());
+    assertEquals("done", result);
+    assertEquals(3, calls.get());
+    assertEquals(2, retries.get());
+  }
+
+  @Test
+  void testNonRetryableAndExhausted() {
+    final RetryPolicy policy = new RetryPolicy(3, 1L, 2L, 0L);
+    final AtomicInteger calls = new AtomicInteger();
+    final IllegalStateException error = new IllegalStateException("fatal");
+    assertSame(error, assertThrows(IllegalStateException.class, () -> policy.execute(() -> {
+      calls.incrementAndGet();
+      throw error;
+    }, x -> false, x -> RetryPolicy.NO_RETRY_AFTER, NO_LISTENER)));
+    assertEquals(1, calls.get());
+
+    calls.set(0);
+    assertThrows(IllegalStateException.class, () -> policy.execute(() -> {
+      calls.incrementAndGet();
+      throw error;
+    }, x -> true, x -> RetryPolicy.NO_RETRY_AFTER, NO_LISTENER));
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  void testDeadline() {
+    final RetryPolicy policy = new RetryPolicy(10, 1L, 2L, 1000L);
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger deadlines = new AtomicInteger();
+    assertThrows(IllegalStateException.class, () -> policy.execute(() -> {
+      calls.incrementAndGet();
+      throw new IllegalStateException("rate limit");
+    }, x -> true, x -> 5000L, new RetryPolicy.RetryListener() {
+      @Override
+      public void onRetry(final int attempt, final long delayMs, final RuntimeException error) {
+      }
+
+      @Override
+      public void onDeadline(final int attempt, final long delayMs,
+                             final RuntimeException error) {
+        deadlines.incrementAndGet();
+      }
+    }));
+    assertEquals(1, calls.get());
+    assertEquals(1, deadlines.get());
+  }
+}
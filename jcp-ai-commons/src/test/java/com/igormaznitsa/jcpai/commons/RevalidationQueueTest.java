@@ -0,0 +1,45 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RevalidationQueueTest {
+
+  @Test
+  void testCompletedTasks() {
+    final RevalidationQueue queue = new RevalidationQueue("test-", 2);
+    final AtomicInteger counter = new AtomicInteger();
+    assertTrue(queue.submit("a", "A", counter::incrementAndGet));
+    assertTrue(queue.submit("b", "B", counter::incrementAndGet));
+    assertFalse(queue.submit("a", "A", counter::incrementAndGet));
+    assertEquals(2, queue.size());
+
+    assertTrue(queue.shutdown(-1L).isEmpty());
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  void testPendingTasks() {
+    final RevalidationQueue queue = new RevalidationQueue("test-", 1);
+    final CountDownLatch latch = new CountDownLatch(1);
+    queue.submit("slow", "Slow", () -> {
+      try {
+        latch.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    queue.submit("queued", "Queued", () -> {
+    });
+
+    final List<String> pending = queue.shutdown(10L);
+    latch.countDown();
+    assertTrue(pending.contains("Queued"), pending.toString());
+  }
+}
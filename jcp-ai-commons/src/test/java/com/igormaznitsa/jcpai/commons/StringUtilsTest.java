@@ -2,6 +2,7 @@ package com.igormaznitsa.jcpai.commons;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 class StringUtilsTest {
@@ -17,4 +18,28 @@ class StringUtilsTest {
     assertEquals("var e=1;\nvar b1=2;",
         StringUtils.extractCodePart("```java\nvar e=1;\n```sss\n```java\nvar b1=2;\n```", null));
   }
-}
\ No newline at end of file
+
+  @Test
+  void testCountLinesAsSplit() {
+    for (final String text : List.of("", "a", "a\n", "\n", "\n\n", "\na", "a\r\nb", "a\rb\n\n",
+        "a\n \n", "a\u2028b\u0085c\r\n\r\n")) {
+      assertEquals(text.split("\\R").length, StringUtils.countLines(text), text);
+    }
+  }
+
+  @Test
+  void testAppendLines() {
+    final String text = "  a\r\n\n   b\rc \n\n";
+    final StringBuilder buffer = new StringBuilder("x");
+    final boolean separated =
+        StringUtils.appendLines(buffer, text, 0, StringUtils.countLines(text), "..", "|", true,
+            true);
+    assertEquals(true, separated);
+    assertEquals("x|..a|..|..b|..c ", buffer.toString());
+
+    buffer.setLength(0);
+    assertEquals(false, StringUtils.appendLines(buffer, "\n", 0, StringUtils.countLines("\n"),
+        "..", "|", false, false));
+    assertEquals("", buffer.toString());
+  }
+}
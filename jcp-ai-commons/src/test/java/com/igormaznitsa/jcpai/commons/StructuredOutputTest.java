@@ -0,0 +1,33 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class StructuredOutputTest {
+
+  @Test
+  void testExtractCode() {
+    assertEquals(Optional.of("int a = 1;\nint b = 2;"),
+        StructuredOutput.extractCode("{\"code\":\"int a = 1;\\nint b = 2;\"}"));
+    assertEquals(Optional.of("x();"),
+        StructuredOutput.extractCode("```json\n{\"code\": \"x();\"}\n```"));
+    assertEquals(Optional.of(""), StructuredOutput.extractCode(" {\"code\":\"\"} "));
+  }
+
+  @Test
+  void testNotStructured() {
+    assertTrue(StructuredOutput.extractCode("```java\nint a;\n```").isEmpty());
+    assertTrue(StructuredOutput.extractCode("{\"code\":1}").isEmpty());
+    assertTrue(StructuredOutput.extractCode("{\"text\":\"a\"}").isEmpty());
+    assertTrue(StructuredOutput.extractCode("{\"code\":").isEmpty());
+  }
+
+  @Test
+  void testMakeJson() {
+    final String code = "String s = \"a\";\n";
+    assertEquals(Optional.of(code), StructuredOutput.extractCode(StructuredOutput.makeJson(code)));
+  }
+}
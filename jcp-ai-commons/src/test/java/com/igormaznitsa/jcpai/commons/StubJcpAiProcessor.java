@@ -0,0 +1,166 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static com.igormaznitsa.jcpai.commons.StringUtils.AI_PROMPT_PREFIX;
+
+import com.igormaznitsa.jcp.containers.FileInfoContainer;
+import com.igormaznitsa.jcp.containers.TextFileDataContainer;
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.expression.Value;
+import com.igormaznitsa.jcp.logger.PreprocessorLogger;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Processor for tests, prompts are answered by handler instead of model and all requests are
+ * recorded.
+ */
+class StubJcpAiProcessor extends AbstractJcpAiProcessor {
+
+  static final String MODEL_PROPERTY = "jcpai.stub.model";
+
+  final List<String> prompts = Collections.synchronizedList(new ArrayList<>());
+  final List<List<ContentRecord>> histories = Collections.synchronizedList(new ArrayList<>());
+  final List<String> models = Collections.synchronizedList(new ArrayList<>());
+  final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+  private final String id;
+  private volatile PromptHandler handler;
+
+  StubJcpAiProcessor(final PromptHandler handler) {
+    this("STUB", handler);
+  }
+
+  StubJcpAiProcessor(final String id, final PromptHandler handler) {
+    this.id = id;
+    this.handler = handler;
+  }
+
+  /**
+   * Make context with base folder and active source file, the file is created with 100 empty
+   * lines.
+   *
+   * @param baseDir      the project base folder, must not be null
+   * @param relativePath path of source file inside base folder, must not be null
+   * @return the context, must not be null
+   */
+  static PreprocessorContext makeContext(final Path baseDir, final String relativePath) {
+    final PreprocessorContext context = new PreprocessorContext(baseDir.toFile());
+    context.setGlobalVariable(PROPERTY_JCPAI_JMX_ENABLED, Value.valueOf(false));
+    context.setGlobalVariable(PROPERTY_JCPAI_PROMPT_CACHE,
+        Value.valueOf(baseDir.resolve("prompts.cache").toString()));
+    context.setPreprocessorLogger(new PreprocessorLogger() {
+      @Override
+      public void error(final String message) {
+      }
+
+      @Override
+      public void info(final String message) {
+      }
+
+      @Override
+      public void debug(final String message) {
+      }
+
+      @Override
+      public void warning(final String message) {
+      }
+    });
+    openFile(context, relativePath, 0);
+    return context;
+  }
+
+  /**
+   * Make source file active in context.
+   *
+   * @param context      the context, must not be null
+   * @param relativePath path of source file inside base folder, must not be null
+   * @param line         zero based line of processed text
+   */
+  static void openFile(final PreprocessorContext context, final String relativePath,
+                       final int line) {
+    final File file = new File(context.getBaseDir(), relativePath);
+    final String[] lines = new String[100];
+    Arrays.fill(lines, "");
+    try {
+      Files.createDirectories(file.getParentFile().toPath());
+      Files.writeString(file.toPath(), String.join("\n", lines), StandardCharsets.UTF_8);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    final TextFileDataContainer container = new TextFileDataContainer(file, lines, false, 0);
+    container.setNextStringIndex(line + 1);
+    context.produceNewPreprocessingState(new FileInfoContainer(file, file.getName(), false),
+        container);
+  }
+
+  static String asPromptText(final String... prompts) {
+    final StringBuilder result = new StringBuilder();
+    for (final String prompt : prompts) {
+      if (!result.isEmpty()) {
+        result.append("\n// separator\n");
+      }
+      result.append(AI_PROMPT_PREFIX).append(prompt);
+    }
+    return result.toString();
+  }
+
+  void setHandler(final PromptHandler handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public String getProcessorTextId() {
+    return this.id;
+  }
+
+  @Override
+  protected String getModelPropertyName() {
+    return MODEL_PROPERTY;
+  }
+
+  @Override
+  protected int findErrorStatusCode(final Throwable error) {
+    return error instanceof StatusException ? ((StatusException) error).status : -1;
+  }
+
+  @Override
+  public PromptResponse processPrompt(final PreprocessorContext context,
+                                      final List<ContentRecord> history,
+                                      final String prompt) {
+    this.prompts.add(prompt);
+    this.histories.add(List.copyOf(history));
+    final Value model = findPreprocessorVar(MODEL_PROPERTY, context).orElse(null);
+    this.models.add(model == null ? null : model.asString());
+    try {
+      return this.handler.handle(context, history, prompt);
+    } catch (RuntimeException ex) {
+      this.errors.add(ex.getMessage());
+      throw ex;
+    }
+  }
+
+  @FunctionalInterface
+  interface PromptHandler {
+    PromptResponse handle(PreprocessorContext context, List<ContentRecord> history,
+                          String prompt);
+  }
+
+  /**
+   * Provider error with HTTP status code.
+   */
+  static final class StatusException extends RuntimeException {
+    final int status;
+
+    StatusException(final int status) {
+      super("HTTP " + status);
+      this.status = status;
+    }
+  }
+}
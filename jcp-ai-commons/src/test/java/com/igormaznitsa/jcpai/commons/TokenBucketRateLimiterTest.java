@@ -0,0 +1,57 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketRateLimiterTest {
+
+  private static TokenBucketRateLimiter makeLimiter(final long rpm, final long tpm,
+                                                    final AtomicLong clock,
+                                                    final List<Long> sleeps) {
+    return new TokenBucketRateLimiter(rpm, tpm, clock::get, ms -> {
+      sleeps.add(ms);
+      clock.addAndGet(ms);
+    });
+  }
+
+  @Test
+  void testNoLimits() throws Exception {
+    final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0L, 0L);
+    assertFalse(limiter.isLimited());
+    assertEquals(0L, limiter.acquire(1_000_000L));
+  }
+
+  @Test
+  void testRequestsPerMinute() throws Exception {
+    final AtomicLong clock = new AtomicLong(1000L);
+    final List<Long> sleeps = new ArrayList<>();
+    final TokenBucketRateLimiter limiter = makeLimiter(2L, 0L, clock, sleeps);
+
+    assertEquals(0L, limiter.acquire(10L));
+    assertEquals(0L, limiter.acquire(10L));
+    assertEquals(30000L, limiter.acquire(10L));
+    assertEquals(List.of(30000L), sleeps);
+  }
+
+  @Test
+  void testTokensPerMinuteWithReconcile() throws Exception {
+    final AtomicLong clock = new AtomicLong();
+    final List<Long> sleeps = new ArrayList<>();
+    final TokenBucketRateLimiter limiter = makeLimiter(0L, 6000L, clock, sleeps);
+
+    assertEquals(0L, limiter.acquire(1000L));
+    limiter.reconcile(1000L, 4000L);
+    assertEquals(2000.0d, limiter.getAvailableTokens(), 0.001d);
+
+    assertEquals(10000L, limiter.acquire(3000L));
+    limiter.reconcile(3000L, 1000L);
+    assertEquals(2000.0d, limiter.getAvailableTokens(), 0.001d);
+
+    assertEquals(40000L, limiter.acquire(100_000L));
+  }
+}
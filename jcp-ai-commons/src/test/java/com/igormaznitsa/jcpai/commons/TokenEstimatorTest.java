@@ -0,0 +1,24 @@
+package com.igormaznitsa.jcpai.commons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TokenEstimatorTest {
+
+  @Test
+  void testEstimateTokens() {
+    assertEquals(0L, TokenEstimator.estimateTokens((CharSequence) null));
+    assertEquals(0L, TokenEstimator.estimateTokens("   \n"));
+    assertEquals(1L, TokenEstimator.estimateTokens("int"));
+    assertEquals(2L, TokenEstimator.estimateTokens("value1"));
+    assertEquals(5L, TokenEstimator.estimateTokens("int a = 1;"));
+  }
+
+  @Test
+  void testEstimateHistoryTokens() {
+    assertEquals(4L + 1L + 4L + 1L,
+        TokenEstimator.estimateTokens(List.of(ContentRecord.of(ContentRole.USER, "int")), "int"));
+  }
+}
@@ -0,0 +1,79 @@
+package com.igormaznitsa.jcpai.commons.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class JcpAiPromptFailureDataTest {
+
+  @Test
+  void testRegisterCountsFailures() {
+    final JcpAiPromptFailureData data = new JcpAiPromptFailureData();
+    data.register("key1", "test.java", 1, new IllegalStateException("first"));
+    final JcpAiFailureRecord record =
+        data.register("key1", "test.java", 2, new IllegalArgumentException("second"));
+
+    assertTrue(data.isChanged());
+    assertEquals(1, data.size());
+    assertEquals(2L, record.getCount());
+    assertEquals(2, record.getLine());
+    assertEquals(IllegalArgumentException.class.getName(), record.getErrorClass());
+    assertEquals("second", record.getMessage());
+    assertFalse(record.getLastInstant().isBefore(record.getFirstInstant()));
+  }
+
+  @Test
+  void testActiveRecordWithinBackoffWindow() {
+    final JcpAiPromptFailureData data = new JcpAiPromptFailureData();
+    final JcpAiFailureRecord record =
+        data.register("key1", "test.java", 1, new IllegalStateException("error"));
+    final Instant failed = record.getLastInstant();
+
+    assertNotNull(data.findActiveRecord("key1", 1000L, failed.plusMillis(999L)));
+    assertNull(data.findActiveRecord("key1", 1000L, failed.plusMillis(1000L)));
+    assertNull(data.findActiveRecord("key2", 1000L, failed));
+  }
+
+  @Test
+  void testRemoveAndRetain() {
+    final JcpAiPromptFailureData data = new JcpAiPromptFailureData();
+    data.register("key1", "test.java", 1, new IllegalStateException("error"));
+    data.register("key2", "test.java", 2, new IllegalStateException("error"));
+    data.register("key3", "test.java", 3, new IllegalStateException("error"));
+
+    assertTrue(data.remove("key1"));
+    assertFalse(data.remove("key1"));
+    data.retain(x -> x.getKey().equals("key3"));
+
+    assertEquals(1, data.size());
+    assertNotNull(data.findRecord("key3"));
+  }
+
+  @Test
+  void testWriteRead() throws Exception {
+    final JcpAiPromptFailureData data = new JcpAiPromptFailureData();
+    data.register("key1", "test.java", 1, new IllegalStateException("error"));
+    data.register("key1", "test.java", 1, new IllegalStateException("error"));
+    data.register("key2", "test.java", 2, new RuntimeException());
+
+    final StringWriter writer = new StringWriter();
+    assertEquals(2, data.write(writer));
+    assertFalse(data.isChanged());
+
+    final JcpAiPromptFailureData restored = new JcpAiPromptFailureData();
+    restored.read(new StringReader(writer.toString()));
+    assertEquals(2, restored.size());
+    assertEquals(2L, restored.findRecord("key1").getCount());
+    assertEquals("error", restored.findRecord("key1").getMessage());
+    assertNull(restored.findRecord("key2").getMessage());
+    assertEquals(data.findRecord("key1").getLastInstant(),
+        restored.findRecord("key1").getLastInstant());
+  }
+}
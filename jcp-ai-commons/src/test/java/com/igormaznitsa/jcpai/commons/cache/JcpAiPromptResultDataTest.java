@@ -1,9 +1,13 @@
 package com.igormaznitsa.jcpai.commons.cache;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 
 class JcpAiPromptResultDataTest {
@@ -28,5 +32,80 @@ class JcpAiPromptResultDataTest {
     assertEquals(cache.size(), cache2.size());
   }
 
+  @Test
+  void testRawResponseDistilledOnRead() throws Exception {
+    final JcpAiPromptResultData cache = new JcpAiPromptResultData();
+    cache.put("key1", "test.java", 1, "```java\nint a = 1;\n```");
+
+    final StringWriter writer = new StringWriter();
+    cache.write(writer, x -> true);
+
+    final JcpAiPromptResultData cache2 = new JcpAiPromptResultData();
+    cache2.read(new StringReader(writer.toString()));
+
+    final JcpAiCacheRecord record = cache2.findRecord("key1");
+    assertEquals("```java\nint a = 1;\n```", record.getResult());
+
+    final AtomicInteger counter = new AtomicInteger();
+    assertEquals("int a = 1;", record.findDistilledResult("\n", x -> {
+      counter.incrementAndGet();
+      return x.substring(8, x.length() - 4);
+    }));
+    assertEquals("int a = 1;", record.findDistilledResult("\n", x -> {
+      counter.incrementAndGet();
+      return x;
+    }));
+    assertEquals(1, counter.get());
+  }
+
+  @Test
+  void testFindLatestRecord() throws Exception {
+    final JcpAiPromptResultData cache = new JcpAiPromptResultData();
+    cache.put("old", "a.java", 1, "old").setInstant(Instant.parse("2025-10-19T12:00:00Z"));
+    cache.put("new", "a.java", 1, "new").setInstant(Instant.parse("2025-10-20T12:00:00Z"));
+    cache.put("other", "a.java", 2, "other");
+    cache.put("other2", "b.java", 1, "other2");
+
+    assertEquals("new", cache.findLatestRecord("a.java", 1).getKey());
+    assertNull(cache.findLatestRecord("a.java", 3));
+  }
 
-}
\ No newline at end of file
+  @Test
+  void testLatestRecordIndexAfterRead() throws Exception {
+    final JcpAiPromptResultData cache = new JcpAiPromptResultData();
+    final JcpAiCacheRecord newRecord = cache.put("new", "a.java", 1, "new");
+    newRecord.setPrompt("new prompt");
+    newRecord.setInstant(Instant.parse("2025-10-20T12:00:00Z"));
+    cache.put("old", "a.java", 1, "old").setInstant(Instant.parse("2025-10-19T12:00:00Z"));
+
+    final StringWriter writer = new StringWriter();
+    cache.write(writer, x -> true);
+    final JcpAiPromptResultData restored = new JcpAiPromptResultData();
+    restored.read(new StringReader(writer.toString()));
+
+    final JcpAiCacheRecord latest = restored.findLatestRecord("a.java", 1);
+    assertEquals("new", latest.getKey());
+    assertEquals("new prompt", latest.getPrompt());
+    assertNull(restored.findRecord("old").getPrompt());
+  }
+
+  @Test
+  void testUsagePersisted() throws Exception {
+    final JcpAiPromptResultData cache = new JcpAiPromptResultData();
+    cache.put("k", "a.java", 1, "text").setUsage("model", 10L, 20L, 1500L);
+    cache.put("k2", "a.java", 2, "text");
+
+    final StringWriter writer = new StringWriter();
+    cache.write(writer, x -> true);
+    assertFalse(writer.toString().contains("\"inputTokens\": -1"));
+
+    final JcpAiPromptResultData restored = new JcpAiPromptResultData();
+    restored.read(new StringReader(writer.toString()));
+    final JcpAiCacheRecord record = restored.findRecord("k");
+    assertEquals("model", record.getModel());
+    assertEquals(10L, record.getInputTokens());
+    assertEquals(20L, record.getOutputTokens());
+    assertEquals(1500L, record.getLatencyMs());
+    assertEquals(JcpAiCacheRecord.UNKNOWN, restored.findRecord("k2").getInputTokens());
+  }
+}
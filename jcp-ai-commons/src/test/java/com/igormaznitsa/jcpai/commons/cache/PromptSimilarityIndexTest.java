@@ -0,0 +1,77 @@
+package com.igormaznitsa.jcpai.commons.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PromptSimilarityIndexTest {
+
+  private static final String PROMPT =
+      "Generate Java method which calculates CRC32 for byte array and returns it as long value,"
+          + " the method must be static and must not use any third party library";
+
+  @Test
+  void testNormalize() {
+    assertEquals("hello world", PromptSimilarityIndex.normalize("  Hello\n\t  WORLD \n"));
+  }
+
+  @Test
+  void testSameTextAfterNormalization() {
+    assertEquals(1.0d, PromptSimilarityIndex.estimateSimilarity(
+        PromptSimilarityIndex.makeSignature(PROMPT),
+        PromptSimilarityIndex.makeSignature(PROMPT.toUpperCase().replace(" ", "\n  "))));
+  }
+
+  @Test
+  void testFindNearDuplicate() {
+    final PromptSimilarityIndex index = new PromptSimilarityIndex();
+    index.add("crc", PROMPT);
+    index.add("sort", "Make a Kotlin function sorting list of strings by their length in place");
+
+    final Map.Entry<String, Double> found =
+        index.findMostSimilar(PROMPT.replace("byte array", "byte buffer"), 0.6d);
+    assertNotNull(found);
+    assertEquals("crc", found.getKey());
+    assertTrue(found.getValue() < 1.0d);
+
+    assertNull(index.findMostSimilar("Write SQL query to select all users older than 18", 0.6d));
+  }
+
+  @Test
+  void testRetain() {
+    final PromptSimilarityIndex index = new PromptSimilarityIndex();
+    index.add("crc", PROMPT);
+    index.add("other", "Make a Kotlin function sorting list of strings by their length in place");
+    index.retain("other"::equals);
+
+    assertEquals(1, index.size());
+    assertFalse(index.contains("crc"));
+    assertNull(index.findMostSimilar(PROMPT, 0.6d));
+  }
+
+  @Test
+  void testWriteRead() throws Exception {
+    final PromptSimilarityIndex index = new PromptSimilarityIndex();
+    index.add("crc", PROMPT);
+    assertTrue(index.isChanged());
+
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    index.write(new DataOutputStream(buffer));
+    assertFalse(index.isChanged());
+
+    final PromptSimilarityIndex restored = new PromptSimilarityIndex();
+    restored.read(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+    assertEquals(1, restored.size());
+    assertFalse(restored.isChanged());
+    assertEquals("crc", restored.findMostSimilar(PROMPT, 1.0d).getKey());
+  }
+}
@@ -0,0 +1,67 @@
+package com.igormaznitsa.jcpai.commons.jmx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.junit.jupiter.api.Test;
+
+class JcpAiProcessorStatsTest {
+
+  @Test
+  void testCounters() {
+    final JcpAiProcessorStats stats =
+        new JcpAiProcessorStats("TEST", () -> true, () -> Map.of("cache.json", 3));
+    stats.onRequestStarted();
+    assertEquals(1, stats.getInFlightRequests());
+    stats.onRequestCompleted(100L, 10L, 20L, false);
+    stats.onRequestStarted();
+    stats.onRequestCompleted(300L, -1L, -1L, true);
+    stats.onCacheLookup(true);
+    stats.onCacheLookup(true);
+    stats.onCacheLookup(true);
+    stats.onCacheLookup(false);
+
+    assertEquals(0, stats.getInFlightRequests());
+    assertEquals(2L, stats.getTotalCalls());
+    assertEquals(1L, stats.getTotalErrors());
+    assertEquals(200.0d, stats.getAverageLatencyMs());
+    assertEquals(10L, stats.getTotalInputTokens());
+    assertEquals(20L, stats.getTotalOutputTokens());
+    assertEquals(0.75d, stats.getCacheHitRatio());
+
+    stats.resetCounters();
+    assertEquals(0L, stats.getTotalCalls());
+    assertEquals(0.0d, stats.getCacheHitRatio());
+  }
+
+  @Test
+  void testRegistration() throws Exception {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = JcpAiProcessorStats.makeObjectName("TEST_JMX");
+
+    final JcpAiProcessorStats previous =
+        new JcpAiProcessorStats("TEST_JMX", () -> false, Map::of);
+    final JcpAiProcessorStats stats =
+        new JcpAiProcessorStats("TEST_JMX", () -> true, () -> Map.of("cache.json", 3));
+    try {
+      assertTrue(previous.register());
+      assertTrue(stats.register());
+      assertFalse(stats.register());
+      stats.onCacheLookup(true);
+
+      assertEquals(Boolean.TRUE, server.getAttribute(name, "Started"));
+      assertEquals(1L, server.getAttribute(name, "CacheHits"));
+      assertEquals(1,
+          ((TabularData) server.getAttribute(name, "CacheFileRecords")).size());
+    } finally {
+      stats.unregister();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
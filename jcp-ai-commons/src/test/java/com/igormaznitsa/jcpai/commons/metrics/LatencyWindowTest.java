@@ -0,0 +1,43 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyWindowTest {
+
+  @Test
+  void testEmpty() {
+    final LatencyWindow window = new LatencyWindow(10);
+    assertEquals(0, window.size());
+    assertEquals(0L, window.percentile(95.0d));
+  }
+
+  @Test
+  void testPercentile() {
+    final LatencyWindow window = new LatencyWindow(100);
+    for (int i = 100; i > 0; i--) {
+      window.add(i);
+    }
+    assertEquals(100, window.size());
+    assertEquals(50L, window.percentile(50.0d));
+    assertEquals(95L, window.percentile(95.0d));
+    assertEquals(100L, window.percentile(100.0d));
+  }
+
+  @Test
+  void testOldValuesReplaced() {
+    final LatencyWindow window = new LatencyWindow(3);
+    window.add(1000L);
+    window.add(1000L);
+    window.add(1000L);
+    window.add(10L);
+    window.add(20L);
+    window.add(30L);
+    assertEquals(3, window.size());
+    assertEquals(30L, window.percentile(100.0d));
+
+    window.clear();
+    assertEquals(0, window.size());
+  }
+}
@@ -0,0 +1,82 @@
+package com.igormaznitsa.jcpai.commons.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.igormaznitsa.jcpai.commons.PromptResponse;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PromptMetricsCollectorTest {
+
+  private static PromptMetric makeMetric(final int line, final PromptCacheStatus status,
+                                         final long latency) {
+    final PromptMetric metric = new PromptMetric("Test.java:" + line, "TEST");
+    metric.setCacheStatus(status);
+    if (status != PromptCacheStatus.HIT) {
+      metric.setResponse(PromptResponse.of("text", "model", 10L, 20L), latency);
+    }
+    return metric;
+  }
+
+  @Test
+  void testPercentile() {
+    final long[] values = {1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L};
+    assertEquals(0L, PromptMetricsCollector.percentile(new long[0], 50.0d));
+    assertEquals(5L, PromptMetricsCollector.percentile(values, 50.0d));
+    assertEquals(10L, PromptMetricsCollector.percentile(values, 95.0d));
+    assertEquals(1L, PromptMetricsCollector.percentile(values, 0.0d));
+  }
+
+  @Test
+  void testReport() throws Exception {
+    final PromptMetricsCollector collector = new PromptMetricsCollector();
+    collector.add(makeMetric(1, PromptCacheStatus.HIT, 0L));
+    collector.add(makeMetric(2, PromptCacheStatus.MISS, 1200L));
+    collector.add(makeMetric(3, PromptCacheStatus.DISABLED, 70000L));
+
+    final StringWriter writer = new StringWriter();
+    collector.write(writer, "TEST", 1);
+    final JsonObject report = new Gson().fromJson(writer.toString(), JsonObject.class);
+    final JsonObject summary = report.getAsJsonObject("summary");
+
+    assertEquals(3, summary.get("prompts").getAsInt());
+    assertEquals(2, summary.get("modelCalls").getAsInt());
+    assertEquals(1, summary.get("cacheHIT").getAsInt());
+    assertEquals(40, summary.get("outputTokens").getAsInt());
+    assertEquals(70000L, summary.getAsJsonObject("latencyMs").get("p99").getAsLong());
+    assertEquals(1, summary.getAsJsonObject("latencyHistogram").get("1-5s").getAsInt());
+    assertEquals("Test.java:3",
+        report.getAsJsonArray("slowest").get(0).getAsJsonObject().get("source").getAsString());
+
+    final List<String> lines = collector.makeSummary(1);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(3).contains("Test.java:3"), lines.get(3));
+  }
+
+  @Test
+  void testSavedByCache() throws Exception {
+    final PromptMetricsCollector collector = new PromptMetricsCollector();
+    collector.setTokenPrices(1.0d, 2.0d);
+    final PromptMetric hit = makeMetric(1, PromptCacheStatus.HIT, 0L);
+    hit.setSaved("model", 1_000_000L, 500_000L, 2500L);
+    collector.add(hit);
+    final PromptMetric legacyHit = makeMetric(2, PromptCacheStatus.HIT, 0L);
+    collector.add(legacyHit);
+
+    final StringWriter writer = new StringWriter();
+    collector.write(writer, "TEST", 1);
+    final JsonObject saved = new Gson().fromJson(writer.toString(), JsonObject.class)
+        .getAsJsonObject("summary").getAsJsonObject("savedByCache");
+    assertEquals(1_000_000L, saved.get("inputTokens").getAsLong());
+    assertEquals(500_000L, saved.get("outputTokens").getAsLong());
+    assertEquals(2500L, saved.get("latencyMs").getAsLong());
+    assertEquals(2.0d, saved.get("estimatedCost").getAsDouble(), 0.0001d);
+
+    assertEquals("saved by cache: tokens in 1000000, out 500000, generation 2.5 s, estimated cost 2.0000",
+        collector.makeSummary(1).get(1));
+  }
+}
@@ -0,0 +1,78 @@
+package com.igormaznitsa.jcpai.commons.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonObject;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TracerTest {
+
+  @Test
+  void testDisabledTracerDoesNotCollectSpans() {
+    final Tracer tracer = new Tracer();
+    tracer.reset(false);
+    try (TraceSpan span = tracer.startSpan("test")) {
+      span.setAttribute("key", "value");
+      assertTrue(span.getAttributes().isEmpty());
+    }
+    assertTrue(tracer.drainFinishedSpans().isEmpty());
+  }
+
+  @Test
+  void testNestedSpans() {
+    final Tracer tracer = new Tracer();
+    tracer.reset(true);
+    try (TraceSpan root = tracer.startSpan("root")) {
+      try (TraceSpan child = tracer.startSpan("child")) {
+        child.setAttribute("number", 12).setError(new IllegalStateException("test"));
+      }
+      try (TraceSpan child = tracer.startSpan("child2")) {
+        assertEquals(root.getSpanId(), child.getParentSpanId());
+      }
+    }
+    try (TraceSpan span = tracer.startSpan("next")) {
+      assertNull(span.getParentSpanId());
+    }
+
+    final List<TraceSpan> spans = tracer.drainFinishedSpans();
+    assertEquals(List.of("child", "child2", "root", "next"),
+        spans.stream().map(TraceSpan::getName).toList());
+    assertEquals(spans.get(2).getSpanId(), spans.get(0).getParentSpanId());
+    assertEquals("IllegalStateException: test", spans.get(0).getErrorMessage());
+    assertTrue(spans.stream().allMatch(x -> x.getTraceId().equals(tracer.getTraceId())));
+    assertTrue(spans.stream().allMatch(x -> x.getEndEpochNanos() >= x.getStartEpochNanos()));
+    assertTrue(tracer.drainFinishedSpans().isEmpty());
+  }
+
+  @Test
+  void testOtlpDocument() {
+    final Tracer tracer = new Tracer();
+    tracer.reset(true);
+    try (TraceSpan span = tracer.startSpan("processPrompt")) {
+      span.setAttribute("jcpai.provider.call", true)
+          .setAttribute("jcpai.tokens.input", 10L)
+          .setAttribute("jcpai.model", "model");
+    }
+
+    final JsonObject document =
+        OtlpJsonFileTraceExporter.makeDocument("service", tracer.drainFinishedSpans());
+    final JsonObject resourceSpans = document.getAsJsonArray("resourceSpans").get(0)
+        .getAsJsonObject();
+    assertEquals("service", resourceSpans.getAsJsonObject("resource")
+        .getAsJsonArray("attributes").get(0).getAsJsonObject().getAsJsonObject("value")
+        .get("stringValue").getAsString());
+    final JsonObject span = resourceSpans.getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+        .getAsJsonArray("spans").get(0).getAsJsonObject();
+    assertEquals(32, span.get("traceId").getAsString().length());
+    assertEquals(16, span.get("spanId").getAsString().length());
+    assertFalse(span.has("parentSpanId"));
+    assertEquals(3, span.get("kind").getAsInt());
+    assertEquals(1, span.getAsJsonObject("status").get("code").getAsInt());
+    assertEquals("10", span.getAsJsonArray("attributes").get(1).getAsJsonObject()
+        .getAsJsonObject("value").get("intValue").getAsString());
+  }
+}
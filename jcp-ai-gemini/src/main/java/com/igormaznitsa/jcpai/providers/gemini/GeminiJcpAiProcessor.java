@@ -1,22 +1,31 @@
 package com.igormaznitsa.jcpai.providers.gemini;
 
 import com.google.genai.Client;
+import com.google.genai.errors.ApiException;
 import com.google.genai.types.ClientOptions;
 import com.google.genai.types.Content;
 import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.GenerateContentResponse;
+import com.google.genai.types.GenerateContentResponseUsageMetadata;
 import com.google.genai.types.HttpOptions;
 import com.google.genai.types.Part;
+import com.google.genai.types.Schema;
 import com.igormaznitsa.jcp.context.PreprocessorContext;
 import com.igormaznitsa.jcp.exceptions.FilePositionInfo;
 import com.igormaznitsa.jcp.expression.Value;
 import com.igormaznitsa.jcp.utils.PreprocessorUtils;
 import com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor;
 import com.igormaznitsa.jcpai.commons.ContentRecord;
+import com.igormaznitsa.jcpai.commons.ContentRole;
+import com.igormaznitsa.jcpai.commons.PromptResponse;
 import com.igormaznitsa.jcpai.commons.StringUtils;
+import com.igormaznitsa.jcpai.commons.StructuredOutput;
+import com.igormaznitsa.jcpai.commons.jfr.PromptRequestEvent;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
 
@@ -35,7 +44,7 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
     super();
   }
 
-  private GenerateContentConfig makeDefaultGenerateContentConfig(
+  GenerateContentConfig makeDefaultGenerateContentConfig(
       final PreprocessorContext context,
       final List<ContentRecord> history) {
     var builder = GenerateContentConfig.builder()
@@ -48,29 +57,49 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
     this.findParamSeed(context).map(Long::intValue).ifPresent(builder::seed);
     this.findParamMaxTokens(context).map(Long::intValue).ifPresent(builder::maxOutputTokens);
 
-    if (history.isEmpty()) {
-      builder.systemInstruction(Content.builder()
-          .role("model")
-          .parts(Part.builder().text(DEFAULT_SYSTEM_INSTRUCTION).build())
-          .build());
-    } else {
-      history.forEach(x -> {
-        if (x.getRole().isModel()) {
-          builder.systemInstruction(Content.builder()
-              .role("model")
-              .parts(Part.builder().text(x.getText()).build())
-              .build());
-        } else {
-          builder.systemInstruction(Content.builder()
-              .role("user")
-              .parts(Part.builder().text(x.getText()).build())
-              .build());
-        }
-      });
-    }
+    builder.systemInstruction(this.makeSystemInstruction(context, history));
     return builder.build();
   }
 
+  /**
+   * Make system instruction from system records of history, the system instruction of context is
+   * used if there is no such record.
+   *
+   * @param context the preprocessor context, must not be null
+   * @param history the history records, must not be null
+   * @return the system instruction, must not be null
+   */
+  Content makeSystemInstruction(final PreprocessorContext context,
+                                final List<ContentRecord> history) {
+    final String text = history.stream()
+        .filter(x -> x.getRole() == ContentRole.SYSTEM)
+        .map(ContentRecord::getText)
+        .collect(Collectors.joining("\n\n"));
+    return Content.fromParts(Part.fromText(text.isEmpty()
+        ? this.findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION) : text));
+  }
+
+  /**
+   * Make conversation turns for request, user and developer records are sent as user turns,
+   * assistant records as model turns and the prompt is the last user turn. System records are sent
+   * as system instruction.
+   *
+   * @param history the history records, must not be null
+   * @param prompt  the prompt, must not be null
+   * @return the conversation turns, must not be null
+   */
+  static List<Content> makeContents(final List<ContentRecord> history, final String prompt) {
+    final List<Content> result = new ArrayList<>();
+    history.stream()
+        .filter(x -> x.getRole() != ContentRole.SYSTEM)
+        .forEach(x -> result.add(Content.builder()
+            .role(x.getRole() == ContentRole.ASSISTANT ? "model" : "user")
+            .parts(Part.fromText(x.getText()))
+            .build()));
+    result.add(Content.builder().role("user").parts(Part.fromText(prompt)).build());
+    return result;
+  }
+
   @Override
   public String getProcessorTextId() {
     return "GEMINI";
@@ -111,10 +140,24 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
     return builder.build();
   }
 
+  @Override
+  protected Optional<String> findProviderBaseUrl(final PreprocessorContext context) {
+    return findBaseUrl(PROPERTY_GEMINI_BASE_URL, context);
+  }
+
+  @Override
+  protected String getModelPropertyName() {
+    return PROPERTY_GEMINI_MODEL;
+  }
+
+  @Override
+  protected int findErrorStatusCode(final Throwable error) {
+    return error instanceof ApiException ? ((ApiException) error).code() : -1;
+  }
+
   @Override
   protected Map<String, Object> getExtraPromptKeyValues(final PreprocessorContext context) {
     return Map.of(
-        "distilled", this.isDistillationRequired(context),
         "model", this.findModel(PROPERTY_GEMINI_MODEL, context,
             PreprocessorUtils.extractFilePositionInfo(context)),
         "system", this.findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION)
@@ -122,13 +165,13 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
   }
 
   @Override
-  public String processPrompt(
+  public PromptResponse processPrompt(
       final PreprocessorContext context,
       final List<ContentRecord> history,
       final String prompt) {
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
     final String sources = StringUtils.asText(positionInfo, true);
-    final GenerateContentConfig generatedContentConfig =
+    final GenerateContentConfig contentConfig =
         findPreprocessorVar(PROPERTY_GEMINI_GENERATE_CONTENT_CONFIG_JSON, context)
             .map(x -> {
               final String json = x.asString();
@@ -137,6 +180,19 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
               return GenerateContentConfig.fromJson(json);
             })
             .orElseGet(() -> this.makeDefaultGenerateContentConfig(context, history));
+    final GenerateContentConfig generatedContentConfig = this.isStructuredOutput(context)
+        ? contentConfig.toBuilder()
+        .responseMimeType("application/json")
+        .responseSchema(Schema.builder()
+            .type("OBJECT")
+            .properties(Map.of(StructuredOutput.FIELD_CODE, Schema.builder()
+                .type("STRING")
+                .description(StructuredOutput.FIELD_CODE_DESCRIPTION)
+                .build()))
+            .required(List.of(StructuredOutput.FIELD_CODE))
+            .build())
+        .build()
+        : contentConfig;
 
     this.logDebug(String.format("prepared generate content config for %s: %s", sources,
         generatedContentConfig.toJson()));
@@ -147,41 +203,55 @@ public class GeminiJcpAiProcessor extends AbstractJcpAiProcessor {
         geminiModel,
         generatedContentConfig.maxOutputTokens().map(Object::toString).orElse("DEFAULT")));
 
-    final GenerateContentResponse response;
-    final long start = System.currentTimeMillis();
-    try (final Client client = this.prepareGeminiClient(context)) {
-      response =
-          client.models.generateContent(
-              geminiModel,
-              Content.builder().role("user").parts(Part.fromText(prompt)).build(),
-              generatedContentConfig);
-    }
-    final long spent = System.currentTimeMillis() - start;
-
-    final String executableCode = response.executableCode();
-    String result;
-    if (executableCode == null) {
-      result = response.text();
-    } else {
-      logDebug("detected executable code with text: " + response.text());
-      result = executableCode;
-    }
-    this.logDebug("RESPONSE for " + sources + "\n-------------\n" + result + "\n-------------");
+    final PromptRequestEvent event = new PromptRequestEvent();
+    PromptResponse promptResponse = null;
+    RuntimeException error = null;
+    try {
+      final GenerateContentResponse response;
+      final long start = System.currentTimeMillis();
+      try (final Client client = this.prepareGeminiClient(context)) {
+        event.begin();
+        response =
+            client.models.generateContent(
+                geminiModel,
+                makeContents(history, prompt),
+                generatedContentConfig);
+        event.end();
+      }
+      final long spent = System.currentTimeMillis() - start;
 
-    if (result == null) {
-      throw new NullPointerException("Unexpectedly returned null as response text at " + sources);
-    }
-    logInfo(String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
-        sources, spent, result.length()));
+      final String executableCode = response.executableCode();
+      String result;
+      if (executableCode == null) {
+        result = response.text();
+      } else {
+        logDebug("detected executable code with text: " + response.text());
+        result = executableCode;
+      }
+      this.logDebug(
+          "RESPONSE for " + sources + "\n-------------\n" + result + "\n-------------");
 
-    result = this.makeDistillationIfAllowed(context, result);
+      if (result == null) {
+        throw new NullPointerException(
+            "Unexpectedly returned null as response text at " + sources);
+      }
+      logInfo(String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
+          sources, spent, result.length()));
 
-    if (result.isBlank()) {
-      throw new IllegalStateException(
-          "Can't find code content in the result of request at " + sources);
+      final Optional<GenerateContentResponseUsageMetadata> usage = response.usageMetadata();
+      promptResponse =
+          PromptResponse.of(result, response.modelVersion().orElse(geminiModel),
+              usage.flatMap(GenerateContentResponseUsageMetadata::promptTokenCount)
+                  .map(Integer::longValue).orElse(PromptResponse.UNKNOWN_TOKENS),
+              usage.flatMap(GenerateContentResponseUsageMetadata::candidatesTokenCount)
+                  .map(Integer::longValue).orElse(PromptResponse.UNKNOWN_TOKENS));
+      return promptResponse;
+    } catch (RuntimeException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      this.commitPromptRequestEvent(event, sources, history, prompt, promptResponse, error);
     }
-
-    return result;
   }
 
 }
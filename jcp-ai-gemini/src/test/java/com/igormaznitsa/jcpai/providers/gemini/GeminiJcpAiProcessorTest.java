@@ -0,0 +1,66 @@
+package com.igormaznitsa.jcpai.providers.gemini;
+
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.DEFAULT_SYSTEM_INSTRUCTION;
+import static com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor.PROPERTY_JCPAI_INSTRUCTION_SYSTEM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.genai.types.Content;
+import com.google.genai.types.GenerateContentConfig;
+import com.igormaznitsa.jcp.context.PreprocessorContext;
+import com.igormaznitsa.jcp.expression.Value;
+import com.igormaznitsa.jcpai.commons.ContentRecord;
+import com.igormaznitsa.jcpai.commons.ContentRole;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GeminiJcpAiProcessorTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static String textOf(final Content content) {
+    return content.parts().orElseThrow().stream()
+        .map(x -> x.text().orElse(""))
+        .reduce("", String::concat);
+  }
+
+  private static List<String> turnsOf(final List<Content> contents) {
+    return contents.stream()
+        .map(x -> x.role().orElse("") + ':' + textOf(x))
+        .toList();
+  }
+
+  @Test
+  void testHistorySentAsTurnsAndSystemInstruction() {
+    final GeminiJcpAiProcessor processor = new GeminiJcpAiProcessor();
+    final PreprocessorContext context = new PreprocessorContext(this.tempDir.toFile());
+    final List<ContentRecord> history = List.of(
+        ContentRecord.of(ContentRole.SYSTEM, "system"),
+        ContentRecord.of(ContentRole.USER, "old prompt"),
+        ContentRecord.of(ContentRole.ASSISTANT, "old answer"));
+
+    final GenerateContentConfig config =
+        processor.makeDefaultGenerateContentConfig(context, history);
+    assertEquals("system", textOf(config.systemInstruction().orElseThrow()));
+    assertEquals(List.of("user:old prompt", "model:old answer", "user:new prompt"),
+        turnsOf(GeminiJcpAiProcessor.makeContents(history, "new prompt")));
+  }
+
+  @Test
+  void testSystemInstructionWithoutHistory() {
+    final GeminiJcpAiProcessor processor = new GeminiJcpAiProcessor();
+    final PreprocessorContext context = new PreprocessorContext(this.tempDir.toFile());
+
+    assertEquals(DEFAULT_SYSTEM_INSTRUCTION, textOf(
+        processor.makeDefaultGenerateContentConfig(context, List.of()).systemInstruction()
+            .orElseThrow()));
+    context.setGlobalVariable(PROPERTY_JCPAI_INSTRUCTION_SYSTEM, Value.valueOf("custom"));
+    assertEquals("custom", textOf(
+        processor.makeDefaultGenerateContentConfig(context, List.of()).systemInstruction()
+            .orElseThrow()));
+    assertEquals(List.of("user:prompt"),
+        turnsOf(GeminiJcpAiProcessor.makeContents(List.of(), "prompt")));
+  }
+}
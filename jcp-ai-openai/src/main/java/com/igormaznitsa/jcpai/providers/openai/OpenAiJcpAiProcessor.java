@@ -6,14 +6,24 @@ import com.igormaznitsa.jcp.expression.Value;
 import com.igormaznitsa.jcp.utils.PreprocessorUtils;
 import com.igormaznitsa.jcpai.commons.AbstractJcpAiProcessor;
 import com.igormaznitsa.jcpai.commons.ContentRecord;
+import com.igormaznitsa.jcpai.commons.PromptResponse;
+import com.igormaznitsa.jcpai.commons.RetryPolicy;
 import com.igormaznitsa.jcpai.commons.StringUtils;
+import com.igormaznitsa.jcpai.commons.StructuredOutput;
+import com.igormaznitsa.jcpai.commons.jfr.PromptRequestEvent;
 import com.openai.client.OpenAIClient;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.core.JsonValue;
+import com.openai.errors.OpenAIServiceException;
 import com.openai.models.ChatModel;
+import com.openai.models.ResponseFormatJsonSchema;
+import com.openai.models.chat.completions.ChatCompletion;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import com.openai.models.completions.CompletionUsage;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
@@ -59,6 +69,10 @@ public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
     this.findParamTopP(context).ifPresent(builder::topP);
     this.findParamMaxTokens(context).ifPresent(builder::maxCompletionTokens);
 
+    if (this.isStructuredOutput(context)) {
+      builder.responseFormat(makeStructuredOutputFormat());
+    }
+
     if (model != null) {
       builder.model(model);
     } else {
@@ -68,6 +82,25 @@ public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
     return builder.build();
   }
 
+  private static ResponseFormatJsonSchema makeStructuredOutputFormat() {
+    return ResponseFormatJsonSchema.builder()
+        .jsonSchema(ResponseFormatJsonSchema.JsonSchema.builder()
+            .name(StructuredOutput.SCHEMA_NAME)
+            .strict(true)
+            .schema(ResponseFormatJsonSchema.JsonSchema.Schema.builder()
+                .putAdditionalProperty("type", JsonValue.from("object"))
+                .putAdditionalProperty("properties", JsonValue.from(Map.of(
+                    StructuredOutput.FIELD_CODE, Map.of(
+                        "type", "string",
+                        "description", StructuredOutput.FIELD_CODE_DESCRIPTION))))
+                .putAdditionalProperty("required",
+                    JsonValue.from(List.of(StructuredOutput.FIELD_CODE)))
+                .putAdditionalProperty("additionalProperties", JsonValue.from(false))
+                .build())
+            .build())
+        .build();
+  }
+
   @Override
   public String getProcessorTextId() {
     return "OPENAI";
@@ -90,14 +123,37 @@ public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
       builder.baseUrl(x);
     });
     findTimeoutMs(context).ifPresent(x -> builder.timeout(Duration.ofMillis(x)));
+    builder.maxRetries(0);
 
     return builder.build();
   }
 
+  @Override
+  protected Optional<String> findProviderBaseUrl(final PreprocessorContext context) {
+    return findBaseUrl(PROPERTY_OPENAI_BASE_URL, context);
+  }
+
+  @Override
+  protected String getModelPropertyName() {
+    return PROPERTY_OPENAI_MODEL;
+  }
+
+  @Override
+  protected int findErrorStatusCode(final Throwable error) {
+    return error instanceof OpenAIServiceException
+        ? ((OpenAIServiceException) error).statusCode() : -1;
+  }
+
+  @Override
+  protected long findErrorRetryAfterMs(final Throwable error) {
+    return error instanceof OpenAIServiceException
+        ? RetryPolicy.findRetryAfterMs(((OpenAIServiceException) error).headers()::values)
+        : RetryPolicy.NO_RETRY_AFTER;
+  }
+
   @Override
   protected Map<String, Object> getExtraPromptKeyValues(final PreprocessorContext context) {
     return Map.of(
-        "distilled", this.isDistillationRequired(context),
         "model", this.findModel(PROPERTY_OPENAI_MODEL, context,
             PreprocessorUtils.extractFilePositionInfo(context)),
         "system", this.findParamInstructionSystem(context).orElse(DEFAULT_SYSTEM_INSTRUCTION)
@@ -105,7 +161,7 @@ public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
   }
 
   @Override
-  public String processPrompt(
+  public PromptResponse processPrompt(
       final PreprocessorContext context,
       final List<ContentRecord> history,
       final String prompt
@@ -113,41 +169,53 @@ public class OpenAiJcpAiProcessor extends AbstractJcpAiProcessor {
     final FilePositionInfo positionInfo = PreprocessorUtils.extractFilePositionInfo(context);
     final String sources = StringUtils.asText(positionInfo, true);
 
-    String response;
-    final long start = System.currentTimeMillis();
-    final OpenAIClient client = this.prepareOpenAiClient(context);
+    final PromptRequestEvent event = new PromptRequestEvent();
+    PromptResponse result = null;
+    RuntimeException error = null;
     try {
-      final String model = this.findModel(PROPERTY_OPENAI_MODEL, context, positionInfo);
-      final ChatCompletionCreateParams messageParams =
-          this.makeMessage(context, model, history, prompt);
-      this.logDebug("Message create params for " + sources + ": " + messageParams);
-
-      this.logInfo(String.format("sending prompt from %s to model %s, max tokens %s",
-          sources,
-          messageParams.model().asString(),
-          messageParams.maxCompletionTokens().map(Object::toString).orElse("DEFAULT")));
-
-      response = client.chat().completions().create(messageParams).choices().stream()
+      final ChatCompletion completion;
+      final long start = System.currentTimeMillis();
+      final OpenAIClient client = this.prepareOpenAiClient(context);
+      try {
+        final String model = this.findModel(PROPERTY_OPENAI_MODEL, context, positionInfo);
+        final ChatCompletionCreateParams messageParams =
+            this.makeMessage(context, model, history, prompt);
+        this.logDebug("Message create params for " + sources + ": " + messageParams);
+
+        this.logInfo(String.format("sending prompt from %s to model %s, max tokens %s",
+            sources,
+            messageParams.model().asString(),
+            messageParams.maxCompletionTokens().map(Object::toString).orElse("DEFAULT")));
+
+        event.begin();
+        completion = client.chat().completions().create(messageParams);
+        event.end();
+      } finally {
+        client.close();
+      }
+      final long spent = System.currentTimeMillis() - start;
+
+      final String response = completion.choices().stream()
           .flatMap(choice -> choice.message().content().stream()).collect(Collectors.joining());
+      this.logDebug(
+          "RESPONSE for " + sources + "\n-------------\n" + response + "\n-------------");
+
+      this.logInfo(
+          String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
+              sources, spent, response.length()));
+
+      result = PromptResponse.of(response, completion.model(),
+          completion.usage().map(CompletionUsage::promptTokens)
+              .orElse(PromptResponse.UNKNOWN_TOKENS),
+          completion.usage().map(CompletionUsage::completionTokens)
+              .orElse(PromptResponse.UNKNOWN_TOKENS));
+      return result;
+    } catch (RuntimeException ex) {
+      error = ex;
+      throw ex;
     } finally {
-      client.close();
+      this.commitPromptRequestEvent(event, sources, history, prompt, result, error);
     }
-    final long spent = System.currentTimeMillis() - start;
-
-    this.logDebug("RESPONSE for " + sources + "\n-------------\n" + response + "\n-------------");
-
-    this.logInfo(
-        String.format("got response for the prompt at %s, spent %d ms, response %d char(s)",
-            sources, spent, response.length()));
-
-    response = this.makeDistillationIfAllowed(context, response);
-
-    if (response.isBlank()) {
-      throw new IllegalStateException(
-          "Can't find code content in the result of request at " + sources);
-    }
-
-    return response;
   }
 
 }